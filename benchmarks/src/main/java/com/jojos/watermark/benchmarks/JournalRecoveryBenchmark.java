@@ -0,0 +1,89 @@
+package com.jojos.watermark.benchmarks;
+
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Topic;
+import com.jojos.watermark.domain.Watermark;
+import com.jojos.watermark.service.CompactTicketStore;
+import com.jojos.watermark.service.FileTicketJournal;
+import com.jojos.watermark.service.TicketRetention;
+import com.jojos.watermark.service.WatermarkStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Rebuilding a {@link WatermarkStore} on startup from a {@link FileTicketJournal} of completed tickets, either from
+ * the journal segments alone or from a snapshot of them.
+ *
+ * @author gkaranikas
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class JournalRecoveryBenchmark {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final long SEGMENT_SIZE = 64L << 20;
+
+    @Param({"100000"})
+    public int tickets;
+
+    @Param({"false", "true"})
+    public boolean snapshot;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("watermark-journal");
+        try (FileTicketJournal journal = new FileTicketJournal(directory, false, BUFFER_SIZE, SEGMENT_SIZE)) {
+            WatermarkStore store = new WatermarkStore(new CompactTicketStore(false, 16 << 20), journal,
+                    TicketRetention.unbounded(), true);
+            for (int i = 0; i < tickets; i++) {
+                Document document = new Book("Earth " + i, new Author("Sougamoto", "Soi"), Topic.Science);
+                int ticket = store.storeDocumentAndCreateTicket(document);
+                store.storeDocumentForTicket(ticket, document.withWatermark(Watermark.createFor(document)));
+            }
+            if (snapshot) {
+                store.snapshot();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public WatermarkStore recover() throws IOException {
+        try (FileTicketJournal journal = new FileTicketJournal(directory, false, BUFFER_SIZE, SEGMENT_SIZE)) {
+            return new WatermarkStore(new CompactTicketStore(false, 16 << 20), journal, TicketRetention.unbounded(), true);
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.jojos.watermark.benchmarks;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jojos.watermark.data.DocumentParser;
+import com.jojos.watermark.data.DocumentView;
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Topic;
+import com.jojos.watermark.domain.Watermark;
+import com.jojos.watermark.service.WatermarkCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the json of a document and writing the json of a watermark, each one the way it used to be done (data
+ * binding) and the way it's done now (streaming parser, cached json). Run with -prof gc for the allocations.
+ *
+ * @author gkaranikas
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final byte[] documentJson = ("{\"title\":\"A Brief History of Time\"," +
+            "\"author\":{\"firstName\":\"Stephen\",\"lastName\":\"Hawking\"},\"topic\":\"Science\"}").getBytes(StandardCharsets.UTF_8);
+    private final Document document = new Book("A Brief History of Time", new Author("Stephen", "Hawking"), Topic.Science);
+    private final Watermark watermark = Watermark.createFor(document);
+    private final WatermarkCache cache = new WatermarkCache(objectMapper, 1024);
+
+    @Benchmark
+    public Document readDocumentViewDataBinding() throws IOException {
+        return objectMapper.readValue(documentJson, DocumentView.class).toDocument();
+    }
+
+    @Benchmark
+    public Document readDocumentStreaming() throws IOException {
+        try (JsonParser parser = objectMapper.createParser(documentJson)) {
+            return DocumentParser.parse(parser);
+        }
+    }
+
+    @Benchmark
+    public byte[] writeWatermarkDataBinding() throws IOException {
+        return objectMapper.writeValueAsBytes(watermark);
+    }
+
+    @Benchmark
+    public byte[] writeWatermarkCached() {
+        return cache.get(document).getJson();
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.jojos.watermark.benchmarks;
+
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Content;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+import com.jojos.watermark.domain.Watermark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating watermarks and resolving the content of a document class
+ *
+ * @author gkaranikas
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WatermarkBenchmark {
+
+    private final Book book = new Book("A Brief History of Time", new Author("Stephen", "Hawking"), Topic.Science);
+    private final Journal journal = new Journal("Magnetospheric Multiscale", new Author("Roy", "Torbert"));
+
+    @Benchmark
+    public Watermark createForBook() {
+        return Watermark.createFor(book);
+    }
+
+    @Benchmark
+    public Watermark createForJournal() {
+        return Watermark.createFor(journal);
+    }
+
+    @Benchmark
+    public Content contentForClass() {
+        return Content.forClass(journal.getClass());
+    }
+
+}
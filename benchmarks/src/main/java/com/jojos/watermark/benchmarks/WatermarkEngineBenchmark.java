@@ -0,0 +1,142 @@
+package com.jojos.watermark.benchmarks;
+
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Topic;
+import com.jojos.watermark.domain.Watermark;
+import com.jojos.watermark.service.ContentStore;
+import com.jojos.watermark.service.ContentWatermarker;
+import com.jojos.watermark.service.LsbWatermarkEngine;
+import com.jojos.watermark.service.WatermarkEngine;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The throughput of stamping a content with the {@link LsbWatermarkEngine}, reported in MB/s by the megabytes
+ * counter of every benchmark: in memory, from a stream, and from file to file through the {@link ContentWatermarker}
+ * with a pool of 1 or 4 threads. Copying the file as it is shows the cost of the file system alone.
+ *
+ * @author gkaranikas
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WatermarkEngineBenchmark {
+
+    private static final Watermark WATERMARK = Watermark.createFor(
+            new Book("A Brief History of Time", new Author("Stephen", "Hawking"), Topic.Science));
+
+    @State(Scope.Benchmark)
+    public static class Content {
+
+        @Param({"1048576", "67108864"})
+        public int size;
+
+        private final WatermarkEngine engine = new LsbWatermarkEngine();
+        private byte[] bytes;
+        private ByteBuffer content;
+        private ByteBuffer watermarked;
+        private Path directory;
+        private Path file;
+        private Path watermarkedFile;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            bytes = new byte[size];
+            new Random(42).nextBytes(bytes);
+            content = ByteBuffer.allocateDirect(size).put(bytes).flip();
+            watermarked = ByteBuffer.allocateDirect(size);
+            directory = Files.createTempDirectory("watermark-content");
+            file = Files.write(directory.resolve("1.content"), bytes);
+            watermarkedFile = directory.resolve("1.watermarked");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Watermarker {
+
+        @Param({"1", "4"})
+        public int parallelism;
+
+        private ContentWatermarker watermarker;
+
+        @Setup(Level.Trial)
+        public void setUp(Content content) throws IOException {
+            watermarker = new ContentWatermarker(content.engine, new ContentStore(content.directory, Long.MAX_VALUE),
+                    parallelism, 4 << 20);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            watermarker.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Megabytes {
+
+        public long megabytes;
+
+        private void add(long bytes) {
+            megabytes += bytes >> 20;
+        }
+    }
+
+    @Benchmark
+    public void stampBuffer(Content content, Megabytes megabytes) {
+        content.engine.stamp(WATERMARK, 0, content.content.clear(), content.watermarked.clear());
+        megabytes.add(content.size);
+    }
+
+    @Benchmark
+    public void stampStream(Content content, Megabytes megabytes) throws IOException {
+        megabytes.add(content.engine.stamp(WATERMARK, new ByteArrayInputStream(content.bytes),
+                OutputStream.nullOutputStream()));
+    }
+
+    @Benchmark
+    public void stampFile(Content content, Watermarker watermarker, Megabytes megabytes) throws IOException {
+        megabytes.add(watermarker.watermarker.stamp(WATERMARK, content.file, content.watermarkedFile));
+    }
+
+    @Benchmark
+    public void copyFile(Content content, Megabytes megabytes) throws IOException {
+        Files.copy(content.file, content.watermarkedFile, StandardCopyOption.REPLACE_EXISTING);
+        megabytes.add(content.size);
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.jojos.watermark.benchmarks;
+
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Topic;
+import com.jojos.watermark.domain.Watermark;
+import com.jojos.watermark.service.Cluster;
+import com.jojos.watermark.service.CompactTicketStore;
+import com.jojos.watermark.service.HeapTicketStore;
+import com.jojos.watermark.service.NoOpTicketJournal;
+import com.jojos.watermark.service.TicketRetention;
+import com.jojos.watermark.service.TicketStore;
+import com.jojos.watermark.service.WatermarkStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.beans.factory.ObjectFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating tickets and retrieving watermarks from the {@link WatermarkStore}, for both kinds of {@link TicketStore}
+ * and with the store in one or many shards. The number of threads is given on the command line, e.g. -t 1 or -t 64;
+ * running it for every number of threads from 1 to 64 shows how the store scales with and without shards.
+ *
+ * The tickets created pile up in the store, so rather than running for a given time every thread creates a fixed
+ * number of tickets per iteration (and the store is created anew for every iteration). Timing the creation instead
+ * lets the tickets of an iteration grow with the pauses to collect them, which never ends on a machine with few cpus.
+ *
+ * @author gkaranikas
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class WatermarkStoreBenchmark {
+
+    private static final int COMPLETED_TICKETS = 1 << 20;
+    private static final int TICKETS_PER_ITERATION = 1 << 16;
+
+    @State(Scope.Benchmark)
+    public static class CreateState {
+
+        @Param({"heap", "compact"})
+        public String storeType;
+
+        @Param({"1", "16"})
+        public int shards;
+
+        WatermarkStore store;
+        final Document document = new Book("Earth", new Author("Sougamoto", "Soi"), Topic.Science);
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            store = newStore(storeType, shards);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class GetState {
+
+        @Param({"heap", "compact"})
+        public String storeType;
+
+        @Param({"1", "16"})
+        public int shards;
+
+        WatermarkStore store;
+        // a single thread creates them all, so with shards they are not 1 to COMPLETED_TICKETS
+        final int[] tickets = new int[COMPLETED_TICKETS];
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            store = newStore(storeType, shards);
+            for (int i = 0; i < COMPLETED_TICKETS; i++) {
+                Document document = new Book("Earth " + i, new Author("Sougamoto", "Soi"), Topic.Science);
+                tickets[i] = store.storeDocumentAndCreateTicket(document);
+                store.storeDocumentForTicket(tickets[i], document.withWatermark(Watermark.createFor(document)));
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    @OperationsPerInvocation(TICKETS_PER_ITERATION)
+    public void storeDocumentAndCreateTicket(CreateState state, Blackhole blackhole) {
+        for (int i = 0; i < TICKETS_PER_ITERATION; i++) {
+            blackhole.consume(state.store.storeDocumentAndCreateTicket(state.document));
+        }
+    }
+
+    @Benchmark
+    public Watermark getWatermarkForTicket(GetState state) {
+        return state.store.getWatermarkForTicket(state.tickets[ThreadLocalRandom.current().nextInt(COMPLETED_TICKETS)]);
+    }
+
+    private static WatermarkStore newStore(String storeType, int shards) {
+        ObjectFactory<TicketStore> ticketStores = "compact".equals(storeType) ?
+                () -> new CompactTicketStore(false, (16 << 20) / shards) : HeapTicketStore::new;
+        return new WatermarkStore(ticketStores, shards, Cluster.standalone(), new NoOpTicketJournal(),
+                TicketRetention.unbounded(), true);
+    }
+
+}
@@ -0,0 +1,250 @@
+package com.jojos.watermark.api;
+
+import com.jojos.watermark.data.DocumentCodec;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.service.CachedWatermark;
+import com.jojos.watermark.service.Scheduling;
+import com.jojos.watermark.service.TicketStatus;
+import com.jojos.watermark.service.WatermarkMetrics;
+import com.jojos.watermark.service.WatermarkPriority;
+import com.jojos.watermark.service.WatermarkService;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.IntStream;
+
+/**
+ * A binary alternative to the {@link Controller} for clients that send a lot of documents, enabled with
+ * watermark.binary.enabled=true on watermark.binary.port.
+ *
+ * The requests and the responses are length prefixed frames over a plain TCP connection:
+ * <pre>
+ *     request:  length (4 bytes) | request id (4 bytes) | operation (1 byte) | payload
+ *     response: length (4 bytes) | request id (4 bytes) | status (1 byte) | payload
+ * </pre>
+ * where the length counts everything after itself and the request id is whatever the client sent, handed back in
+ * the response. The operations are
+ * <ul>
+ *     <li>CREATE: the payload is a document encoded with the {@link DocumentCodec}. The response is OK with the
+ *     ticket (4 bytes) as payload, BUSY if there is no room for the watermark task or INVALID</li>
+ *     <li>GET: the payload is the ticket (4 bytes). The response is COMPLETED with the json of the watermark as payload,
+ *     or PENDING, UNKNOWN or EXPIRED without payload</li>
+ * </ul>
+ * A client doesn't have to wait for a response before sending the next request. The requests of a connection are
+ * handled in order and the responses are only flushed once there is no request left to read, so a pipelined burst of
+ * requests is answered with a burst of responses. Every connection is served by a virtual thread of its own.
+ * A frame that can't be parsed closes the connection.
+ *
+ * The documents of a connection are watermarked as bulk work of the address of the client, see
+ * {@link com.jojos.watermark.service.WatermarkScheduler}, since it's the high volume clients that come this way.
+ *
+ * @author gkaranikas
+ */
+@Component
+@ConditionalOnProperty(name = "watermark.binary.enabled", havingValue = "true")
+public class BinaryServer {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryServer.class);
+
+    public static final byte CREATE = 1;
+    public static final byte GET = 2;
+
+    public static final byte OK = 0;
+    public static final byte COMPLETED = 1;
+    public static final byte PENDING = 2;
+    public static final byte UNKNOWN = 3;
+    public static final byte EXPIRED = 4;
+    public static final byte BUSY = 5;
+    public static final byte INVALID = 6;
+
+    private static final int FRAME_HEADER_SIZE = Integer.BYTES + 1;
+
+    private final WatermarkService watermarkService;
+    private final WatermarkMetrics metrics;
+    private final int maxFrameSize;
+    private final ServerSocket serverSocket;
+    private final ThreadFactory connectionThreads = Thread.ofVirtual().name("watermark-binary-", 1).factory();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public BinaryServer(WatermarkService watermarkService,
+                        WatermarkMetrics metrics,
+                        @Value("${watermark.binary.port:9090}") int port,
+                        @Value("${watermark.binary.max-frame-size-bytes:65536}") int maxFrameSize) throws IOException {
+        this.watermarkService = watermarkService;
+        this.metrics = metrics;
+        this.maxFrameSize = maxFrameSize;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port));
+        Thread acceptor = new Thread(this::accept, "watermark-binary-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Binary watermark server listening on port {}", getPort());
+    }
+
+    /**
+     * @return the port the server listens on, which is only known up front if it was not configured as 0
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket connection = serverSocket.accept();
+                connection.setTcpNoDelay(true);
+                connections.add(connection);
+                connectionThreads.newThread(() -> serve(connection)).start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Failed to accept a binary connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (connection;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            Scheduling scheduling = new Scheduling(connection.getInetAddress().getHostAddress(), WatermarkPriority.BULK,
+                    Scheduling.DEFAULT_DEADLINE);
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length < FRAME_HEADER_SIZE || length > maxFrameSize) {
+                    log.warn("Closing binary connection {} after a frame of {} bytes", connection.getRemoteSocketAddress(), length);
+                    return;
+                }
+                int requestId = in.readInt();
+                byte operation = in.readByte();
+                byte[] payload = new byte[length - FRAME_HEADER_SIZE];
+                in.readFully(payload);
+                handle(requestId, operation, payload, scheduling, out);
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException | EOFException e) {
+            // the connection was closed by either side
+        } catch (IOException e) {
+            log.warn("Binary connection {} failed", connection.getRemoteSocketAddress(), e);
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    private void handle(int requestId, byte operation, byte[] payload, Scheduling scheduling, DataOutputStream out)
+            throws IOException {
+        switch (operation) {
+            case CREATE:
+                create(requestId, payload, scheduling, out);
+                break;
+            case GET:
+                if (payload.length != Integer.BYTES) {
+                    respond(out, requestId, INVALID, null);
+                } else {
+                    get(requestId, ByteBuffer.wrap(payload).getInt(), out);
+                }
+                break;
+            default:
+                respond(out, requestId, INVALID, null);
+        }
+    }
+
+    private void create(int requestId, byte[] payload, Scheduling scheduling, DataOutputStream out) throws IOException {
+        Document document;
+        try {
+            document = DocumentCodec.decode(ByteBuffer.wrap(payload), 0);
+        } catch (RuntimeException e) {
+            metrics.invalid();
+            respond(out, requestId, INVALID, null);
+            return;
+        }
+        int ticket;
+        try {
+            ticket = watermarkService.createWatermarkFor(document, scheduling);
+        } catch (RejectedExecutionException e) {
+            respond(out, requestId, BUSY, null);
+            return;
+        }
+        out.writeInt(FRAME_HEADER_SIZE + Integer.BYTES);
+        out.writeInt(requestId);
+        out.writeByte(OK);
+        out.writeInt(ticket);
+    }
+
+    private void get(int requestId, int ticket, DataOutputStream out) throws IOException {
+        CachedWatermark watermark = watermarkService.getCachedWatermarkForTicket(ticket);
+        if (watermark != null) {
+            respond(out, requestId, COMPLETED, watermark.getJson());
+            return;
+        }
+        byte[] status = new byte[1];
+        watermarkService.lookupTickets(IntStream.of(ticket).iterator(), (id, ticketStatus, ignored) ->
+                status[0] = statusOf(ticketStatus));
+        if (status[0] == COMPLETED) {
+            // completed in the meantime, take it from the top
+            get(requestId, ticket, out);
+        } else {
+            respond(out, requestId, status[0], null);
+        }
+    }
+
+    private static byte statusOf(TicketStatus status) {
+        switch (status) {
+            case COMPLETED:
+                return COMPLETED;
+            case PENDING:
+                return PENDING;
+            case EXPIRED:
+                return EXPIRED;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    private static void respond(DataOutputStream out, int requestId, byte status, byte[] payload) throws IOException {
+        int payloadLength = payload == null ? 0 : payload.length;
+        out.writeInt(FRAME_HEADER_SIZE + payloadLength);
+        out.writeInt(requestId);
+        out.writeByte(status);
+        if (payload != null) {
+            out.write(payload);
+        }
+    }
+
+}
@@ -0,0 +1,298 @@
+package com.jojos.watermark.api;
+
+import com.jojos.watermark.service.Cluster;
+import com.jojos.watermark.service.RateLimitedLog;
+import com.jojos.watermark.service.WatermarkService;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Forwards the requests for a single ticket that belongs to another node of the {@link Cluster} to that node, enabled
+ * with watermark.cluster.enabled=true. Any node can thus sit behind a load balancer that knows nothing of tickets.
+ *
+ * Getting a watermark (with or without waiting for it) and cancelling a ticket are forwarded as they are, along with
+ * If-None-Match, and the response of the node is handed back as it is. The request isn't holding a thread meanwhile.
+ * The requests go over a single http client for all the nodes, which keeps its connections to every node open and
+ * reuses them. At most watermark.cluster.max-forwards requests are forwarded to a node at a time and the rest are
+ * answered right away with 503 (Service Unavailable) and a Retry-After header, so that an overloaded node isn't sent
+ * ever more connections. A node that can't be reached in time is answered with 502 (Bad Gateway) or 504 (Gateway
+ * Timeout). A request that has been forwarded once is never forwarded again. A download of the watermarked content
+ * of a ticket isn't forwarded but redirected (307) to the node of the ticket, which serves the file itself.
+ *
+ * A lookup of many tickets at once asks every other node for its own tickets with a single POST /watermark/get, all
+ * of them in parallel, and the {@link Controller} merges their answers in the order of the tickets. The events of the
+ * tickets of other nodes are sent right away with the status NOT_LOCAL, since a stream can't be forwarded; the client
+ * has to stream them from their own node (or look them up).
+ *
+ * @author gkaranikas
+ */
+@Component
+@ConditionalOnProperty(name = "watermark.cluster.enabled", havingValue = "true")
+public class ClusterForwardingFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterForwardingFilter.class);
+    private static final RateLimitedLog failureLog = new RateLimitedLog(log, 1, TimeUnit.SECONDS);
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    static final String FORWARDED_BY = "X-Watermark-Forwarded-By";
+    private static final List<String> RESPONSE_HEADERS = List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.ETAG,
+            HttpHeaders.RETRY_AFTER);
+
+    private final WatermarkService watermarkService;
+    private final Cluster cluster;
+    private final Duration timeout;
+    private final long maxWaitSeconds;
+    private final Semaphore[] forwards;
+    private final HttpClient client;
+
+    @Autowired
+    public ClusterForwardingFilter(WatermarkService watermarkService,
+                                   Cluster cluster,
+                                   @Value("${watermark.cluster.timeout-seconds:5}") long timeoutSeconds,
+                                   @Value("${watermark.cluster.max-forwards:256}") int maxForwards,
+                                   @Value("${watermark.await.max-wait-seconds:300}") long maxWaitSeconds) {
+        this.watermarkService = watermarkService;
+        this.cluster = cluster;
+        this.timeout = Duration.ofSeconds(timeoutSeconds);
+        this.maxWaitSeconds = maxWaitSeconds;
+        this.forwards = new Semaphore[cluster.size()];
+        for (int node = 0; node < forwards.length; node++) {
+            forwards[node] = new Semaphore(maxForwards);
+        }
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(timeout).build();
+    }
+
+    @PreDestroy
+    public void close() {
+        client.close();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getServletPath();
+        return request.getHeader(FORWARDED_BY) != null ||
+                !(("GET".equals(request.getMethod()) && "/watermark/get".equals(path)) ||
+                        ("POST".equals(request.getMethod()) && "/watermark/cancel".equals(path)) ||
+                        isContentDownload(request));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        int node = nodeOf(request.getParameter("ticket"));
+        if (node < 0 || node == cluster.getNodeId()) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (isContentDownload(request)) {
+            // the content is far too large to pass through this node, the client is sent to the node that has it
+            response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+            response.setHeader(HttpHeaders.LOCATION, forwardedUri(node, request).toString());
+            return;
+        }
+
+        Duration requestTimeout = timeout.plusSeconds(Math.min(parseWait(request.getParameter("wait")), maxWaitSeconds));
+        HttpRequest.Builder forwarded = HttpRequest.newBuilder(forwardedUri(node, request)).
+                timeout(requestTimeout).
+                header(FORWARDED_BY, Integer.toString(cluster.getNodeId())).
+                method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            forwarded.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+
+        if (!forwards[node].tryAcquire()) {
+            failureLog.warn("Too many requests are forwarded to node {}, turning away ticket {}", node,
+                    request.getParameter("ticket"));
+            response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        try {
+            AsyncContext async = request.startAsync();
+            async.setTimeout(requestTimeout.plusSeconds(1).toMillis());
+            client.sendAsync(forwarded.build(), HttpResponse.BodyHandlers.ofByteArray()).
+                    whenComplete((forwardedResponse, failure) -> {
+                        try {
+                            if (failure != null) {
+                                fail(node, response, failure instanceof CompletionException ? failure.getCause() : failure);
+                            } else {
+                                copy(forwardedResponse, response);
+                            }
+                        } catch (IOException e) {
+                            log.debug("Could not write the response forwarded by node {}", node, e);
+                        } finally {
+                            forwards[node].release();
+                            async.complete();
+                        }
+                    });
+        } catch (RuntimeException e) {
+            forwards[node].release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the ticket belongs to another node, which has to be asked for it
+     */
+    boolean isForeign(int ticket) {
+        return ticket > 0 && watermarkService.getNodeForTicket(ticket) != cluster.getNodeId();
+    }
+
+    /**
+     * Look up the tickets of the other nodes among a number of tickets, every node being asked for all of its own
+     * tickets at once with POST /watermark/get
+     *
+     * @param tickets the tickets to look up
+     * @return the json arrays the nodes answered with, by node, null for the nodes that weren't asked; or null if all
+     * the tickets are this node's. It fails with a RejectedExecutionException if too many requests are forwarded to
+     * a node already, and with a {@link ResponseStatusException} if a node can't be reached in time (502 or 504) or
+     * it doesn't answer with 200 (OK) (502)
+     */
+    CompletableFuture<byte[][]> lookUpForeignTickets(int[] tickets) {
+        int[][] ticketsByNode = new int[cluster.size()][];
+        int[] counts = new int[cluster.size()];
+        for (int ticket : tickets) {
+            if (isForeign(ticket)) {
+                counts[watermarkService.getNodeForTicket(ticket)]++;
+            }
+        }
+        if (Arrays.stream(counts).allMatch(count -> count == 0)) {
+            return null;
+        }
+        for (int node = 0; node < counts.length; node++) {
+            ticketsByNode[node] = counts[node] == 0 ? null : new int[counts[node]];
+            counts[node] = 0;
+        }
+        for (int ticket : tickets) {
+            if (isForeign(ticket)) {
+                int node = watermarkService.getNodeForTicket(ticket);
+                ticketsByNode[node][counts[node]++] = ticket;
+            }
+        }
+
+        byte[][] answers = new byte[cluster.size()][];
+        CompletableFuture<?>[] lookups = new CompletableFuture<?>[cluster.size()];
+        for (int node = 0; node < lookups.length; node++) {
+            int[] nodeTickets = ticketsByNode[node];
+            int answeringNode = node;
+            lookups[node] = nodeTickets == null ? CompletableFuture.completedFuture(null) :
+                    lookUp(node, nodeTickets).thenAccept(answer -> answers[answeringNode] = answer);
+        }
+        return CompletableFuture.allOf(lookups).thenApply(ignored -> answers);
+    }
+
+    private CompletableFuture<byte[]> lookUp(int node, int[] tickets) {
+        String body = Arrays.stream(tickets).mapToObj(Integer::toString).collect(Collectors.joining(",", "[", "]"));
+        HttpRequest lookup = HttpRequest.newBuilder(cluster.getNode(node).resolve("/watermark/get")).
+                timeout(timeout).
+                header(FORWARDED_BY, Integer.toString(cluster.getNodeId())).
+                header(HttpHeaders.CONTENT_TYPE, "application/json").
+                POST(HttpRequest.BodyPublishers.ofString(body)).
+                build();
+        if (!forwards[node].tryAcquire()) {
+            failureLog.warn("Too many requests are forwarded to node {}, turning away a lookup of {} tickets", node,
+                    tickets.length);
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "Too many requests are forwarded to node " + node));
+        }
+        try {
+            return client.sendAsync(lookup, HttpResponse.BodyHandlers.ofByteArray()).
+                    handle((response, failure) -> {
+                        if (failure != null) {
+                            failure = failure instanceof CompletionException ? failure.getCause() : failure;
+                            failureLog.warn("Could not look up tickets on node {}: {}", node, failure.toString());
+                            throw new ResponseStatusException(failure instanceof HttpTimeoutException ?
+                                    HttpStatus.GATEWAY_TIMEOUT : HttpStatus.BAD_GATEWAY, "Node " + node, failure);
+                        }
+                        if (response.statusCode() == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+                            throw new RejectedExecutionException("Node " + node + " is overloaded");
+                        }
+                        if (response.statusCode() != HttpServletResponse.SC_OK) {
+                            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Node " + node +
+                                    " answered with " + response.statusCode());
+                        }
+                        return response.body();
+                    }).
+                    whenComplete((answer, failure) -> forwards[node].release());
+        } catch (RuntimeException e) {
+            forwards[node].release();
+            throw e;
+        }
+    }
+
+    private static boolean isContentDownload(HttpServletRequest request) {
+        return "GET".equals(request.getMethod()) && "/watermark/content".equals(request.getServletPath());
+    }
+
+    /**
+     * @return the node of the ticket, or -1 if it's not a ticket at all (which is up to the controller to answer)
+     */
+    private int nodeOf(String ticket) {
+        try {
+            return ticket == null ? -1 : watermarkService.getNodeForTicket(Integer.parseInt(ticket));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private URI forwardedUri(int node, HttpServletRequest request) {
+        String query = request.getQueryString();
+        return cluster.getNode(node).resolve(request.getRequestURI() + (query == null ? "" : "?" + query));
+    }
+
+    private static long parseWait(String wait) {
+        try {
+            return wait == null ? 0 : Math.max(0, Long.parseLong(wait));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void copy(HttpResponse<byte[]> from, HttpServletResponse to) throws IOException {
+        to.setStatus(from.statusCode());
+        for (String header : RESPONSE_HEADERS) {
+            from.headers().firstValue(header).ifPresent(value -> to.setHeader(header, value));
+        }
+        to.setContentLength(from.body().length);
+        to.getOutputStream().write(from.body());
+    }
+
+    private static void fail(int node, HttpServletResponse response, Throwable failure) {
+        failureLog.warn("Could not forward the request to node {}: {}", node, failure.toString());
+        response.setStatus(failure instanceof HttpTimeoutException ?
+                HttpServletResponse.SC_GATEWAY_TIMEOUT : HttpServletResponse.SC_BAD_GATEWAY);
+    }
+
+}
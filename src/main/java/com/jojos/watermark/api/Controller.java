@@ -1,23 +1,86 @@
 package com.jojos.watermark.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jojos.watermark.data.DocumentParser;
 import com.jojos.watermark.data.DocumentView;
+import com.jojos.watermark.data.TicketView;
 import com.jojos.watermark.domain.Author;
 import com.jojos.watermark.domain.Book;
 import com.jojos.watermark.domain.Document;
 import com.jojos.watermark.domain.Journal;
 import com.jojos.watermark.domain.Topic;
 import com.jojos.watermark.domain.Watermark;
+import com.jojos.watermark.service.CachedWatermark;
+import com.jojos.watermark.service.ContentTooLargeException;
+import com.jojos.watermark.service.OverloadedException;
+import com.jojos.watermark.service.RateLimitedLog;
+import com.jojos.watermark.service.Scheduling;
+import com.jojos.watermark.service.Subscription;
+import com.jojos.watermark.service.TicketStatus;
+import com.jojos.watermark.service.WatermarkJob;
+import com.jojos.watermark.service.WatermarkMetrics;
+import com.jojos.watermark.service.WatermarkPriority;
+import com.jojos.watermark.service.WatermarkScheduler;
 import com.jojos.watermark.service.WatermarkService;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -25,6 +88,17 @@ import org.springframework.web.bind.annotation.RestController;
  * 1. make an asynchronous request to watermark a particular document. You can use a post or a get request, they should behave the same
  * 2. try to get the actual watermark based on the ticket from the initial request
  *
+ * The requests that create watermarks may say how their watermark tasks are scheduled, see {@link WatermarkScheduler},
+ * with the headers
+ * <ul>
+ *     <li>X-Client-Id: the client the tasks are queued fairly against the other clients for, the address of the
+ *     caller if there is none</li>
+ *     <li>X-Watermark-Priority: interactive or bulk. Single documents are interactive and batches bulk by default</li>
+ *     <li>X-Watermark-Deadline-Millis: how long the tasks may be queued before their tickets are dropped, the
+ *     deadline of the priority by default</li>
+ * </ul>
+ * An invalid priority or deadline is answered with 400 (Bad Request).
+ *
  * @author gkaranikas
  */
 @RestController
@@ -32,12 +106,56 @@ import org.springframework.web.bind.annotation.RestController;
 public class Controller {
 
     private static final Logger log = LoggerFactory.getLogger(Controller.class);
+    // the lines logged on every request are logged once a second at most
+    private static final RateLimitedLog createLog = new RateLimitedLog(log, 1, TimeUnit.SECONDS);
+    private static final RateLimitedLog createAndAwaitLog = new RateLimitedLog(log, 1, TimeUnit.SECONDS);
+    private static final RateLimitedLog getLog = new RateLimitedLog(log, 1, TimeUnit.SECONDS);
+    private static final RateLimitedLog awaitLog = new RateLimitedLog(log, 1, TimeUnit.SECONDS);
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+    private static final String SERVER_TIMING = "Server-Timing";
+    private static final String CLIENT_ID = "X-Client-Id";
+    private static final String PRIORITY = "X-Watermark-Priority";
+    private static final String DEADLINE_MILLIS = "X-Watermark-Deadline-Millis";
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
 
     private final WatermarkService watermarkService;
+    private final WatermarkMetrics metrics;
+    private final ObjectMapper objectMapper;
+    private final int maxBatchSize;
+    private final long maxWaitSeconds;
+    private final long eventsTimeoutSeconds;
+    // sends the events of the streams, so that a slow client never holds up the thread that completes a watermark
+    private final ExecutorService eventSender;
+    // looks up the tickets of the other nodes, in a cluster only
+    private final ClusterForwardingFilter forwarding;
 
     @Autowired
-    public Controller(WatermarkService watermarkService) {
+    public Controller(WatermarkService watermarkService,
+                      WatermarkMetrics metrics,
+                      ObjectMapper objectMapper,
+                      @Value("${watermark.batch.max-size:100000}") int maxBatchSize,
+                      @Value("${watermark.await.max-wait-seconds:300}") long maxWaitSeconds,
+                      @Value("${watermark.await.events-timeout-seconds:600}") long eventsTimeoutSeconds,
+                      @Value("${watermark.await.events-threads:4}") int eventsThreads,
+                      ObjectProvider<ClusterForwardingFilter> forwarding) {
         this.watermarkService = watermarkService;
+        this.metrics = metrics;
+        this.objectMapper = objectMapper;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitSeconds = maxWaitSeconds;
+        this.eventsTimeoutSeconds = eventsTimeoutSeconds;
+        this.eventSender = Executors.newFixedThreadPool(eventsThreads,
+                Thread.ofPlatform().name("watermark-events-", 1).daemon().factory());
+        this.forwarding = forwarding.getIfAvailable();
+    }
+
+    @PreDestroy
+    public void close() {
+        eventSender.shutdownNow();
     }
 
     /**
@@ -66,11 +184,64 @@ public class Controller {
      * @param documentView a view of the document which is mapped to a book or a journal
      * @return the ticket number for which we associate this book for later watermark retrieval
      */
-    @PostMapping(value = "/create", consumes = MediaType.APPLICATION_JSON_UTF8_VALUE)
-    public int createWatermarkForDocument(@RequestBody DocumentView documentView) {
+    @PostMapping(value = "/create", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public int createWatermarkForDocument(@RequestBody DocumentView documentView, HttpServletRequest request) {
+        Document document = documentView.toDocument();
+        createLog.info("Create a new watermark via post for document with title {}", document.getTitle());
+        return watermarkService.createWatermarkFor(document, scheduling(request, WatermarkPriority.INTERACTIVE));
+    }
+
+    /**
+     * A variant of #createWatermarkForDocument that waits for the watermark as well, without blocking any thread
+     * meanwhile. The response is a json object that looks like the elements of #getWatermarksForTicketRanges:
+     * COMPLETED with the watermark if it's created within the wait time, otherwise PENDING with 202 (Accepted)
+     * as the status code, or UNKNOWN if the ticket is cancelled meanwhile.
+     *
+     * A completed response carries the time spent in every stage of the watermark pipeline in a Server-Timing header.
+     *
+     * @param documentView a view of the document which is mapped to a book or a journal
+     * @param wait the maximum time in seconds to wait for the watermark (capped by watermark.await.max-wait-seconds)
+     * @return the ticket, its status and the watermark once created
+     */
+    @PostMapping(value = "/create", params = "wait", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<TicketView>> createAndAwaitWatermarkForDocument(@RequestBody DocumentView documentView,
+                                                                                         @RequestParam long wait,
+                                                                                         HttpServletRequest request) {
         Document document = documentView.toDocument();
-        log.info("Create a new watermark via post for document with title {}", document.getTitle());
-        return watermarkService.createWatermarkFor(document);
+        createAndAwaitLog.info("Create a new watermark via post for document with title {} and wait up to {} seconds", document.getTitle(), wait);
+        WatermarkJob job = watermarkService.submitWatermarkFor(document, scheduling(request, WatermarkPriority.INTERACTIVE));
+
+        DeferredResult<ResponseEntity<TicketView>> result =
+                new DeferredResult<>(TimeUnit.SECONDS.toMillis(Math.min(wait, maxWaitSeconds)));
+        result.onTimeout(() -> result.setResult(ResponseEntity.accepted().
+                body(new TicketView(job.getTicket(), TicketStatus.PENDING, null))));
+        job.getWatermark().whenComplete((watermark, failure) -> {
+            if (failure == null) {
+                result.setResult(ResponseEntity.ok().
+                        header(SERVER_TIMING, serverTiming(job)).
+                        body(new TicketView(job.getTicket(), TicketStatus.COMPLETED, watermark)));
+            } else if (failure instanceof CancellationException) {
+                result.setResult(ResponseEntity.ok(new TicketView(job.getTicket(), TicketStatus.UNKNOWN, null)));
+            } else {
+                result.setErrorResult(failure);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Cancel a ticket whose watermark hasn't been created yet
+     *
+     * @param ticket the ticket id
+     * @return 204 (No Content) if the ticket is cancelled, 404 (Not Found) if there is no pending ticket with that id
+     */
+    @PostMapping(value = "/cancel", params = "ticket")
+    public ResponseEntity<Void> cancelTicket(@RequestParam String ticket) {
+        log.info("Cancelling ticket {}", ticket);
+        if (watermarkService.cancelTicket(Integer.valueOf(ticket))) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.notFound().build();
     }
 
     /**
@@ -86,8 +257,9 @@ public class Controller {
     public int createWatermarkFor(@RequestParam String title,
                                   @RequestParam String authorFirstName,
                                   @RequestParam String authorLastName,
-                                  @RequestParam(required = false) Topic topic) {
-        log.info("Create a new watermark for {}", title);
+                                  @RequestParam(required = false) Topic topic,
+                                  HttpServletRequest request) {
+        createLog.info("Create a new watermark for {}", title);
         Document document;
         Author author = new Author(authorFirstName, authorLastName);
         if (topic == null) {
@@ -95,14 +267,529 @@ public class Controller {
         } else {
             document = new Book(title, author, topic);
         }
-        return watermarkService.createWatermarkFor(document);
+        return watermarkService.createWatermarkFor(document, scheduling(request, WatermarkPriority.INTERACTIVE));
     }
 
-    @GetMapping(value = "/get", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
-    public Watermark getWatermarkForTicket(@RequestParam String ticket) {
-        log.info("Retrieving watermark for ticket {}", ticket);
-        return watermarkService.getWatermarkForTicket(Integer.valueOf(ticket));
+    /**
+     * The same as #createWatermarkFor for a document that comes with a content, sent as the body of the request
+     * (application/octet-stream, chunked or not). The content is streamed to disk as it arrives, so it's never held
+     * in memory as a whole, and once the ticket is completed the watermarked content is served by #getWatermarkedContent.
+     * A document with a content always gets a new ticket.
+     *
+     * @param body the content of the document
+     * @return the ticket number for which we associate this document for later watermark retrieval, or 413 (Payload
+     * Too Large) if the content is larger than watermark.content.max-size-bytes
+     */
+    @PostMapping(value = "/create", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public int createWatermarkForContent(@RequestParam String title,
+                                         @RequestParam String authorFirstName,
+                                         @RequestParam String authorLastName,
+                                         @RequestParam(required = false) Topic topic,
+                                         InputStream body,
+                                         HttpServletRequest request) throws IOException {
+        createLog.info("Create a new watermark for {} with its content", title);
+        Author author = new Author(authorFirstName, authorLastName);
+        Document document = topic == null ? new Journal(title, author) : new Book(title, author, topic);
+        return watermarkService.createWatermarkFor(document, body, scheduling(request, WatermarkPriority.INTERACTIVE));
+    }
+
+    /**
+     * The same as #createWatermarkForContent for a multipart/form-data request of two parts: the document as json,
+     * like the body of #createWatermarkForDocument, and its content as a file. The servlet container spools the parts
+     * to disk before they are read, so the content is written to disk twice; the plain body of
+     * #createWatermarkForContent is the cheaper of the two for large contents.
+     *
+     * @param documentView a view of the document which is mapped to a book or a journal
+     * @param content the content of the document
+     * @return the ticket number for which we associate this document for later watermark retrieval
+     */
+    @PostMapping(value = "/create", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public int createWatermarkForMultipartContent(@RequestPart("document") DocumentView documentView,
+                                                  @RequestPart("content") MultipartFile content,
+                                                  HttpServletRequest request) throws IOException {
+        Document document = documentView.toDocument();
+        createLog.info("Create a new watermark via multipart post for document with title {} and its content", document.getTitle());
+        try (InputStream in = content.getInputStream()) {
+            return watermarkService.createWatermarkFor(document, in, scheduling(request, WatermarkPriority.INTERACTIVE));
+        }
     }
 
+    /**
+     * Download the watermarked content of a completed ticket whose document came with a content. The file is sent
+     * straight from the disk to the socket (sendfile) where the servlet container supports it, otherwise with
+     * FileChannel#transferTo. A single range of bytes can be requested with a Range header, e.g. Range: bytes=0-1023,
+     * which is answered with 206 (Partial Content); several ranges are answered with the whole content.
+     *
+     * @param ticket the ticket id
+     * @return the watermarked content, 404 (Not Found) if the ticket isn't completed or has no content, 410 (Gone) if
+     * it has expired or 416 (Range Not Satisfiable) if the range is past the end of the content
+     */
+    @GetMapping(value = "/content", params = "ticket")
+    public void getWatermarkedContent(@RequestParam String ticket,
+                                      @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        getLog.info("Retrieving the watermarked content of ticket {}", ticket);
+        Integer id = Integer.valueOf(ticket);
+        Path content = watermarkService.getWatermarkedContent(id);
+        long size;
+        try {
+            size = content == null ? -1 : Files.size(content);
+        } catch (NoSuchFileException e) {
+            // evicted meanwhile
+            size = -1;
+        }
+        if (size < 0) {
+            checkNotExpired(id);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "There is no watermarked content for ticket " + id);
+        }
+
+        long start = 0;
+        long end = size;
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        List<HttpRange> ranges = parseRanges(range);
+        if (ranges.size() == 1) {
+            start = ranges.get(0).getRangeStart(size);
+            end = ranges.get(0).getRangeEnd(size) + 1;
+            if (start >= size) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + size);
+        }
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(end - start);
+        if (end == start) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // tomcat sends the file itself once the request is handled, without it ever passing through the heap
+            request.setAttribute(SENDFILE_FILENAME, content.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(content, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            while (start < end) {
+                start += channel.transferTo(start, end - start, out);
+            }
+        }
+    }
+
+    /**
+     * Create watermarks for a whole batch of documents with a single request. The body is a json array of documents,
+     * each one looking like the body of #createWatermarkForDocument
+     *
+     * @param documentViews the views of the documents which are mapped to books or journals
+     * @return the ticket numbers of the documents, in the same order as the documents
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public List<Integer> createWatermarksForDocuments(@RequestBody List<DocumentView> documentViews,
+                                                      HttpServletRequest request) {
+        checkBatchSize(documentViews.size());
+        List<Document> documents = new ArrayList<>(documentViews.size());
+        for (DocumentView documentView : documentViews) {
+            documents.add(documentView.toDocument());
+        }
+        log.info("Create new watermarks via post for a batch of {} documents", documents.size());
+        return watermarkService.createWatermarksFor(documents, scheduling(request, WatermarkPriority.BULK));
+    }
+
+    /**
+     * The same as #createWatermarksForDocuments for a body of newline delimited json, one document per line
+     *
+     * @param body the stream of the documents
+     * @return the ticket numbers of the documents, in the same order as the documents
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public List<Integer> createWatermarksForDocumentStream(InputStream body, HttpServletRequest request) throws IOException {
+        List<Document> documents = new ArrayList<>();
+        try (JsonParser parser = objectMapper.createParser(body)) {
+            while (parser.nextToken() != null) {
+                documents.add(DocumentParser.parse(parser));
+                checkBatchSize(documents.size());
+            }
+        } catch (JsonProcessingException e) {
+            metrics.invalid();
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid document: " + e.getOriginalMessage(), e);
+        }
+        log.info("Create new watermarks via post for a stream of {} documents", documents.size());
+        return watermarkService.createWatermarksFor(documents, scheduling(request, WatermarkPriority.BULK));
+    }
+
+    /**
+     * The watermark comes with a strong ETag, so polling with If-None-Match is answered with an empty 304 (Not Modified)
+     * once the watermark is there.
+     *
+     * @return the watermark, or an empty response if there is none (yet). A ticket that has expired is answered with
+     * 410 (Gone).
+     */
+    @GetMapping(value = "/get", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getWatermarkForTicket(@RequestParam String ticket) {
+        getLog.info("Retrieving watermark for ticket {}", ticket);
+        Integer id = Integer.valueOf(ticket);
+        // the json of the watermark and its ETag are kept along with the ticket, so they are written out as they are
+        CachedWatermark watermark = watermarkService.getCachedWatermarkForTicket(id);
+        if (watermark == null) {
+            checkNotExpired(id);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).build();
+        }
+        // a request with a matching If-None-Match is answered with 304 (Not Modified) on the way out
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).eTag(watermark.getETag()).
+                body(watermark.getJson());
+    }
+
+    /**
+     * A long-poll variant of #getWatermarkForTicket. If there is no watermark yet the request is held until the
+     * watermark is created or the wait time passes, whichever comes first. No thread is blocked meanwhile.
+     *
+     * @param ticket the ticket id
+     * @param wait the maximum time in seconds to wait for the watermark (capped by watermark.await.max-wait-seconds)
+     * @return the watermark, or an empty response if the ticket doesn't exist or the wait time passed, or 410 (Gone)
+     * if the ticket has expired
+     */
+    @GetMapping(value = "/get", params = {"ticket", "wait"}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<Watermark> awaitWatermarkForTicket(@RequestParam String ticket, @RequestParam long wait) {
+        awaitLog.info("Awaiting watermark for ticket {} for up to {} seconds", ticket, wait);
+        DeferredResult<Watermark> result = new DeferredResult<>(TimeUnit.SECONDS.toMillis(Math.min(wait, maxWaitSeconds)));
+        Integer id = Integer.valueOf(ticket);
+        Subscription subscription = watermarkService.onWatermarkCreated(id, watermark -> {
+            if (watermark == null && watermarkService.isExpired(id)) {
+                result.setErrorResult(new ResponseStatusException(HttpStatus.GONE, "Ticket " + id + " has expired"));
+            } else {
+                result.setResult(watermark);
+            }
+        });
+        result.onTimeout(() -> result.setResult(null));
+        result.onCompletion(subscription::cancel);
+        return result;
+    }
+
+    /**
+     * Stream the watermarks of a number of tickets as server-sent events, as soon as each one of them is created.
+     * Every event has the ticket as id and a json body that looks like the elements of #getWatermarksForTicketRanges.
+     * The stream is closed once all the tickets are either completed or found not to exist. In a cluster the tickets
+     * of the other nodes get an event with the status NOT_LOCAL right away, they have to be streamed from their node.
+     *
+     * @param tickets the ranges of tickets to wait for, e.g. tickets=1-5000 or tickets=3,7,10-20
+     * @return the stream of events
+     */
+    @GetMapping(value = "/events", params = "tickets", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamWatermarksForTickets(@RequestParam String tickets) {
+        TicketRanges ranges = parseTicketRanges(tickets);
+        log.info("Streaming watermarks for {} tickets {}", ranges.count(), tickets);
+
+        SseEmitter emitter = new SseEmitter(TimeUnit.SECONDS.toMillis(eventsTimeoutSeconds));
+        Queue<Subscription> subscriptions = new ConcurrentLinkedQueue<>();
+        emitter.onCompletion(() -> subscriptions.forEach(Subscription::cancel));
+        AtomicLong remaining = new AtomicLong(ranges.count());
+        // the events of the stream are sent one at a time, by a single thread of the event sender at most
+        SerialExecutor sender = new SerialExecutor(eventSender);
+        PrimitiveIterator.OfInt iterator = ranges.iterator();
+        while (iterator.hasNext()) {
+            int ticket = iterator.nextInt();
+            if (forwarding != null && forwarding.isForeign(ticket)) {
+                sendNotLocal(emitter, sender, ticket, remaining);
+                continue;
+            }
+            subscriptions.add(watermarkService.onWatermarkCreated(ticket, watermark -> {
+                TicketStatus status = watermark != null ? TicketStatus.COMPLETED
+                        : watermarkService.isExpired(ticket) ? TicketStatus.EXPIRED : TicketStatus.UNKNOWN;
+                try {
+                    sender.execute(() -> send(emitter, new TicketView(ticket, status, watermark), remaining));
+                } catch (RejectedExecutionException e) {
+                    // shutting down
+                    emitter.completeWithError(e);
+                }
+            }));
+        }
+        return emitter;
+    }
+
+    private static void sendNotLocal(SseEmitter emitter, SerialExecutor sender, int ticket, AtomicLong remaining) {
+        try {
+            sender.execute(() -> send(emitter, new TicketView(ticket, TicketStatus.NOT_LOCAL, null), remaining));
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            emitter.completeWithError(e);
+        }
+    }
+
+    private static void send(SseEmitter emitter, TicketView ticket, AtomicLong remaining) {
+        try {
+            emitter.send(SseEmitter.event().id(Integer.toString(ticket.getTicket())).name("watermark").
+                    data(ticket, MediaType.APPLICATION_JSON));
+            if (remaining.decrementAndGet() == 0) {
+                emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            // the client went away or the stream timed out
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * Look up a whole range of tickets at once, e.g. tickets=1-5000 or tickets=3,7,10-20
+     *
+     * The response is a json array with an element per ticket, in the order of the tickets, that looks like
+     * {
+     *      "ticket" : 1,
+     *      "status" : "COMPLETED",
+     *      "watermark" : { ... }
+     * }
+     * The status is one of COMPLETED, PENDING, UNKNOWN or EXPIRED and the watermark is only there for completed tickets.
+     * The response is streamed while the tickets are looked up.
+     *
+     * In a cluster the tickets of the other nodes are looked up by their nodes, see {@link ClusterForwardingFilter},
+     * and the response is only written once all of them have answered. If one of them can't be reached the request
+     * is answered with 502 (Bad Gateway) or 504 (Gateway Timeout).
+     *
+     * @param tickets the ranges of tickets to look up
+     * @param response the response the lookup is streamed to
+     * @return the response once the other nodes have answered, or null if all the tickets are this node's and the
+     * response has been streamed already
+     */
+    @GetMapping(value = "/get", params = "tickets")
+    public CompletableFuture<ResponseEntity<byte[]>> getWatermarksForTicketRanges(@RequestParam String tickets,
+                                                                                 HttpServletResponse response)
+            throws IOException {
+        TicketRanges ranges = parseTicketRanges(tickets);
+        log.info("Retrieving watermarks for {} tickets {}", ranges.count(), tickets);
+        if (forwarding == null) {
+            writeTickets(ranges.iterator(), response);
+            return null;
+        }
+        return lookUpTickets(ranges.toArray(), response);
+    }
+
+    /**
+     * The same as #getWatermarksForTicketRanges for a json array of tickets
+     *
+     * @param tickets the tickets to look up
+     * @param response the response the lookup is streamed to
+     * @return the response once the other nodes have answered, or null if all the tickets are this node's and the
+     * response has been streamed already
+     */
+    @PostMapping(value = "/get", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<byte[]>> getWatermarksForTickets(@RequestBody int[] tickets,
+                                                                            HttpServletResponse response)
+            throws IOException {
+        checkBatchSize(tickets.length);
+        log.info("Retrieving watermarks for {} tickets", tickets.length);
+        if (forwarding == null) {
+            writeTickets(Arrays.stream(tickets).iterator(), response);
+            return null;
+        }
+        return lookUpTickets(tickets, response);
+    }
+
+    /**
+     * Look up the tickets of this node right away and the tickets of the other nodes on their nodes
+     *
+     * @return the merged response once the other nodes have answered, or null if there are no tickets of other nodes
+     * and the response has been streamed already
+     */
+    private CompletableFuture<ResponseEntity<byte[]>> lookUpTickets(int[] tickets, HttpServletResponse response)
+            throws IOException {
+        CompletableFuture<byte[][]> answers = forwarding.lookUpForeignTickets(tickets);
+        if (answers == null) {
+            writeTickets(Arrays.stream(tickets).iterator(), response);
+            return null;
+        }
+        return answers.thenApply(nodeAnswers -> {
+            ByteArrayOutputStream merged = new ByteArrayOutputStream();
+            try (JsonGenerator generator = objectMapper.createGenerator(merged)) {
+                writeTickets(tickets, nodeAnswers, generator);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(merged.toByteArray());
+        });
+    }
+
+    private void writeTickets(PrimitiveIterator.OfInt tickets, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        try (JsonGenerator generator = objectMapper.createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            watermarkService.lookupTickets(tickets, (ticket, status, watermark) -> writeTicket(generator, ticket,
+                    status, watermark));
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Write the tickets of this node, as they are looked up, in between the ones the other nodes answered with
+     *
+     * @param nodeAnswers the json arrays of the tickets of every other node, in the order of the tickets
+     */
+    private void writeTickets(int[] tickets, byte[][] nodeAnswers, JsonGenerator generator) throws IOException {
+        List<Iterator<JsonNode>> answers = new ArrayList<>();
+        for (byte[] answer : nodeAnswers) {
+            answers.add(answer == null ? null : objectMapper.readTree(answer).elements());
+        }
+        generator.writeStartArray();
+        int[] next = {0};
+        PrimitiveIterator.OfInt localTickets = Arrays.stream(tickets).filter(ticket -> !forwarding.isForeign(ticket)).
+                iterator();
+        watermarkService.lookupTickets(localTickets, (ticket, status, watermark) -> {
+            next[0] = writeForeignTickets(tickets, next[0], answers, generator);
+            writeTicket(generator, ticket, status, watermark);
+            next[0]++;
+        });
+        writeForeignTickets(tickets, next[0], answers, generator);
+        generator.writeEndArray();
+    }
+
+    /**
+     * @return the index of the next ticket of this node, or the end of the tickets
+     */
+    private int writeForeignTickets(int[] tickets, int from, List<Iterator<JsonNode>> answers,
+                                    JsonGenerator generator) {
+        for (; from < tickets.length && forwarding.isForeign(tickets[from]); from++) {
+            int node = watermarkService.getNodeForTicket(tickets[from]);
+            Iterator<JsonNode> answer = answers.get(node);
+            JsonNode ticket = answer.hasNext() ? answer.next() : null;
+            if (ticket == null || ticket.path("ticket").asInt() != tickets[from]) {
+                throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Node " + node + " didn't answer for ticket " +
+                        tickets[from]);
+            }
+            try {
+                generator.writeTree(ticket);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return from;
+    }
+
+    private static void writeTicket(JsonGenerator generator, int ticket, TicketStatus status, Watermark watermark) {
+        try {
+            generator.writeStartObject();
+            generator.writeNumberField("ticket", ticket);
+            generator.writeStringField("status", status.name());
+            if (watermark != null) {
+                generator.writeObjectField("watermark", watermark);
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the ranges of a Range header, none if there is no header or it can't be parsed, in which case the
+     * header is ignored as it should
+     */
+    private static List<HttpRange> parseRanges(String range) {
+        if (range == null) {
+            return List.of();
+        }
+        try {
+            return HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
+    }
+
+    /**
+     * @param priority the priority if the request doesn't say
+     * @return the scheduling the request asks for with the X-Client-Id, X-Watermark-Priority and
+     * X-Watermark-Deadline-Millis headers
+     */
+    private static Scheduling scheduling(HttpServletRequest request, WatermarkPriority priority) {
+        String client = request.getHeader(CLIENT_ID);
+        String requestedPriority = request.getHeader(PRIORITY);
+        String deadline = request.getHeader(DEADLINE_MILLIS);
+        if (client == null || client.isBlank()) {
+            client = request.getRemoteAddr();
+        }
+        try {
+            if (requestedPriority != null) {
+                priority = WatermarkPriority.parse(requestedPriority);
+            }
+            long deadlineMillis = Scheduling.DEFAULT_DEADLINE;
+            if (deadline != null) {
+                deadlineMillis = Long.parseLong(deadline.trim());
+                if (deadlineMillis <= 0) {
+                    throw new IllegalArgumentException("The deadline has to be positive");
+                }
+            }
+            return new Scheduling(client, priority, deadlineMillis);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid scheduling: " + PRIORITY + " " +
+                    requestedPriority + ", " + DEADLINE_MILLIS + " " + deadline, e);
+        }
+    }
+
+    private static String serverTiming(WatermarkJob job) {
+        return String.format(Locale.ROOT, "store;dur=%.3f, queued;dur=%.3f, watermark;dur=%.3f, persist;dur=%.3f",
+                job.getStoreNanos() / 1e6, job.getQueuedNanos() / 1e6, job.getWatermarkNanos() / 1e6, job.getPersistNanos() / 1e6);
+    }
+
+    private TicketRanges parseTicketRanges(String tickets) {
+        TicketRanges ranges;
+        try {
+            ranges = TicketRanges.parse(tickets);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid tickets " + tickets, e);
+        }
+        checkBatchSize(ranges.count());
+        return ranges;
+    }
+
+    private void checkNotExpired(Integer ticket) {
+        if (watermarkService.isExpired(ticket)) {
+            throw new ResponseStatusException(HttpStatus.GONE, "Ticket " + ticket + " has expired");
+        }
+    }
+
+    private void checkBatchSize(long size) {
+        if (size > maxBatchSize) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "A batch can't have more than " + maxBatchSize + " documents");
+        }
+    }
+
+    /**
+     * A document that can't be read or has no such topic. It's only counted here, the request is answered with
+     * 400 (Bad Request) as usual.
+     */
+    @ExceptionHandler({HttpMessageNotReadableException.class, MethodArgumentTypeMismatchException.class})
+    public void handleInvalidDocument(Exception e) throws Exception {
+        metrics.invalid();
+        throw e;
+    }
+
+    /**
+     * A content larger than watermark.content.max-size-bytes, which has been dropped as soon as it went past it
+     */
+    @ExceptionHandler(ContentTooLargeException.class)
+    public ResponseEntity<String> handleContentTooLarge(ContentTooLargeException e) {
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(e.getMessage());
+    }
+
+    /**
+     * The backlog of documents to watermark is over the limit of the AdmissionLimiter. Tell the client to come back
+     * once it's expected to have drained.
+     */
+    @ExceptionHandler(OverloadedException.class)
+    public ResponseEntity<Void> handleOverloaded(OverloadedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).
+                header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds())).
+                build();
+    }
+
+    /**
+     * The watermark executor is saturated. Tell the client to back off and retry in a while
+     * instead of queueing up more work than we can handle.
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<Void> handleRejectedExecution(RejectedExecutionException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).
+                header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS).
+                build();
+    }
 
 }
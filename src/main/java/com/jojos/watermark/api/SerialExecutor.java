@@ -0,0 +1,60 @@
+package com.jojos.watermark.api;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time and in the order they are given, on the threads of another executor. At most one thread
+ * of that executor is taken at any time, however many tasks are queued, so e.g. the events of a stream to a slow
+ * client only ever hold up a single thread.
+ *
+ * @author gkaranikas
+ */
+final class SerialExecutor implements Executor {
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the underlying executor can't take the task, e.g. since it's shut down
+     */
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::run);
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+                tasks.clear();
+                throw e;
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            running.set(false);
+            // a task might have been added after the last poll, before it was let go
+            schedule();
+        }
+    }
+
+}
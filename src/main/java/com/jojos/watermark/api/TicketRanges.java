@@ -0,0 +1,70 @@
+package com.jojos.watermark.api;
+
+import java.util.PrimitiveIterator;
+import java.util.stream.IntStream;
+
+/**
+ * Ticket ranges as they are given in a request, e.g. "1-5000" or "3,7,10-20"
+ *
+ * @author gkaranikas
+ */
+final class TicketRanges {
+
+    private final int[] from;
+    private final int[] to;
+    private final long count;
+
+    private TicketRanges(int[] from, int[] to, long count) {
+        this.from = from;
+        this.to = to;
+        this.count = count;
+    }
+
+    /**
+     * @param ranges comma separated tickets or inclusive ranges of tickets
+     * @throws IllegalArgumentException if the ranges can't be parsed
+     */
+    static TicketRanges parse(String ranges) {
+        String[] parts = ranges.split(",");
+        int[] from = new int[parts.length];
+        int[] to = new int[parts.length];
+        long count = 0;
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int dash = part.indexOf('-', 1);
+            from[i] = Integer.parseInt(dash < 0 ? part : part.substring(0, dash).trim());
+            to[i] = dash < 0 ? from[i] : Integer.parseInt(part.substring(dash + 1).trim());
+            if (to[i] < from[i]) {
+                throw new IllegalArgumentException("Invalid range of tickets " + part);
+            }
+            count += (long) to[i] - from[i] + 1;
+        }
+        return new TicketRanges(from, to, count);
+    }
+
+    /**
+     * @return the total number of tickets in all ranges
+     */
+    long count() {
+        return count;
+    }
+
+    /**
+     * @return the tickets of all ranges in the order they were given, generated lazily
+     */
+    PrimitiveIterator.OfInt iterator() {
+        return stream().iterator();
+    }
+
+    /**
+     * @return the tickets of all ranges in the order they were given
+     */
+    int[] toArray() {
+        return stream().toArray();
+    }
+
+    private IntStream stream() {
+        return IntStream.range(0, from.length).flatMap(i -> IntStream.rangeClosed(from[i], to[i]));
+    }
+
+}
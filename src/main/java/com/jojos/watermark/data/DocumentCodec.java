@@ -0,0 +1,161 @@
+package com.jojos.watermark.data;
+
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact binary encoding of the documents, used wherever a document has to be kept or sent around as bytes
+ * rather than as an object graph.
+ *
+ * A record looks like
+ * <pre>
+ *     flags (1 byte) | topic (1 byte, books only) | title | author first name | author last name
+ * </pre>
+ * where every string is written as a var-int of its UTF-8 length plus one (zero stands for null) followed by the bytes.
+ * The first names of the author are omitted when the document has no author at all.
+ *
+ * The watermark property is not part of the record. It is fully determined by the rest of the document.
+ *
+ * @author gkaranikas
+ */
+public final class DocumentCodec {
+
+    private static final int BOOK = 1;
+    private static final int AUTHOR = 1 << 1;
+    private static final int NO_TOPIC = 0xFF;
+
+    private static final Topic[] TOPICS = Topic.values();
+
+    private DocumentCodec() {
+    }
+
+    /**
+     * @param document a book or a journal
+     * @return the encoded record of the document
+     * @throws IllegalArgumentException if the document is neither a book nor a journal
+     */
+    public static byte[] encode(Document document) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        Author author = document.getAuthor();
+        if (document instanceof Book) {
+            Topic topic = ((Book) document).getTopic();
+            out.write(BOOK | (author != null ? AUTHOR : 0));
+            out.write(topic == null ? NO_TOPIC : topic.ordinal());
+        } else if (document instanceof Journal) {
+            out.write(author != null ? AUTHOR : 0);
+        } else {
+            throw new IllegalArgumentException("Can't encode document of type " + document.getClass().getName());
+        }
+        writeString(out, document.getTitle());
+        if (author != null) {
+            writeString(out, author.getFirstName());
+            writeString(out, author.getLastName());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a record without touching the position of the buffer
+     *
+     * @param buffer the buffer holding the record
+     * @param offset the index of the first byte of the record
+     * @return the decoded document (never watermarked)
+     */
+    public static Document decode(ByteBuffer buffer, int offset) {
+        int[] position = {offset};
+        int flags = buffer.get(position[0]++) & 0xFF;
+        Topic topic = null;
+        if ((flags & BOOK) != 0) {
+            int ordinal = buffer.get(position[0]++) & 0xFF;
+            topic = ordinal == NO_TOPIC ? null : TOPICS[ordinal];
+        }
+        String title = readString(buffer, position);
+        Author author = null;
+        if ((flags & AUTHOR) != 0) {
+            String firstName = readString(buffer, position);
+            String lastName = readString(buffer, position);
+            author = new Author(firstName, lastName);
+        }
+        if ((flags & BOOK) != 0) {
+            return new Book(title, author, topic);
+        }
+        return new Journal(title, author);
+    }
+
+    /**
+     * Write an unsigned var-int at the given index of the buffer without touching its position
+     *
+     * @return the number of bytes written
+     */
+    public static int putVarInt(ByteBuffer buffer, int index, int value) {
+        int written = 0;
+        while ((value & ~0x7F) != 0) {
+            buffer.put(index + written++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put(index + written++, (byte) value);
+        return written;
+    }
+
+    /**
+     * Read an unsigned var-int at the given index of the buffer without touching its position
+     */
+    public static int getVarInt(ByteBuffer buffer, int index) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(index++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * @return the number of bytes the value takes as a var-int
+     */
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            out.write(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length + 1;
+        while ((length & ~0x7F) != 0) {
+            out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer buffer, int[] position) {
+        int length = getVarInt(buffer, position[0]);
+        position[0] += varIntSize(length);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        buffer.get(position[0], bytes);
+        position[0] += bytes.length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
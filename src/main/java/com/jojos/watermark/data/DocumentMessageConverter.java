@@ -0,0 +1,137 @@
+package com.jojos.watermark.data;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.GenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the {@link DocumentView}s of the requests, one or a json array of them, with the {@link DocumentParser}
+ * instead of data binding. This is the path every create request takes, so it's kept as lean as it gets: the
+ * documents are built right from the tokens of the request body, with nothing in between.
+ *
+ * Being a bean, the converter is registered ahead of the default json converter. It only reads: it can't write any
+ * type, so writing is always left to the default converters.
+ *
+ * @author gkaranikas
+ */
+@Component
+public class DocumentMessageConverter implements GenericHttpMessageConverter<Object> {
+
+    private static final List<MediaType> MEDIA_TYPES =
+            List.of(MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+
+    private final JsonFactory jsonFactory;
+
+    @Autowired
+    public DocumentMessageConverter(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    @Override
+    public List<MediaType> getSupportedMediaTypes() {
+        return MEDIA_TYPES;
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return (type == DocumentView.class || isListOfDocumentViews(type)) && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return canRead(clazz, null, mediaType);
+    }
+
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        try (JsonParser parser = createParser(inputMessage)) {
+            if (type == DocumentView.class) {
+                return new DocumentView(DocumentParser.parse(parser));
+            }
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new HttpMessageNotReadableException("Expected a json array of documents", inputMessage);
+            }
+            List<DocumentView> documentViews = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                documentViews.add(new DocumentView(DocumentParser.parse(parser)));
+            }
+            return documentViews;
+        } catch (JsonProcessingException e) {
+            throw new HttpMessageNotReadableException("Invalid document: " + e.getOriginalMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    public Object read(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        return read(clazz, null, inputMessage);
+    }
+
+    /**
+     * Never called, see #canWrite
+     */
+    @Override
+    public void write(Object object, Type type, MediaType contentType, HttpOutputMessage outputMessage) {
+        throw new HttpMessageNotWritableException("Documents are only read");
+    }
+
+    /**
+     * Never called, see #canWrite
+     */
+    @Override
+    public void write(Object object, MediaType contentType, HttpOutputMessage outputMessage) {
+        throw new HttpMessageNotWritableException("Documents are only read");
+    }
+
+    private boolean canRead(MediaType mediaType) {
+        return mediaType == null || MEDIA_TYPES.stream().anyMatch(supported -> supported.includes(mediaType));
+    }
+
+    private JsonParser createParser(HttpInputMessage inputMessage) throws IOException {
+        MediaType contentType = inputMessage.getHeaders().getContentType();
+        Charset charset = contentType == null ? null : contentType.getCharset();
+        if (charset == null || charset.equals(StandardCharsets.UTF_8)) {
+            // the parser detects the unicode encodings on its own and decodes UTF-8 straight from the bytes
+            return jsonFactory.createParser(inputMessage.getBody());
+        }
+        return jsonFactory.createParser(new InputStreamReader(inputMessage.getBody(), charset));
+    }
+
+    private static boolean isListOfDocumentViews(Type type) {
+        if (!(type instanceof ParameterizedType)) {
+            return false;
+        }
+        ParameterizedType parameterizedType = (ParameterizedType) type;
+        return parameterizedType.getRawType() == List.class &&
+                parameterizedType.getActualTypeArguments()[0] == DocumentView.class;
+    }
+
+}
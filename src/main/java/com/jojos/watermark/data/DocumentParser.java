@@ -0,0 +1,100 @@
+package com.jojos.watermark.data;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+
+import java.io.IOException;
+
+/**
+ * Decodes the json of a document straight from the tokens of a streaming {@link JsonParser}, without going through
+ * data binding. The json looks like the body of a create request:
+ * <pre>
+ *     { "title" : "title1", "author" : { "firstName" : "first1", "lastName" : "last1" }, "topic" : "Business" }
+ * </pre>
+ * A document with a topic is a book, otherwise it's a journal. Fields that are not known are skipped, along with
+ * whatever they hold. The parser takes care of its buffers, which it recycles per thread.
+ *
+ * @author gkaranikas
+ */
+public final class DocumentParser {
+
+    private DocumentParser() {
+    }
+
+    /**
+     * Read a document, either from the current token or from the next one if there is no current token
+     *
+     * @param parser the parser, which is left at the end of the document
+     * @return the document
+     * @throws JsonParseException if the json is not a valid document, e.g. it has an unknown topic
+     */
+    public static Document parse(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken() == null ? parser.nextToken() : parser.currentToken();
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a document but found " + token);
+        }
+        String title = null;
+        Author author = null;
+        Topic topic = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "title":
+                    title = parseString(parser);
+                    break;
+                case "author":
+                    author = value == JsonToken.VALUE_NULL ? null : parseAuthor(parser);
+                    break;
+                case "topic":
+                    if (value != JsonToken.VALUE_NULL) {
+                        topic = Topic.forName(parseString(parser));
+                        if (topic == null) {
+                            throw new JsonParseException(parser, "Unknown topic " + parser.getText());
+                        }
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return topic == null ? new Journal(title, author) : new Book(title, author, topic);
+    }
+
+    private static Author parseAuthor(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected an author but found " + parser.currentToken());
+        }
+        String firstName = null;
+        String lastName = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "firstName":
+                    firstName = parseString(parser);
+                    break;
+                case "lastName":
+                    lastName = parseString(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return new Author(firstName, lastName);
+    }
+
+    private static String parseString(JsonParser parser) throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            throw new JsonParseException(parser, "Expected a string but found " + parser.currentToken());
+        }
+        return parser.getValueAsString();
+    }
+
+}
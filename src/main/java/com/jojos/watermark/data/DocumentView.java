@@ -29,6 +29,13 @@ public class DocumentView {
 
     }
 
+    /**
+     * @param document a document that has already been decoded, see {@link DocumentParser}
+     */
+    public DocumentView(Document document) {
+        this.document = document;
+    }
+
     public Document toDocument() {
         return document;
     }
@@ -0,0 +1,36 @@
+package com.jojos.watermark.data;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.jojos.watermark.domain.Watermark;
+import com.jojos.watermark.service.TicketStatus;
+
+/**
+ * A "view" of a ticket that is only used for serializing its status and its watermark (if any) in responses
+ *
+ * @author gkaranikas
+ */
+public class TicketView {
+
+    private final int ticket;
+    private final TicketStatus status;
+    private final Watermark watermark;
+
+    public TicketView(int ticket, TicketStatus status, Watermark watermark) {
+        this.ticket = ticket;
+        this.status = status;
+        this.watermark = watermark;
+    }
+
+    public int getTicket() {
+        return ticket;
+    }
+
+    public TicketStatus getStatus() {
+        return status;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Watermark getWatermark() {
+        return watermark;
+    }
+}
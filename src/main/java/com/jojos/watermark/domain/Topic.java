@@ -9,6 +9,22 @@ public enum Topic {
 
     Business,
     Science,
-    Media
+    Media;
+
+    private static final Topic[] TOPICS = values();
+
+    /**
+     * The same as #valueOf without throwing, e.g. for input that is expected to be invalid every now and then
+     *
+     * @return the topic with exactly that name, or null if there is none
+     */
+    public static Topic forName(String name) {
+        for (Topic topic : TOPICS) {
+            if (topic.name().equals(name)) {
+                return topic;
+            }
+        }
+        return null;
+    }
 
 }
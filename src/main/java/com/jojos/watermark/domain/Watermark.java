@@ -11,6 +11,8 @@ import java.util.Optional;
  * For a book the watermark includes the properties content, title, author and topic.
  * The journal watermark includes the content, title and author.
  *
+ * A watermark is immutable, so the same instance can be shared by every document it belongs to.
+ *
  * @author gkaranikas
  */
 
@@ -18,20 +20,20 @@ public class Watermark {
 
     private final Content content;
     private final String title;
-    private final Author author;
+    private final String author;
     private final Optional<Topic> topic;
 
     private Watermark(Book book) {
-        this.content = Content.forClass(book.getClass());
+        this.content = Content.Book;
         this.title = book.getTitle();
-        this.author = book.getAuthor();
+        this.author = nameOf(book.getAuthor());
         this.topic = Optional.of(book.getTopic());
     }
 
     private Watermark(Journal journal) {
-        this.content = Content.forClass(Journal.class);
+        this.content = Content.Journal;
         this.title = journal.getTitle();
-        this.author = journal.getAuthor();
+        this.author = nameOf(journal.getAuthor());
         this.topic = Optional.empty();
     }
 
@@ -55,7 +57,7 @@ public class Watermark {
 
 
     public String getAuthor() {
-        return author.getFirstName() + " " + author.getLastName();
+        return author;
     }
 
     @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -64,4 +66,8 @@ public class Watermark {
         // Explicitly set the null value and let jackson do it's magic with the Include.NON_NULL
         return topic.orElse(null);
     }
+
+    private static String nameOf(Author author) {
+        return author == null ? null : author.getFirstName() + " " + author.getLastName();
+    }
 }
@@ -0,0 +1,214 @@
+package com.jojos.watermark.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Turns away the requests to create watermarks while the backlog of documents that are waiting to be watermarked is
+ * over a limit, so that a node that is sent more than it can watermark sheds the load instead of queueing it up
+ * until the memory is gone. The limit adapts to how long the documents take to be watermarked (from the time their
+ * task is queued to the time they are completed, or dropped):
+ * <ul>
+ *     <li>every watermark.admission.window-millis the mean latency of the documents finished in the window is
+ *     compared with watermark.admission.target-latency-millis</li>
+ *     <li>a latency over the target shrinks the limit in proportion (gradient), by half at most, but never under
+ *     the backlog that the throughput of the node watermarks within the target (Little's law), so that the limit
+ *     isn't driven down to nothing while a backlog let in before drains</li>
+ *     <li>a latency within the target grows the limit by its square root, as long as the backlog got to half the
+ *     limit in the window, so that a limit that isn't used isn't inflated</li>
+ * </ul>
+ * The new limit is smoothed into the old one and kept between watermark.admission.min-limit and
+ * watermark.admission.max-limit. A request is let in if its documents fit under the limit along with the backlog and
+ * the documents of the requests that have been let in but aren't stored yet, or if there is nothing else at all, so
+ * that a batch larger than the limit still gets through an idle node.
+ *
+ * The state of the limiter is exported as watermark.admission.limit and watermark.admission.latency, next to the
+ * backlog itself (watermark.store.pending) and the requests turned away (watermark.tickets.rejected with
+ * reason=overloaded).
+ *
+ * @author gkaranikas
+ */
+@Component
+public class AdmissionLimiter implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionLimiter.class);
+
+    // how much of the new limit (and throughput) goes into the limit at every window
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final boolean enabled;
+    private final double minLimit;
+    private final double maxLimit;
+    private final long targetLatencyNanos;
+    private final long windowNanos;
+    private final LongSupplier clock;
+
+    private final AtomicLong windowStart;
+    private final LongAdder windowLatencies = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final LongAccumulator windowBacklog = new LongAccumulator(Math::max, 0);
+    // the documents let in that aren't part of the backlog yet
+    private final AtomicLong admitting = new AtomicLong();
+    // only written by the thread that closes a window
+    private volatile double limit;
+    private volatile long latencyNanos;
+    // the documents finished per second
+    private volatile double throughput;
+
+    @Autowired
+    public AdmissionLimiter(@Value("${watermark.admission.enabled:true}") boolean enabled,
+                            @Value("${watermark.admission.initial-limit:10000}") int initialLimit,
+                            @Value("${watermark.admission.min-limit:100}") int minLimit,
+                            @Value("${watermark.admission.max-limit:1000000}") int maxLimit,
+                            @Value("${watermark.admission.target-latency-millis:1000}") long targetLatencyMillis,
+                            @Value("${watermark.admission.window-millis:100}") long windowMillis) {
+        this(enabled, initialLimit, minLimit, maxLimit, TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis),
+                TimeUnit.MILLISECONDS.toNanos(windowMillis), System::nanoTime);
+    }
+
+    AdmissionLimiter(boolean enabled, int initialLimit, int minLimit, int maxLimit, long targetLatencyNanos,
+                     long windowNanos, LongSupplier clock) {
+        if (minLimit <= 0 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + " to " + maxLimit);
+        }
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.windowNanos = windowNanos;
+        this.clock = clock;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.windowStart = new AtomicLong(clock.getAsLong());
+        if (enabled) {
+            log.info("Admission limited to a backlog of {} documents at first, aiming for a latency of {} ms",
+                    (long) limit, TimeUnit.NANOSECONDS.toMillis(targetLatencyNanos));
+        }
+    }
+
+    /**
+     * @return a limiter that lets everything in
+     */
+    public static AdmissionLimiter unlimited() {
+        return new AdmissionLimiter(false, Integer.MAX_VALUE, 1, Integer.MAX_VALUE, 0, Long.MAX_VALUE,
+                System::nanoTime);
+    }
+
+    /**
+     * Let a request in, or not. A request that is let in has to be followed by #admitted once its documents are
+     * stored, whether they could be or not.
+     *
+     * @param backlog the number of documents waiting to be watermarked
+     * @param documents the number of documents of the request
+     * @throws OverloadedException if the documents don't fit under the limit
+     */
+    public void admit(long backlog, int documents) {
+        if (!enabled) {
+            return;
+        }
+        windowBacklog.accumulate(backlog);
+        closeWindow();
+        double limit = this.limit;
+        long outstanding = backlog + admitting.getAndAdd(documents);
+        if (outstanding > 0 && outstanding + documents > limit) {
+            admitting.addAndGet(-documents);
+            throw new OverloadedException(outstanding, documents, (long) limit,
+                    retryAfterSeconds(outstanding + documents - limit));
+        }
+    }
+
+    /**
+     * @param documents the number of documents of a request let in by #admit, which are now part of the backlog
+     */
+    public void admitted(int documents) {
+        if (enabled) {
+            admitting.addAndGet(-documents);
+        }
+    }
+
+    /**
+     * Record the time a document took from the time its watermark task was queued to the time it was completed or
+     * dropped
+     */
+    public void record(long latencyNanos) {
+        if (!enabled) {
+            return;
+        }
+        windowLatencies.add(latencyNanos);
+        windowSamples.increment();
+        closeWindow();
+    }
+
+    /**
+     * @return the current limit of the backlog
+     */
+    public long getLimit() {
+        return (long) limit;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+        Gauge.builder("watermark.admission.limit", this, l -> l.limit).register(registry);
+        Gauge.builder("watermark.admission.latency", this, l -> l.latencyNanos / 1e9).baseUnit("seconds").
+                register(registry);
+    }
+
+    private void closeWindow() {
+        long now = clock.getAsLong();
+        long start = windowStart.get();
+        if (now - start < windowNanos || !windowStart.compareAndSet(start, now)) {
+            return;
+        }
+        long samples = windowSamples.sumThenReset();
+        long latencies = windowLatencies.sumThenReset();
+        long backlog = windowBacklog.getThenReset();
+        if (samples == 0) {
+            // nothing finished, so there is nothing to tell how long the documents take
+            return;
+        }
+        double windowThroughput = samples * 1e9 / (now - start);
+        double throughput = this.throughput == 0 ? windowThroughput
+                : this.throughput * (1 - SMOOTHING) + windowThroughput * SMOOTHING;
+        this.throughput = throughput;
+        latencyNanos = latencies / samples;
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, (double) targetLatencyNanos / latencyNanos));
+        double limit = this.limit;
+        double newLimit;
+        if (gradient < 1.0) {
+            // a backlog that is watermarked within the target at the current throughput is never too much, however
+            // late the documents of the backlog before it were
+            newLimit = Math.min(limit, Math.max(limit * gradient, throughput * targetLatencyNanos / 1e9));
+        } else {
+            newLimit = backlog >= limit / 2 ? limit + Math.sqrt(limit) : limit;
+        }
+        this.limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+
+    /**
+     * @param excess the documents to watermark before the backlog is under the limit again
+     */
+    private long retryAfterSeconds(double excess) {
+        double throughput = this.throughput;
+        if (throughput <= 0) {
+            return 1;
+        }
+        return Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, (long) Math.ceil(excess / throughput)));
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Watermark;
+import org.springframework.util.DigestUtils;
+
+/**
+ * A watermark along with its json representation, serialized once and shared by everyone who retrieves it.
+ * Neither of them must be modified.
+ *
+ * The strong entity tag is derived from the json alone, so it stays the same no matter how many times the same
+ * watermark is serialized, e.g. after it's been evicted from the {@link WatermarkCache}.
+ *
+ * @author gkaranikas
+ */
+public final class CachedWatermark {
+
+    private final Watermark watermark;
+    private final byte[] json;
+    private final String eTag;
+
+    CachedWatermark(Watermark watermark, byte[] json) {
+        this.watermark = watermark;
+        this.json = json;
+        this.eTag = "\"" + DigestUtils.md5DigestAsHex(json) + "\"";
+    }
+
+    public Watermark getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * @return the watermark serialized as UTF-8 encoded json
+     */
+    public byte[] getJson() {
+        return json;
+    }
+
+    /**
+     * @return the strong entity tag of the json, quoted
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    @Override
+    public String toString() {
+        return "CachedWatermark{" +
+                "watermark=" + watermark +
+                ", json=" + json.length + " bytes" +
+                ", eTag=" + eTag +
+                '}';
+    }
+}
@@ -0,0 +1,76 @@
+package com.jojos.watermark.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The nodes of the cluster the application is a node of, if any.
+ *
+ * With watermark.cluster.enabled=true every node is given the same list of the base urls of all the nodes
+ * (watermark.cluster.nodes) and its own position in it (watermark.cluster.node-id). The node is encoded in every
+ * ticket it hands out (see {@link TicketIds}), so any node can tell which node a ticket belongs to and where to find
+ * it. The list may not change for as long as the tickets are kept (journal included), since it's how the tickets are
+ * read.
+ *
+ * @author gkaranikas
+ */
+@Component
+public class Cluster {
+
+    private final int nodeId;
+    private final List<URI> nodes;
+
+    @Autowired
+    public Cluster(@Value("${watermark.cluster.enabled:false}") boolean enabled,
+                   @Value("${watermark.cluster.node-id:0}") int nodeId,
+                   @Value("${watermark.cluster.nodes:}") List<String> nodes) {
+        this(enabled ? nodeId : 0, enabled ? nodes.stream().map(URI::create).collect(Collectors.toList()) : List.of());
+        if (enabled && nodes.isEmpty()) {
+            throw new IllegalArgumentException("The nodes of the cluster (watermark.cluster.nodes) are missing");
+        }
+    }
+
+    /**
+     * @param nodeId the position of this node among the nodes
+     * @param nodes the base urls of all the nodes, none for a single node
+     */
+    public Cluster(int nodeId, List<URI> nodes) {
+        if (nodeId < 0 || nodeId >= Math.max(1, nodes.size())) {
+            throw new IllegalArgumentException("There is no node " + nodeId + " among the nodes " + nodes);
+        }
+        this.nodeId = nodeId;
+        this.nodes = List.copyOf(nodes);
+    }
+
+    /**
+     * @return a cluster of a single node, i.e. no cluster at all
+     */
+    public static Cluster standalone() {
+        return new Cluster(0, List.of());
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return the number of nodes, 1 if there is no cluster
+     */
+    public int size() {
+        return Math.max(1, nodes.size());
+    }
+
+    /**
+     * @param nodeId the position of a node
+     * @return the base url of the node
+     */
+    public URI getNode(int nodeId) {
+        return nodes.get(nodeId);
+    }
+
+}
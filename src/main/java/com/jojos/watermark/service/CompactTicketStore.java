@@ -0,0 +1,290 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.data.DocumentCodec;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Watermark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A {@link TicketStore} that keeps no object graph per ticket.
+ *
+ * Each document is encoded with the {@link DocumentCodec} and appended to large byte slabs, either on the heap or
+ * off-heap (direct buffers). The tickets are not boxed either: since they are handed out sequentially they index
+ * directly into lazily allocated pages of addresses. An address points to the record of the document in the slabs and
+ * carries a flag telling whether the document has been watermarked. The watermark itself is not stored, it's
+ * re-created from the decoded document when read.
+ *
+ * Every operation on a ticket boils down to a single atomic update of its address, so the guarantees are the same
+ * as the ones of a concurrent map. Records are never reclaimed; replacing a document with a watermarked copy of itself
+ * only flips the flag of its address, anything else appends a new record. A record appended for an update that
+ * loses a race is taken back if nothing has been appended after it.
+ *
+ * A ticket that can't have been handed out (a negative one) is never there, rather than an error.
+ *
+ * Only books and journals can be stored.
+ *
+ * @author gkaranikas
+ */
+public class CompactTicketStore implements TicketStore {
+
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int PAGES = 1 << (Integer.SIZE - 1 - PAGE_BITS);
+
+    private static final int MAX_SLABS = 1 << 16;
+
+    private static final long WATERMARKED = 1L << 62;
+    private static final long OFFSET_MASK = 0xFFFFFFFFL;
+
+    private final AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<>(PAGES);
+    private final AtomicReferenceArray<ByteBuffer> slabs;
+    private final AtomicInteger size = new AtomicInteger();
+    private final boolean offHeap;
+    private final int slabSize;
+
+    // guarded by this
+    private int currentSlab = -1;
+    private int slabOffset;
+
+    /**
+     * @param offHeap whether to keep the records in direct buffers
+     * @param slabSize the size in bytes of every slab
+     */
+    public CompactTicketStore(boolean offHeap, int slabSize) {
+        this.offHeap = offHeap;
+        this.slabSize = slabSize;
+        this.slabs = new AtomicReferenceArray<>(MAX_SLABS);
+    }
+
+    @Override
+    public boolean putIfAbsent(int ticket, Document document) {
+        AtomicLongArray page = page(ticket, true);
+        int index = ticket & PAGE_MASK;
+        if (page.get(index) != 0) {
+            return false;
+        }
+        byte[] record = DocumentCodec.encode(document);
+        long appended = append(record);
+        if (page.compareAndSet(index, 0, addressFor(document, appended))) {
+            size.incrementAndGet();
+            return true;
+        }
+        discard(appended, record);
+        return false;
+    }
+
+    @Override
+    public Document put(int ticket, Document document) {
+        return put(ticket, document, false);
+    }
+
+    @Override
+    public Document replace(int ticket, Document document) {
+        return put(ticket, document, true);
+    }
+
+    @Override
+    public Document get(int ticket) {
+        AtomicLongArray page = page(ticket, false);
+        return page == null ? null : read(page.get(ticket & PAGE_MASK));
+    }
+
+    @Override
+    public Document remove(int ticket) {
+        AtomicLongArray page = page(ticket, false);
+        if (page == null) {
+            return null;
+        }
+        long previous = page.getAndSet(ticket & PAGE_MASK, 0);
+        if (previous != 0) {
+            size.decrementAndGet();
+        }
+        return read(previous);
+    }
+
+    @Override
+    public Document removeIfNotWatermarked(int ticket) {
+        AtomicLongArray page = page(ticket, false);
+        if (page == null) {
+            return null;
+        }
+        int index = ticket & PAGE_MASK;
+        while (true) {
+            long previous = page.get(index);
+            if (previous == 0 || (previous & WATERMARKED) != 0) {
+                return null;
+            }
+            if (page.compareAndSet(index, previous, 0)) {
+                size.decrementAndGet();
+                return read(previous);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<Document> consumer) {
+        for (int pageIndex = 0; pageIndex < PAGES; pageIndex++) {
+            AtomicLongArray page = pages.get(pageIndex);
+            if (page == null) {
+                continue;
+            }
+            for (int index = 0; index < PAGE_SIZE; index++) {
+                long address = page.get(index);
+                if (address != 0) {
+                    consumer.accept(read(address), (pageIndex << PAGE_BITS) | index);
+                }
+            }
+        }
+    }
+
+    private Document put(int ticket, Document document, boolean onlyIfPresent) {
+        AtomicLongArray page = page(ticket, !onlyIfPresent);
+        if (page == null) {
+            return null;
+        }
+        int index = ticket & PAGE_MASK;
+        byte[] record = DocumentCodec.encode(document);
+        long appended = 0;
+        while (true) {
+            long previous = page.get(index);
+            if (previous == 0 && onlyIfPresent) {
+                discard(appended, record);
+                return null;
+            }
+            long address;
+            boolean same = previous != 0 && sameRecord(previous, record);
+            if (same) {
+                address = addressFor(document, previous & ~WATERMARKED);
+            } else {
+                if (appended == 0) {
+                    appended = append(record);
+                }
+                address = addressFor(document, appended);
+            }
+            if (page.compareAndSet(index, previous, address)) {
+                if (previous == 0) {
+                    size.incrementAndGet();
+                }
+                if (same) {
+                    discard(appended, record);
+                }
+                return read(previous);
+            }
+        }
+    }
+
+    /**
+     * @return the page of the ticket, or null if it hasn't been created (or the ticket is negative)
+     * @throws IllegalArgumentException if a page is to be created for a negative ticket
+     */
+    private AtomicLongArray page(int ticket, boolean create) {
+        if (ticket < 0) {
+            if (create) {
+                throw new IllegalArgumentException("Invalid ticket " + ticket);
+            }
+            return null;
+        }
+        int pageIndex = ticket >>> PAGE_BITS;
+        AtomicLongArray page = pages.get(pageIndex);
+        if (page == null && create) {
+            pages.compareAndSet(pageIndex, null, new AtomicLongArray(PAGE_SIZE));
+            page = pages.get(pageIndex);
+        }
+        return page;
+    }
+
+    private static long addressFor(Document document, long address) {
+        return document.getWatermark().isPresent() ? address | WATERMARKED : address;
+    }
+
+    /**
+     * Append a record prefixed with its length to the current slab
+     *
+     * @return the address of the record, the slab index (plus one so that an address is never zero) in the high
+     * and the offset in the slab in the low 32 bits
+     */
+    private synchronized long append(byte[] record) {
+        int length = DocumentCodec.varIntSize(record.length) + record.length;
+        if (length > slabSize) {
+            throw new IllegalArgumentException("Document of " + record.length + " bytes doesn't fit in a slab");
+        }
+        if (currentSlab < 0 || slabOffset + length > slabSize) {
+            if (currentSlab + 1 == MAX_SLABS) {
+                throw new IllegalStateException("All " + MAX_SLABS + " slabs of the ticket store are full");
+            }
+            currentSlab++;
+            slabs.set(currentSlab, offHeap ? ByteBuffer.allocateDirect(slabSize) : ByteBuffer.allocate(slabSize));
+            slabOffset = 0;
+        }
+        ByteBuffer slab = slabs.get(currentSlab);
+        int offset = slabOffset;
+        int prefix = DocumentCodec.putVarInt(slab, offset, record.length);
+        slab.put(offset + prefix, record);
+        slabOffset += length;
+        return ((long) (currentSlab + 1) << 32) | offset;
+    }
+
+    /**
+     * Take back a record that was appended but isn't used after all, which is only possible if it's still the last
+     * one. Otherwise it's left in its slab like any other record that isn't used any more.
+     *
+     * @param address the address of the record as returned by #append, or 0 if nothing was appended
+     */
+    private synchronized void discard(long address, byte[] record) {
+        if (address == 0) {
+            return;
+        }
+        int length = DocumentCodec.varIntSize(record.length) + record.length;
+        if ((int) (address >>> 32) - 1 == currentSlab && (int) (address & OFFSET_MASK) + length == slabOffset) {
+            slabOffset -= length;
+        }
+    }
+
+    /**
+     * @return the bytes taken by the records so far, along with the unused ends of the slabs that are full
+     */
+    synchronized long getRecordBytes() {
+        return currentSlab < 0 ? 0 : (long) currentSlab * slabSize + slabOffset;
+    }
+
+    private boolean sameRecord(long address, byte[] record) {
+        ByteBuffer slab = slabs.get((int) ((address & ~WATERMARKED) >>> 32) - 1);
+        int offset = (int) (address & OFFSET_MASK);
+        int length = DocumentCodec.getVarInt(slab, offset);
+        if (length != record.length) {
+            return false;
+        }
+        offset += DocumentCodec.varIntSize(length);
+        for (int i = 0; i < length; i++) {
+            if (slab.get(offset + i) != record[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Document read(long address) {
+        if (address == 0) {
+            return null;
+        }
+        ByteBuffer slab = slabs.get((int) ((address & ~WATERMARKED) >>> 32) - 1);
+        int offset = (int) (address & OFFSET_MASK);
+        Document document = DocumentCodec.decode(slab, offset + DocumentCodec.varIntSize(DocumentCodec.getVarInt(slab, offset)));
+        if ((address & WATERMARKED) != 0) {
+            return document.withWatermark(Watermark.createFor(document));
+        }
+        return document;
+    }
+
+}
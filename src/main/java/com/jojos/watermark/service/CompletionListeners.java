@@ -0,0 +1,90 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Watermark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * The listeners waiting for tickets to complete.
+ *
+ * Nobody blocks while waiting, a listener is just a callback that is invoked by the thread completing the ticket.
+ * Every listener is invoked at most once.
+ *
+ * @author gkaranikas
+ */
+final class CompletionListeners {
+
+    private final ConcurrentMap<Integer, List<Listener>> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * @return the registered listener which can also be notified directly, e.g. if the ticket turns out to be completed already
+     */
+    Listener add(int ticket, Consumer<Watermark> consumer) {
+        Listener listener = new Listener(ticket, consumer);
+        listeners.compute(ticket, (key, ticketListeners) -> {
+            List<Listener> list = ticketListeners == null ? new ArrayList<>(1) : ticketListeners;
+            list.add(listener);
+            return list;
+        });
+        return listener;
+    }
+
+    /**
+     * Notify and forget all listeners of a ticket
+     *
+     * @param watermark the watermark of the ticket or null if the ticket is gone
+     * @return whether anyone was listening
+     */
+    boolean complete(int ticket, Watermark watermark) {
+        List<Listener> ticketListeners = listeners.remove(ticket);
+        if (ticketListeners == null) {
+            return false;
+        }
+        for (Listener listener : ticketListeners) {
+            listener.fire(watermark);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of tickets that are waited on
+     */
+    int size() {
+        return listeners.size();
+    }
+
+    private void remove(Listener listener) {
+        listeners.computeIfPresent(listener.ticket, (key, ticketListeners) -> {
+            ticketListeners.remove(listener);
+            return ticketListeners.isEmpty() ? null : ticketListeners;
+        });
+    }
+
+    final class Listener implements Subscription {
+        private final int ticket;
+        private final Consumer<Watermark> consumer;
+        private final AtomicBoolean notified = new AtomicBoolean();
+
+        private Listener(int ticket, Consumer<Watermark> consumer) {
+            this.ticket = ticket;
+            this.consumer = consumer;
+        }
+
+        void fire(Watermark watermark) {
+            if (notified.compareAndSet(false, true)) {
+                consumer.accept(watermark);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            notified.set(true);
+            remove(this);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.jojos.watermark.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the content of the documents that come with one on disk, in watermark.content.dir, one file per ticket
+ * next to the file of its watermarked content. A document without content is watermarked by its properties alone.
+ *
+ * An uploaded content is spooled to a file of its own a buffer at a time, however large it is, and only then moved
+ * under the ticket it's given. The tickets that have a content are kept in memory, so that the documents without one
+ * don't cost a look at the disk, and are found again on startup from the files that are there. Whatever was left
+ * half spooled by a previous run is deleted, and so are the contents of the tickets that the store doesn't know (see
+ * #retainContents), since without a journal the tickets start over and a new ticket would get an old content.
+ *
+ * @author gkaranikas
+ */
+@Component
+public class ContentStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentStore.class);
+
+    private static final Pattern CONTENT = Pattern.compile("(\\d+)\\.content");
+    private static final String SPOOL_PREFIX = "upload-";
+    private static final String SPOOL_SUFFIX = ".spool";
+    private static final int SPOOL_BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final long maxSize;
+    private final TicketBitSet tickets = new TicketBitSet();
+
+    @Autowired
+    public ContentStore(@Value("${watermark.content.dir:content}") String directory,
+                        @Value("${watermark.content.max-size-bytes:1073741824}") long maxSize) throws IOException {
+        this(Paths.get(directory), maxSize);
+    }
+
+    /**
+     * @param maxSize the largest content that can be spooled, in bytes
+     */
+    public ContentStore(Path directory, long maxSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        if (Files.isDirectory(directory)) {
+            recover();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the file of the content of the ticket, which may not exist
+     */
+    public Path getContent(int ticket) {
+        return directory.resolve(Integer.toUnsignedString(ticket) + ".content");
+    }
+
+    /**
+     * @return the file of the watermarked content of the ticket, which may not exist
+     */
+    public Path getWatermarkedContent(int ticket) {
+        return directory.resolve(Integer.toUnsignedString(ticket) + ".watermarked");
+    }
+
+    public boolean hasContent(int ticket) {
+        return tickets.get(ticket);
+    }
+
+    /**
+     * Copy a content to a spool file, to be handed to #put once it has a ticket. The file is deleted if the content
+     * can't be read to its end.
+     *
+     * @return the spool file
+     * @throws ContentTooLargeException if the content is larger than watermark.content.max-size-bytes
+     */
+    public Path spool(InputStream content) throws IOException {
+        Files.createDirectories(directory);
+        Path spooled = Files.createTempFile(directory, SPOOL_PREFIX, SPOOL_SUFFIX);
+        try (OutputStream out = Files.newOutputStream(spooled)) {
+            byte[] buffer = new byte[SPOOL_BUFFER_SIZE];
+            long size = 0;
+            int read;
+            while ((read = content.read(buffer)) >= 0) {
+                size += read;
+                if (size > maxSize) {
+                    throw new ContentTooLargeException(maxSize);
+                }
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(spooled);
+            throw e;
+        }
+        return spooled;
+    }
+
+    /**
+     * Give a spooled content to a ticket
+     */
+    public void put(int ticket, Path spooled) throws IOException {
+        Files.move(spooled, getContent(ticket), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        tickets.set(ticket);
+    }
+
+    /**
+     * Delete the content and the watermarked content of the ticket, if it has any
+     */
+    public void delete(int ticket) throws IOException {
+        if (tickets.clear(ticket)) {
+            Files.deleteIfExists(getContent(ticket));
+            Files.deleteIfExists(getWatermarkedContent(ticket));
+        }
+    }
+
+    /**
+     * Keep the contents found on startup only for the tickets that still exist, e.g. the ones recovered from the
+     * journal, and delete the rest
+     *
+     * @param exists tells whether a ticket exists
+     * @return the number of contents deleted
+     */
+    public int retainContents(IntPredicate exists) {
+        List<Integer> unknown = new ArrayList<>();
+        tickets.forEach(ticket -> {
+            if (!exists.test(ticket)) {
+                unknown.add(ticket);
+            }
+        });
+        for (int ticket : unknown) {
+            try {
+                delete(ticket);
+            } catch (IOException e) {
+                // the ticket has no content any more either way, the files are replaced once it's given a new one
+                log.warn("Could not delete the content of unknown ticket {}", ticket, e);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            log.info("Deleted the contents of {} unknown tickets under {}", unknown.size(), directory);
+        }
+        return unknown.size();
+    }
+
+    private void recover() throws IOException {
+        int contents = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher matcher = CONTENT.matcher(name);
+                if (matcher.matches()) {
+                    tickets.set(Integer.parseUnsignedInt(matcher.group(1)));
+                    contents++;
+                } else if (name.startsWith(SPOOL_PREFIX) && name.endsWith(SPOOL_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+        log.info("Found the contents of {} tickets under {}", contents, directory);
+    }
+
+}
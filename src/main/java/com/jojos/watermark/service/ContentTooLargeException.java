@@ -0,0 +1,16 @@
+package com.jojos.watermark.service;
+
+import java.io.IOException;
+
+/**
+ * A content that is larger than the {@link ContentStore} takes (watermark.content.max-size-bytes)
+ *
+ * @author gkaranikas
+ */
+public class ContentTooLargeException extends IOException {
+
+    public ContentTooLargeException(long maxSize) {
+        super("A content can't be larger than " + maxSize + " bytes");
+    }
+
+}
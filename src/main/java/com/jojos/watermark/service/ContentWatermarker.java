@@ -0,0 +1,170 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Watermark;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stamps the content files of the {@link ContentStore} with the {@link WatermarkEngine}.
+ *
+ * The content and the watermarked content are mapped in memory region by region, so the engine reads the pages of
+ * the one and writes the pages of the other with no copies in between. A content larger than a chunk
+ * (watermark.engine.chunk-size-bytes) is split in chunks that are stamped in parallel by a fork/join pool of
+ * watermark.engine.parallelism threads (one per cpu by default) while the watermark task waits for them. The pool is
+ * shared by all the watermark tasks, so a few large contents don't take more than the cpus of the machine between them.
+ * A content of a single chunk is stamped by the watermark task itself.
+ *
+ * The bytes stamped are exported as the watermark.content.stamped metric.
+ *
+ * @author gkaranikas
+ */
+@Service
+public class ContentWatermarker implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentWatermarker.class);
+
+    private final WatermarkEngine engine;
+    private final ContentStore contents;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final LongAdder stampedBytes = new LongAdder();
+
+    @Autowired
+    public ContentWatermarker(ObjectProvider<WatermarkEngine> engine,
+                              ContentStore contents,
+                              @Value("${watermark.engine.parallelism:0}") int parallelism,
+                              @Value("${watermark.engine.chunk-size-bytes:4194304}") int chunkSize) {
+        this(engine.getIfAvailable(LsbWatermarkEngine::new), contents, parallelism, chunkSize);
+    }
+
+    /**
+     * @param parallelism the threads stamping the chunks, 0 for one per cpu
+     */
+    public ContentWatermarker(WatermarkEngine engine, ContentStore contents, int parallelism, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive: " + chunkSize);
+        }
+        this.engine = engine;
+        this.contents = contents;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.chunkSize = chunkSize;
+        log.info("Stamping the contents with {} in chunks of {} bytes by {} threads",
+                engine.getClass().getSimpleName(), chunkSize, pool.getParallelism());
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    public WatermarkEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Stamp the content of the ticket into its watermarked content, if the document of the ticket came with one
+     *
+     * @return true if the ticket has a content, which has been stamped
+     */
+    public boolean stamp(int ticket, Watermark watermark) throws IOException {
+        if (!contents.hasContent(ticket)) {
+            return false;
+        }
+        stamp(watermark, contents.getContent(ticket), contents.getWatermarkedContent(ticket));
+        return true;
+    }
+
+    /**
+     * Stamp a content file into a watermarked content file, which is replaced if it exists
+     *
+     * @return the number of bytes stamped
+     */
+    public long stamp(Watermark watermark, Path content, Path watermarked) throws IOException {
+        try (FileChannel in = FileChannel.open(content, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(watermarked, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            if (size == 0) {
+                return 0;
+            }
+            // size the file up front rather than have every chunk that maps past its end grow it
+            out.write(ByteBuffer.allocate(1), size - 1);
+            if (size <= chunkSize) {
+                stamp(watermark, in, out, 0, size);
+            } else {
+                try {
+                    pool.invoke(new ChunkTask(watermark, in, out, 0, size));
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            stampedBytes.add(size);
+            return size;
+        }
+    }
+
+    private void stamp(Watermark watermark, FileChannel in, FileChannel out, long from, long to) throws IOException {
+        engine.stamp(watermark, from, in.map(FileChannel.MapMode.READ_ONLY, from, to - from),
+                out.map(FileChannel.MapMode.READ_WRITE, from, to - from));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("watermark.content.stamped", stampedBytes, LongAdder::sum).
+                baseUnit("bytes").register(registry);
+    }
+
+    /**
+     * Stamps the chunks of a range of the content, halving the range until it's a single chunk
+     */
+    private final class ChunkTask extends RecursiveAction {
+
+        private final Watermark watermark;
+        private final FileChannel in;
+        private final FileChannel out;
+        private final long from;
+        private final long to;
+
+        private ChunkTask(Watermark watermark, FileChannel in, FileChannel out, long from, long to) {
+            this.watermark = watermark;
+            this.in = in;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            long chunks = (to - from + chunkSize - 1) / chunkSize;
+            if (chunks <= 1) {
+                try {
+                    stamp(watermark, in, out, from, to);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            long middle = from + chunks / 2 * chunkSize;
+            invokeAll(new ChunkTask(watermark, in, out, from, middle), new ChunkTask(watermark, in, out, middle, to));
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Content;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+
+import java.util.Objects;
+
+/**
+ * The identity of a document as far as watermarking is concerned: its content type, title, author and topic.
+ * Two documents with the same key end up with the same watermark. The watermark property itself is not part of the key.
+ *
+ * @author gkaranikas
+ */
+public final class DocumentKey {
+
+    private final Content content;
+    private final String title;
+    private final String authorFirstName;
+    private final String authorLastName;
+    private final Topic topic;
+    private final int hash;
+
+    private DocumentKey(Content content, String title, String authorFirstName, String authorLastName, Topic topic) {
+        this.content = content;
+        this.title = title;
+        this.authorFirstName = authorFirstName;
+        this.authorLastName = authorLastName;
+        this.topic = topic;
+        this.hash = Objects.hash(content, title, authorFirstName, authorLastName, topic);
+    }
+
+    public static DocumentKey of(Document document) {
+        Author author = document.getAuthor();
+        String firstName = author == null ? null : author.getFirstName();
+        String lastName = author == null ? null : author.getLastName();
+        if (document instanceof Book) {
+            return new DocumentKey(Content.Book, document.getTitle(), firstName, lastName, ((Book) document).getTopic());
+        }
+        return new DocumentKey(document instanceof Journal ? Content.Journal : null, document.getTitle(), firstName, lastName, null);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DocumentKey)) {
+            return false;
+        }
+        DocumentKey other = (DocumentKey) o;
+        return hash == other.hash &&
+                content == other.content &&
+                topic == other.topic &&
+                Objects.equals(title, other.title) &&
+                Objects.equals(authorFirstName, other.authorFirstName) &&
+                Objects.equals(authorLastName, other.authorLastName);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentKey{" +
+                "content=" + content +
+                ", title='" + title + '\'' +
+                ", author=" + authorFirstName + " " + authorLastName +
+                ", topic=" + topic +
+                '}';
+    }
+}
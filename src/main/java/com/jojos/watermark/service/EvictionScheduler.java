@@ -0,0 +1,60 @@
+package com.jojos.watermark.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evicts the expired tickets of the {@link WatermarkStore} every watermark.retention.sweep-interval-millis on a
+ * background thread of its own. Nothing is scheduled if the {@link TicketRetention} keeps every ticket.
+ *
+ * @author gkaranikas
+ */
+@Service
+public class EvictionScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(EvictionScheduler.class);
+
+    private final WatermarkStore store;
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public EvictionScheduler(WatermarkStore store, TicketRetention retention,
+                             @Value("${watermark.retention.sweep-interval-millis:1000}") long intervalMillis) {
+        this.store = store;
+        if (retention.isBounded() && intervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "watermark-eviction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::evict, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void evict() {
+        try {
+            store.evictExpiredTickets();
+        } catch (RuntimeException e) {
+            // keep the schedule going, whatever is left is evicted by the next sweep
+            log.error("Failed to evict the expired tickets of the watermark store", e);
+        }
+    }
+
+}
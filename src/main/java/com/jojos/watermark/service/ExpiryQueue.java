@@ -0,0 +1,72 @@
+package com.jojos.watermark.service;
+
+/**
+ * A first in, first out queue of tickets along with the time each one was added, kept in chunks of primitive arrays
+ * so that nothing is allocated per ticket.
+ *
+ * Since every ticket of a queue lives for the same time after it's added, the queue is also ordered by expiry and
+ * the expired tickets are always at its head. Finding them costs nothing more than removing them.
+ *
+ * @author gkaranikas
+ */
+final class ExpiryQueue {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private static final class Chunk {
+        private final int[] tickets = new int[CHUNK_SIZE];
+        private final long[] times = new long[CHUNK_SIZE];
+        private int head;
+        private int tail;
+        private Chunk next;
+    }
+
+    // guarded by this
+    private Chunk first = new Chunk();
+    private Chunk last = first;
+    private long size;
+
+    synchronized void add(int ticket, long time) {
+        if (last.tail == CHUNK_SIZE) {
+            last.next = new Chunk();
+            last = last.next;
+        }
+        last.tickets[last.tail] = ticket;
+        last.times[last.tail] = time;
+        last.tail++;
+        size++;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return the time the ticket at the head was added, the queue must not be empty
+     */
+    synchronized long peekTime() {
+        return first.times[first.head];
+    }
+
+    /**
+     * @return the ticket at the head which is removed, the queue must not be empty
+     */
+    synchronized int poll() {
+        int ticket = first.tickets[first.head++];
+        size--;
+        if (first.head == first.tail) {
+            if (first.next != null) {
+                first = first.next;
+            } else {
+                first.head = 0;
+                first.tail = 0;
+            }
+        }
+        return ticket;
+    }
+
+}
@@ -0,0 +1,680 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.data.DocumentCodec;
+import com.jojos.watermark.domain.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * A {@link TicketJournal} appending to a sequence of segment files, compacted with snapshots.
+ *
+ * Every record is framed as
+ * <pre>
+ *     payload length (4 bytes) | CRC32C of the payload (4 bytes) | type (1 byte) | ticket (4 bytes) | document
+ * </pre>
+ * where the document, encoded with the {@link DocumentCodec}, is only there for created tickets.
+ *
+ * Appends go to an in-memory buffer. A single background thread swaps it with a second buffer, writes it out and,
+ * with fsync on, forces it to the disk. Whatever is appended while the disk is busy is written and forced with the
+ * next swap, so a single fsync covers all the records of the threads that wait for it (group commit) and the
+ * throughput of the appends doesn't depend on the latency of the disk. Once the current segment grows beyond the
+ * segment size the background thread moves on to a new one.
+ *
+ * A snapshot starts a new segment and then writes every ticket of the store, without stopping the writers, to a
+ * snapshot file named after that segment:
+ * <pre>
+ *     magic (4 bytes) | version (1 byte) | last ticket (4 bytes)
+ *     ticket (4 bytes) | watermarked (1 byte) | var-int length | document     (for every ticket)
+ *     0 (4 bytes)
+ *     first ticket (4 bytes) | number of tickets (4 bytes)     (for every range of expired tickets)
+ *     0 (4 bytes) | number of tickets (8 bytes) | CRC32C of everything before (4 bytes)
+ * </pre>
+ * Snapshots of version 1 have no expired tickets, their tickets are followed by the trailer right away.
+ * Every change recorded in the older segments had already been applied to the store when the snapshot started,
+ * so the snapshot covers them and they are deleted. The changes that are seen by the snapshot but recorded after it
+ * started are replayed again on top of it, which is harmless since replaying a record twice has the same effect.
+ *
+ * On replay the latest snapshot is mapped in memory and loaded, then the segments from the snapshot on are mapped
+ * region by region and replayed. A record of the last segment that is cut short or doesn't match its checksum marks
+ * the end of the journal: it can only be the tail of a write that never completed, so it's dropped along with
+ * anything after it.
+ *
+ * @author gkaranikas
+ */
+public class FileTicketJournal implements TicketJournal, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(FileTicketJournal.class);
+
+    private static final Pattern SEGMENT = Pattern.compile("tickets-(\\d+)\\.journal");
+    private static final Pattern SNAPSHOT = Pattern.compile("tickets-(\\d+)\\.snapshot");
+    private static final String TEMPORARY = ".tmp";
+
+    private static final byte CREATED = 1;
+    private static final byte COMPLETED = 2;
+    private static final byte REMOVED = 3;
+    private static final byte EXPIRED = 4;
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int MIN_PAYLOAD_SIZE = 1 + Integer.BYTES;
+    private static final int REGION_SIZE = 1 << 30;
+
+    private static final int SNAPSHOT_MAGIC = 0x574D534E;
+    private static final byte SNAPSHOT_VERSION = 2;
+    private static final int SNAPSHOT_HEADER_SIZE = Integer.BYTES + 1 + Integer.BYTES;
+    private static final int SNAPSHOT_TRAILER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final byte WATERMARKED = 1;
+
+    private final Path directory;
+    private final boolean fsync;
+    private final int bufferSize;
+    private final long segmentSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final CRC32C checksum = new CRC32C();
+
+    // guarded by lock
+    private ByteBuffer current;
+    private ByteBuffer flushing;
+    private long appendedPosition;
+    private long durablePosition;
+    private long snapshotPosition;
+    private long segment;
+    private boolean rollRequested;
+    private boolean replayed;
+    private boolean closed;
+    private IOException failure;
+
+    // confined to the flusher once replayed
+    private FileChannel channel;
+    private Thread flusher;
+
+    /**
+     * @param directory the directory of the journal files, created if missing
+     * @param fsync whether to force the records to the disk or leave them to the operating system once written
+     * @param bufferSize the size of each of the two append buffers, which is also the maximum size of a record
+     * @param segmentSize the size beyond which a new segment is started
+     */
+    public FileTicketJournal(Path directory, boolean fsync, int bufferSize, long segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.fsync = fsync;
+        this.bufferSize = bufferSize;
+        this.segmentSize = segmentSize;
+        this.current = ByteBuffer.allocateDirect(bufferSize);
+        this.flushing = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    @Override
+    public long created(int ticket, Document document) {
+        return append(CREATED, ticket, DocumentCodec.encode(document));
+    }
+
+    @Override
+    public long completed(int ticket) {
+        return append(COMPLETED, ticket, null);
+    }
+
+    @Override
+    public long removed(int ticket) {
+        return append(REMOVED, ticket, null);
+    }
+
+    @Override
+    public long expired(int ticket) {
+        return append(EXPIRED, ticket, null);
+    }
+
+    /**
+     * Only waits for the records to be forced to the disk when fsync is on. Otherwise the records are handed over
+     * to the operating system in the background and nothing is waited for.
+     */
+    @Override
+    public void awaitDurable(long position) {
+        if (!fsync) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (durablePosition < position && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            checkFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void replay(TicketJournalVisitor visitor) {
+        lock.lock();
+        try {
+            if (replayed) {
+                throw new IllegalStateException("The journal " + directory + " has already been replayed");
+            }
+            long startTime = System.nanoTime();
+            List<Long> snapshots = list(SNAPSHOT);
+            long first = 1;
+            long tickets = 0;
+            if (!snapshots.isEmpty()) {
+                first = snapshots.get(snapshots.size() - 1);
+                tickets = loadSnapshot(snapshotFile(first), visitor);
+            }
+            long records = 0;
+            long bytes = 0;
+            List<Long> segments = list(SEGMENT);
+            segment = first;
+            for (int i = 0; i < segments.size(); i++) {
+                long index = segments.get(i);
+                if (index < first) {
+                    // left behind by a compaction that didn't complete
+                    Files.delete(segmentFile(index));
+                    continue;
+                }
+                long[] counters = replaySegment(index, visitor, i == segments.size() - 1);
+                records += counters[0];
+                bytes += counters[1];
+                segment = index;
+            }
+            channel = FileChannel.open(segmentFile(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            replayed = true;
+            log.info("Loaded {} tickets from the snapshot and replayed {} records ({} bytes) of the journal {} in {} ms",
+                    tickets, records, bytes, directory, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't replay the journal " + directory, e);
+        } finally {
+            lock.unlock();
+        }
+        flusher = new Thread(this::flush, "watermark-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public synchronized boolean snapshot(TicketSnapshotSource source) {
+        long index;
+        long position;
+        lock.lock();
+        try {
+            if (!replayed || closed) {
+                throw new IllegalStateException("The journal " + directory + " is not open");
+            }
+            if (appendedPosition == snapshotPosition) {
+                return false;
+            }
+            // everything appended from now on goes to a new segment, which is where the replay will start from
+            position = appendedPosition;
+            long previous = segment;
+            rollRequested = true;
+            appended.signal();
+            while (segment == previous && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            checkFailure();
+            index = segment;
+        } finally {
+            lock.unlock();
+        }
+
+        long startTime = System.nanoTime();
+        long tickets;
+        try {
+            tickets = writeSnapshot(index, source);
+            for (long older : list(SNAPSHOT)) {
+                if (older < index) {
+                    Files.delete(snapshotFile(older));
+                }
+            }
+            for (long older : list(SEGMENT)) {
+                if (older < index) {
+                    Files.delete(segmentFile(older));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write a snapshot of the journal " + directory, e);
+        }
+        lock.lock();
+        try {
+            snapshotPosition = position;
+        } finally {
+            lock.unlock();
+        }
+        log.info("Wrote a snapshot of {} tickets to {} in {} ms", tickets, snapshotFile(index),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        return true;
+    }
+
+    /**
+     * Write out and force whatever is still buffered and close the current segment
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    static Path segmentFile(Path directory, long index) {
+        return directory.resolve(String.format("tickets-%010d.journal", index));
+    }
+
+    static Path snapshotFile(Path directory, long index) {
+        return directory.resolve(String.format("tickets-%010d.snapshot", index));
+    }
+
+    private Path segmentFile(long index) {
+        return segmentFile(directory, index);
+    }
+
+    private Path snapshotFile(long index) {
+        return snapshotFile(directory, index);
+    }
+
+    /**
+     * @return the indexes of the files matching the pattern in ascending order. Temporary files are deleted.
+     */
+    private List<Long> list(Pattern pattern) throws IOException {
+        List<Long> indexes = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMPORARY)) {
+                    Files.delete(file);
+                    continue;
+                }
+                Matcher matcher = pattern.matcher(name);
+                if (matcher.matches()) {
+                    indexes.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    /**
+     * @return the number of records and the number of bytes replayed
+     */
+    private long[] replaySegment(long index, TicketJournalVisitor visitor, boolean last) throws IOException {
+        Path file = segmentFile(index);
+        long[] records = new long[1];
+        try (FileChannel segmentChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = segmentChannel.size();
+            long position = replaySegment(segmentChannel, visitor, size, records);
+            if (position < size) {
+                if (!last) {
+                    throw new IllegalStateException("Corrupt record at " + position + " of the journal segment " + file);
+                }
+                log.warn("Dropping {} bytes of incomplete or corrupt records at the end of the journal segment {}", size - position, file);
+                segmentChannel.truncate(position);
+            }
+            return new long[]{records[0], position};
+        }
+    }
+
+    /**
+     * @return the position right after the last valid record
+     */
+    private long replaySegment(FileChannel segmentChannel, TicketJournalVisitor visitor, long size, long[] records) throws IOException {
+        long position = 0;
+        while (position < size) {
+            long regionSize = Math.min(REGION_SIZE, size - position);
+            boolean lastRegion = position + regionSize == size;
+            MappedByteBuffer region = segmentChannel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+            int offset = 0;
+            while (offset + HEADER_SIZE <= regionSize) {
+                int length = region.getInt(offset);
+                if (length < MIN_PAYLOAD_SIZE || length > bufferSize - HEADER_SIZE) {
+                    return position + offset;
+                }
+                if (offset + HEADER_SIZE + length > regionSize) {
+                    if (lastRegion) {
+                        return position + offset;
+                    }
+                    // the record continues in the next region
+                    break;
+                }
+                ByteBuffer payload = region.slice(offset + HEADER_SIZE, length);
+                checksum.reset();
+                checksum.update(payload);
+                if ((int) checksum.getValue() != region.getInt(offset + Integer.BYTES)) {
+                    return position + offset;
+                }
+                visit(visitor, region, offset + HEADER_SIZE);
+                records[0]++;
+                offset += HEADER_SIZE + length;
+            }
+            if (lastRegion && offset < regionSize) {
+                return position + offset;
+            }
+            position += offset;
+        }
+        return position;
+    }
+
+    private static void visit(TicketJournalVisitor visitor, ByteBuffer region, int offset) {
+        byte type = region.get(offset);
+        int ticket = region.getInt(offset + 1);
+        switch (type) {
+            case CREATED:
+                visitor.created(ticket, DocumentCodec.decode(region, offset + MIN_PAYLOAD_SIZE));
+                break;
+            case COMPLETED:
+                visitor.completed(ticket);
+                break;
+            case REMOVED:
+                visitor.removed(ticket);
+                break;
+            case EXPIRED:
+                visitor.expired(ticket);
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + type + " for ticket " + ticket);
+        }
+    }
+
+    /**
+     * @return the number of tickets loaded
+     */
+    private long loadSnapshot(Path file, TicketJournalVisitor visitor) throws IOException {
+        try (FileChannel snapshotChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = snapshotChannel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("The snapshot " + file + " of " + size + " bytes is too large to be mapped");
+            }
+            if (size < SNAPSHOT_HEADER_SIZE + SNAPSHOT_TRAILER_SIZE) {
+                throw new IllegalStateException("The snapshot " + file + " is cut short");
+            }
+            MappedByteBuffer snapshot = snapshotChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int end = (int) size - Integer.BYTES;
+            checksum.reset();
+            checksum.update(snapshot.slice(0, end));
+            if ((int) checksum.getValue() != snapshot.getInt(end) || snapshot.getInt(0) != SNAPSHOT_MAGIC) {
+                throw new IllegalStateException("The snapshot " + file + " is corrupt");
+            }
+            byte version = snapshot.get(Integer.BYTES);
+            if (version < 1 || version > SNAPSHOT_VERSION) {
+                throw new IllegalStateException("Unknown version " + version + " of the snapshot " + file);
+            }
+            visitor.lastTicket(snapshot.getInt(Integer.BYTES + 1));
+
+            long tickets = 0;
+            int offset = SNAPSHOT_HEADER_SIZE;
+            int ticket;
+            while ((ticket = snapshot.getInt(offset)) != 0) {
+                byte flags = snapshot.get(offset + Integer.BYTES);
+                offset += Integer.BYTES + 1;
+                int length = DocumentCodec.getVarInt(snapshot, offset);
+                offset += DocumentCodec.varIntSize(length);
+                visitor.created(ticket, DocumentCodec.decode(snapshot, offset));
+                if ((flags & WATERMARKED) != 0) {
+                    visitor.completed(ticket);
+                }
+                offset += length;
+                tickets++;
+            }
+            if (version > 1) {
+                int first;
+                while ((first = snapshot.getInt(offset + Integer.BYTES)) != 0) {
+                    int count = snapshot.getInt(offset + 2 * Integer.BYTES);
+                    for (int expired = first; expired - first < count; expired++) {
+                        visitor.expired(expired);
+                    }
+                    offset += 2 * Integer.BYTES;
+                }
+                offset += Integer.BYTES;
+            }
+            if (snapshot.getLong(offset + Integer.BYTES) != tickets) {
+                throw new IllegalStateException("The snapshot " + file + " doesn't have the expected number of tickets");
+            }
+            return tickets;
+        }
+    }
+
+    /**
+     * Write the snapshot to a temporary file that is only renamed to its final name once it's complete and durable
+     *
+     * @return the number of tickets written
+     */
+    private long writeSnapshot(long index, TicketSnapshotSource source) throws IOException {
+        Path file = snapshotFile(index);
+        Path temporary = file.resolveSibling(file.getFileName() + TEMPORARY);
+        CRC32C snapshotChecksum = new CRC32C();
+        long[] tickets = new long[1];
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+            buffer.putInt(SNAPSHOT_MAGIC);
+            buffer.put(SNAPSHOT_VERSION);
+            buffer.putInt(source.getLastTicket());
+            try {
+                source.forEachTicket((document, ticket) -> {
+                    byte[] record = DocumentCodec.encode(document);
+                    int length = Integer.BYTES + 1 + DocumentCodec.varIntSize(record.length) + record.length;
+                    if (buffer.remaining() < length + Integer.BYTES) {
+                        writeSnapshotBuffer(out, buffer, snapshotChecksum);
+                    }
+                    buffer.putInt(ticket);
+                    buffer.put(document.getWatermark().isPresent() ? WATERMARKED : 0);
+                    buffer.position(buffer.position() + DocumentCodec.putVarInt(buffer, buffer.position(), record.length));
+                    buffer.put(record);
+                    tickets[0]++;
+                });
+                buffer.putInt(0);
+                // the expired tickets are mostly consecutive, so they are written as ranges
+                int[] range = new int[2];
+                source.forEachExpiredTicket(ticket -> {
+                    if (range[1] > 0 && range[0] + range[1] == ticket) {
+                        range[1]++;
+                        return;
+                    }
+                    putExpiredRange(out, buffer, snapshotChecksum, range);
+                    range[0] = ticket;
+                    range[1] = 1;
+                });
+                putExpiredRange(out, buffer, snapshotChecksum, range);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (buffer.remaining() < SNAPSHOT_TRAILER_SIZE) {
+                writeSnapshotBuffer(out, buffer, snapshotChecksum);
+            }
+            buffer.putInt(0);
+            buffer.putLong(tickets[0]);
+            writeSnapshotBuffer(out, buffer, snapshotChecksum);
+            buffer.putInt((int) snapshotChecksum.getValue());
+            writeSnapshotBuffer(out, buffer, null);
+            out.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        return tickets[0];
+    }
+
+    private static void putExpiredRange(FileChannel out, ByteBuffer buffer, CRC32C snapshotChecksum, int[] range) {
+        if (range[1] == 0) {
+            return;
+        }
+        if (buffer.remaining() < 2 * Integer.BYTES) {
+            writeSnapshotBuffer(out, buffer, snapshotChecksum);
+        }
+        buffer.putInt(range[0]);
+        buffer.putInt(range[1]);
+    }
+
+    private static void writeSnapshotBuffer(FileChannel out, ByteBuffer buffer, CRC32C snapshotChecksum) {
+        buffer.flip();
+        if (snapshotChecksum != null) {
+            snapshotChecksum.update(buffer.duplicate());
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    private long append(byte type, int ticket, byte[] document) {
+        int length = MIN_PAYLOAD_SIZE + (document == null ? 0 : document.length);
+        if (HEADER_SIZE + length > bufferSize) {
+            throw new IllegalArgumentException("Record of " + length + " bytes doesn't fit in the journal buffer");
+        }
+        lock.lock();
+        try {
+            if (!replayed) {
+                throw new IllegalStateException("The journal " + directory + " has to be replayed before appending to it");
+            }
+            if (closed) {
+                // e.g. a watermark task still draining on shutdown, the ticket is just recovered as pending
+                log.warn("Dropping a record for ticket {} appended after the journal {} was closed", ticket, directory);
+                return appendedPosition;
+            }
+            while (current.remaining() < HEADER_SIZE + length && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            checkFailure();
+            int start = current.position();
+            current.putInt(length);
+            current.putInt(0);
+            current.put(type);
+            current.putInt(ticket);
+            if (document != null) {
+                current.put(document);
+            }
+            checksum.reset();
+            checksum.update(current.slice(start + HEADER_SIZE, length));
+            current.putInt(start + Integer.BYTES, (int) checksum.getValue());
+            appendedPosition += HEADER_SIZE + length;
+            appended.signal();
+            return appendedPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flush() {
+        while (true) {
+            long position;
+            long next = 0;
+            boolean roll;
+            lock.lock();
+            try {
+                while (current.position() == 0 && !rollRequested && !closed) {
+                    appended.awaitUninterruptibly();
+                }
+                if (current.position() == 0 && !rollRequested) {
+                    return;
+                }
+                ByteBuffer buffer = current;
+                current = flushing;
+                flushing = buffer;
+                position = appendedPosition;
+                roll = rollRequested;
+                next = segment + 1;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                flushing.flip();
+                while (flushing.hasRemaining()) {
+                    channel.write(flushing);
+                }
+                if (roll || channel.size() >= segmentSize) {
+                    roll(next);
+                } else {
+                    next = 0;
+                    if (fsync) {
+                        channel.force(false);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Can't write to the journal {}", directory, e);
+                error = e;
+            } finally {
+                flushing.clear();
+            }
+
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durablePosition = position;
+                    if (next != 0) {
+                        segment = next;
+                    }
+                    if (roll) {
+                        rollRequested = false;
+                    }
+                }
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (error != null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Force and close the current segment and start the next one
+     */
+    private void roll(long next) throws IOException {
+        channel.force(false);
+        channel.close();
+        channel = FileChannel.open(segmentFile(next), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("The journal " + directory + " has failed", failure);
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Document;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The default {@link TicketStore} keeping the documents as they are in a concurrent map.
+ *
+ * Any kind of {@link Document} can be stored, at the expense of a full object graph per ticket.
+ *
+ * @author gkaranikas
+ */
+public class HeapTicketStore implements TicketStore {
+
+    private final ConcurrentMap<Integer, Document> ticketsToDocuments = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean putIfAbsent(int ticket, Document document) {
+        return ticketsToDocuments.putIfAbsent(ticket, document) == null;
+    }
+
+    @Override
+    public Document put(int ticket, Document document) {
+        return ticketsToDocuments.put(ticket, document);
+    }
+
+    @Override
+    public Document replace(int ticket, Document document) {
+        return ticketsToDocuments.replace(ticket, document);
+    }
+
+    @Override
+    public Document get(int ticket) {
+        return ticketsToDocuments.get(ticket);
+    }
+
+    @Override
+    public Document remove(int ticket) {
+        return ticketsToDocuments.remove(ticket);
+    }
+
+    @Override
+    public Document removeIfNotWatermarked(int ticket) {
+        Document[] removed = new Document[1];
+        ticketsToDocuments.computeIfPresent(ticket, (key, document) -> {
+            if (document.getWatermark().isPresent()) {
+                return document;
+            }
+            removed[0] = document;
+            return null;
+        });
+        return removed[0];
+    }
+
+    @Override
+    public int size() {
+        return ticketsToDocuments.size();
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<Document> consumer) {
+        ticketsToDocuments.forEach((ticket, document) -> consumer.accept(document, ticket));
+    }
+}
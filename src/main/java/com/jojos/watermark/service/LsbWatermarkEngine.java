@@ -0,0 +1,103 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Watermark;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The reference {@link WatermarkEngine}: stamps the watermark into the least significant bit of every byte of the
+ * content, the way a watermark is hidden in the samples of an image or a sound.
+ *
+ * The bits come from a stream of pseudo random numbers keyed by the watermark, one number (a splitmix64 round) for
+ * every 64 bytes of the content, so the bit of any byte follows from the key and the position of the byte alone.
+ * The bytes are stamped a word (8 bytes) at a time. The mark is meant to tell which watermark a content carries, it's
+ * not a cryptographic signature.
+ *
+ * @author gkaranikas
+ */
+public class LsbWatermarkEngine implements WatermarkEngine {
+
+    private static final long LOW_BITS = 0x0101010101010101L;
+
+    @Override
+    public void stamp(Watermark watermark, long position, ByteBuffer content, ByteBuffer watermarked) {
+        int from = content.position();
+        int to = content.limit();
+        if (watermarked.remaining() < to - from) {
+            throw new BufferOverflowException();
+        }
+        // absolute little endian accesses, leaving the order of the buffers of the caller alone
+        ByteBuffer in = content.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer out = watermarked.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long key = keyOf(watermark);
+        int i = from;
+        int o = watermarked.position();
+        long p = position;
+
+        for (; i < to && (p & 7) != 0; i++, o++, p++) {
+            out.put(o, stampByte(key, p, in.get(i)));
+        }
+        long bits = mix(key ^ (p >>> 6));
+        for (; i <= to - Long.BYTES; i += Long.BYTES, o += Long.BYTES, p += Long.BYTES) {
+            if ((p & 63) == 0) {
+                bits = mix(key ^ (p >>> 6));
+            }
+            long word = in.getLong(i);
+            out.putLong(o, (word & ~LOW_BITS) | Long.expand((bits >>> (p & 63)) & 0xFF, LOW_BITS));
+        }
+        for (; i < to; i++, o++, p++) {
+            out.put(o, stampByte(key, p, in.get(i)));
+        }
+
+        content.position(to);
+        watermarked.position(o);
+    }
+
+    /**
+     * @return the bit stamped into the byte at the position of a content, for the watermark of the key
+     */
+    static int bitAt(long key, long position) {
+        return (int) (mix(key ^ (position >>> 6)) >>> (position & 63)) & 1;
+    }
+
+    /**
+     * @return the key of the pseudo random bits of a watermark, from all of its properties
+     */
+    static long keyOf(Watermark watermark) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, String.valueOf(watermark.getContent()));
+        hash = hash(hash, watermark.getTitle());
+        hash = hash(hash, watermark.getAuthor());
+        hash = hash(hash, String.valueOf(watermark.getTopic()));
+        return mix(hash);
+    }
+
+    private static byte stampByte(long key, long position, byte b) {
+        return (byte) ((b & 0xFE) | bitAt(key, position));
+    }
+
+    /**
+     * FNV-1a over the utf-8 bytes of the value, followed by a separator so that no two sequences of values collide
+     */
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+                hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+            }
+        }
+        return (hash ^ 0xFF) * 0x100000001b3L;
+    }
+
+    /**
+     * The finalizer of splitmix64
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Document;
+
+/**
+ * The default {@link TicketJournal} that keeps nothing, so the tickets live as long as the application does
+ *
+ * @author gkaranikas
+ */
+public class NoOpTicketJournal implements TicketJournal {
+
+    @Override
+    public long created(int ticket, Document document) {
+        return 0;
+    }
+
+    @Override
+    public long completed(int ticket) {
+        return 0;
+    }
+
+    @Override
+    public long removed(int ticket) {
+        return 0;
+    }
+
+    @Override
+    public long expired(int ticket) {
+        return 0;
+    }
+
+    @Override
+    public void awaitDurable(long position) {
+    }
+
+    @Override
+    public void replay(TicketJournalVisitor visitor) {
+    }
+
+    @Override
+    public boolean snapshot(TicketSnapshotSource source) {
+        return false;
+    }
+}
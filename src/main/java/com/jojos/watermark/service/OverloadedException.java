@@ -0,0 +1,29 @@
+package com.jojos.watermark.service;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A request turned away by the {@link AdmissionLimiter} since its documents don't fit under the limit of the backlog
+ * of documents to watermark. It's a RejectedExecutionException like the one of a saturated executor, with a hint
+ * of when to retry.
+ *
+ * @author gkaranikas
+ */
+public class OverloadedException extends RejectedExecutionException {
+
+    private final long retryAfterSeconds;
+
+    public OverloadedException(long backlog, int documents, long limit, long retryAfterSeconds) {
+        super("A backlog of " + backlog + " documents leaves no room for " + documents + " more under the limit of " +
+                limit);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return how long the backlog is expected to take to drain below the limit, at least a second
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.jojos.watermark.service;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Logs at INFO (or WARN) at most once per interval, for the lines that would otherwise be written on every request. The
+ * messages in between are dropped before any of their arguments is formatted and only counted, and the next message
+ * that is logged tells how many were left out. Every call site keeps a log of its own, so a busy line doesn't
+ * silence the rest.
+ *
+ * Deciding whether to log takes a read of the clock and of a volatile, and a compare-and-set once per interval;
+ * nothing is allocated for the messages left out. With DEBUG enabled for the logger every message is logged.
+ *
+ * @author gkaranikas
+ */
+public final class RateLimitedLog {
+
+    private final Logger log;
+    private final long intervalNanos;
+    private final LongSupplier nanoClock;
+    private final AtomicLong nextNanos;
+    private final LongAdder suppressed = new LongAdder();
+
+    public RateLimitedLog(Logger log, long interval, TimeUnit unit) {
+        this(log, unit.toNanos(interval), System::nanoTime);
+    }
+
+    RateLimitedLog(Logger log, long intervalNanos, LongSupplier nanoClock) {
+        this.log = log;
+        this.intervalNanos = intervalNanos;
+        this.nanoClock = nanoClock;
+        this.nextNanos = new AtomicLong(nanoClock.getAsLong());
+    }
+
+    public void info(String format, Object arg) {
+        if (permit(log.isInfoEnabled())) {
+            write(false, format, arg);
+        }
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        if (permit(log.isInfoEnabled())) {
+            write(false, format, arg1, arg2);
+        }
+    }
+
+    public void info(String format, Object arg1, Object arg2, Object arg3) {
+        if (permit(log.isInfoEnabled())) {
+            write(false, format, arg1, arg2, arg3);
+        }
+    }
+
+    public void warn(String format, Object arg) {
+        if (permit(log.isWarnEnabled())) {
+            write(true, format, arg);
+        }
+    }
+
+    public void warn(String format, Object arg1, Object arg2) {
+        if (permit(log.isWarnEnabled())) {
+            write(true, format, arg1, arg2);
+        }
+    }
+
+    private boolean permit(boolean enabled) {
+        if (log.isDebugEnabled()) {
+            return true;
+        }
+        if (!enabled) {
+            return false;
+        }
+        long now = nanoClock.getAsLong();
+        long next = nextNanos.get();
+        if (now - next >= 0 && nextNanos.compareAndSet(next, now + intervalNanos)) {
+            return true;
+        }
+        suppressed.increment();
+        return false;
+    }
+
+    private void write(boolean warn, String format, Object... args) {
+        long skipped = suppressed.sumThenReset();
+        if (skipped != 0) {
+            Object[] withSkipped = new Object[args.length + 1];
+            System.arraycopy(args, 0, withSkipped, 0, args.length);
+            withSkipped[args.length] = skipped;
+            format += " ({} similar messages suppressed)";
+            args = withSkipped;
+        }
+        if (warn) {
+            log.warn(format, args);
+        } else {
+            log.info(format, args);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.jojos.watermark.service;
+
+import java.util.Objects;
+
+/**
+ * How the watermark tasks of a request are scheduled by the {@link WatermarkScheduler}: the client they are queued
+ * fairly against the other clients for, their priority class and how long they may wait for a thread.
+ *
+ * @author gkaranikas
+ */
+public final class Scheduling {
+
+    /**
+     * The deadline of the priority class, as configured
+     */
+    public static final long DEFAULT_DEADLINE = 0;
+
+    /**
+     * Wait for as long as it takes
+     */
+    public static final long NO_DEADLINE = -1;
+
+    private static final String ANONYMOUS = "";
+
+    private static final Scheduling INTERACTIVE = new Scheduling(ANONYMOUS, WatermarkPriority.INTERACTIVE, DEFAULT_DEADLINE);
+    private static final Scheduling BULK = new Scheduling(ANONYMOUS, WatermarkPriority.BULK, DEFAULT_DEADLINE);
+
+    private final String client;
+    private final WatermarkPriority priority;
+    private final long deadlineMillis;
+
+    /**
+     * @param client the id of the client, any string that tells it apart from the others
+     * @param deadlineMillis how long the tasks may be queued, DEFAULT_DEADLINE or NO_DEADLINE
+     */
+    public Scheduling(String client, WatermarkPriority priority, long deadlineMillis) {
+        if (deadlineMillis < NO_DEADLINE) {
+            throw new IllegalArgumentException("Invalid deadline " + deadlineMillis);
+        }
+        this.client = Objects.requireNonNull(client);
+        this.priority = Objects.requireNonNull(priority);
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * @return the scheduling of the requests that don't say, with the deadline of their priority
+     */
+    public static Scheduling of(WatermarkPriority priority) {
+        return priority == WatermarkPriority.INTERACTIVE ? INTERACTIVE : BULK;
+    }
+
+    public String getClient() {
+        return client;
+    }
+
+    public WatermarkPriority getPriority() {
+        return priority;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "Scheduling{" +
+                "client='" + client + '\'' +
+                ", priority=" + priority +
+                ", deadlineMillis=" + deadlineMillis +
+                '}';
+    }
+}
@@ -0,0 +1,109 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Document;
+
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * A {@link TicketStore} split into shards, one for the tickets of every shard of the {@link TicketIds}.
+ *
+ * A ticket is routed to its shard by its low bits, without any coordination, and stored there under its position
+ * among the tickets of the shard, so every shard sees tickets 1, 2, 3 and so on just like an unsharded store. The
+ * shards are thus updated (and grown) independently of each other.
+ *
+ * Only the tickets of this node (see {@link TicketIds#owns}) have a position in a shard. Any other ticket, e.g. one
+ * of another node of the {@link Cluster}, is never there, rather than read as the ticket of this node at the same
+ * position.
+ *
+ * @author gkaranikas
+ */
+class ShardedTicketStore implements TicketStore {
+
+    private final TicketIds ticketIds;
+    private final TicketStore[] shards;
+
+    /**
+     * @param ticketIds the ids the tickets are handed out from
+     * @param stores creates the store of every shard
+     */
+    ShardedTicketStore(TicketIds ticketIds, Supplier<? extends TicketStore> stores) {
+        this.ticketIds = ticketIds;
+        this.shards = new TicketStore[ticketIds.getShards()];
+        for (int shard = 0; shard < shards.length; shard++) {
+            shards[shard] = stores.get();
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(int ticket, Document document) {
+        checkOwned(ticket);
+        return shardOf(ticket).putIfAbsent(ticketIds.sequenceOf(ticket), document);
+    }
+
+    @Override
+    public Document put(int ticket, Document document) {
+        checkOwned(ticket);
+        return shardOf(ticket).put(ticketIds.sequenceOf(ticket), document);
+    }
+
+    @Override
+    public Document replace(int ticket, Document document) {
+        if (!ticketIds.owns(ticket)) {
+            return null;
+        }
+        return shardOf(ticket).replace(ticketIds.sequenceOf(ticket), document);
+    }
+
+    @Override
+    public Document get(int ticket) {
+        if (!ticketIds.owns(ticket)) {
+            return null;
+        }
+        return shardOf(ticket).get(ticketIds.sequenceOf(ticket));
+    }
+
+    @Override
+    public Document remove(int ticket) {
+        if (!ticketIds.owns(ticket)) {
+            return null;
+        }
+        return shardOf(ticket).remove(ticketIds.sequenceOf(ticket));
+    }
+
+    @Override
+    public Document removeIfNotWatermarked(int ticket) {
+        if (!ticketIds.owns(ticket)) {
+            return null;
+        }
+        return shardOf(ticket).removeIfNotWatermarked(ticketIds.sequenceOf(ticket));
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (TicketStore shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void forEach(ObjIntConsumer<Document> consumer) {
+        for (int shard = 0; shard < shards.length; shard++) {
+            int index = shard;
+            shards[shard].forEach((document, sequence) -> consumer.accept(document, ticketIds.ticket(index, sequence)));
+        }
+    }
+
+    private void checkOwned(int ticket) {
+        if (!ticketIds.owns(ticket)) {
+            throw new IllegalArgumentException("Ticket " + ticket + " isn't handed out by this node");
+        }
+    }
+
+    private TicketStore shardOf(int ticket) {
+        return shards[ticketIds.shardOf(ticket)];
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.jojos.watermark.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes a snapshot of the {@link WatermarkStore} every watermark.journal.snapshot-interval-seconds on a background
+ * thread of its own. A snapshot is only written if something has been journaled since the previous one, so an idle
+ * store costs nothing.
+ *
+ * @author gkaranikas
+ */
+@Service
+public class SnapshotScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotScheduler.class);
+
+    private final WatermarkStore store;
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public SnapshotScheduler(WatermarkStore store,
+                             @Value("${watermark.journal.snapshot-interval-seconds:300}") long intervalSeconds) {
+        this.store = store;
+        if (intervalSeconds > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "watermark-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::snapshot, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void snapshot() {
+        try {
+            store.snapshot();
+        } catch (RuntimeException e) {
+            // keep the schedule going, the journal is still there to recover from
+            log.error("Failed to take a snapshot of the watermark store", e);
+        }
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.jojos.watermark.service;
+
+/**
+ * A handle to a listener registered for the completion of a ticket
+ *
+ * @author gkaranikas
+ */
+@FunctionalInterface
+public interface Subscription {
+
+    /**
+     * Stop listening. Has no effect if the listener has already been notified.
+     */
+    void cancel();
+
+}
@@ -0,0 +1,34 @@
+package com.jojos.watermark.service;
+
+/**
+ * The ticket a document has been correlated with, and whether the ticket was created for it or
+ * an already existing one was reused because the same document had been received before.
+ *
+ * @author gkaranikas
+ */
+public final class TicketAssignment {
+
+    private final int ticket;
+    private final boolean created;
+
+    public TicketAssignment(int ticket, boolean created) {
+        this.ticket = ticket;
+        this.created = created;
+    }
+
+    public int getTicket() {
+        return ticket;
+    }
+
+    public boolean isCreated() {
+        return created;
+    }
+
+    @Override
+    public String toString() {
+        return "TicketAssignment{" +
+                "ticket=" + ticket +
+                ", created=" + created +
+                '}';
+    }
+}
@@ -0,0 +1,84 @@
+package com.jojos.watermark.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * A thread safe set of tickets taking a single bit per ticket. Like the {@link CompactTicketStore} it relies on the
+ * tickets being handed out sequentially: the bits live in pages that are only allocated once a ticket of theirs is set.
+ *
+ * @author gkaranikas
+ */
+final class TicketBitSet {
+
+    private static final int PAGE_BITS = 16;
+    private static final int WORDS_PER_PAGE = (1 << PAGE_BITS) / Long.SIZE;
+    private static final int PAGES = 1 << (Integer.SIZE - 1 - PAGE_BITS);
+
+    private final AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<>(PAGES);
+
+    /**
+     * @return true if the ticket was not in the set before
+     * @throws IllegalArgumentException if the ticket is negative
+     */
+    boolean set(int ticket) {
+        if (ticket < 0) {
+            throw new IllegalArgumentException("Invalid ticket " + ticket);
+        }
+        AtomicLongArray page = pages.get(ticket >>> PAGE_BITS);
+        if (page == null) {
+            pages.compareAndSet(ticket >>> PAGE_BITS, null, new AtomicLongArray(WORDS_PER_PAGE));
+            page = pages.get(ticket >>> PAGE_BITS);
+        }
+        int word = (ticket >>> 6) & (WORDS_PER_PAGE - 1);
+        long bit = 1L << ticket;
+        long previous = page.getAndAccumulate(word, bit, (value, mask) -> value | mask);
+        return (previous & bit) == 0;
+    }
+
+    /**
+     * @return true if the ticket was in the set before
+     */
+    boolean clear(int ticket) {
+        if (ticket < 0) {
+            return false;
+        }
+        AtomicLongArray page = pages.get(ticket >>> PAGE_BITS);
+        if (page == null) {
+            return false;
+        }
+        long bit = 1L << ticket;
+        long previous = page.getAndAccumulate((ticket >>> 6) & (WORDS_PER_PAGE - 1), bit, (value, mask) -> value & ~mask);
+        return (previous & bit) != 0;
+    }
+
+    boolean get(int ticket) {
+        if (ticket < 0) {
+            return false;
+        }
+        AtomicLongArray page = pages.get(ticket >>> PAGE_BITS);
+        return page != null && (page.get((ticket >>> 6) & (WORDS_PER_PAGE - 1)) & (1L << ticket)) != 0;
+    }
+
+    /**
+     * Go through the tickets of the set in ascending order
+     */
+    void forEach(IntConsumer consumer) {
+        for (int pageIndex = 0; pageIndex < PAGES; pageIndex++) {
+            AtomicLongArray page = pages.get(pageIndex);
+            if (page == null) {
+                continue;
+            }
+            for (int word = 0; word < WORDS_PER_PAGE; word++) {
+                long bits = page.get(word);
+                while (bits != 0) {
+                    int bit = Long.numberOfTrailingZeros(bits);
+                    consumer.accept((pageIndex << PAGE_BITS) | (word << 6) | bit);
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.jojos.watermark.service;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Hands out the ticket ids from a number of shards, each with a counter of its own, so that threads creating tickets
+ * at the same time don't all contend on a single counter.
+ *
+ * The shard is encoded in the low bits of the ticket and the node of the {@link Cluster} right above it: the n-th
+ * ticket of shard s on node i is (n - 1) * shards * nodes + i * shards + s + 1. The tickets of a shard are thus a
+ * stride apart and, as long as the shards hand out tickets at about the same pace, the tickets of all the shards of all
+ * the nodes together stay dense, which keeps the stores (and bit sets) indexed by ticket compact, while no two shards
+ * (or nodes) ever hand out the same ticket and any node can tell the node of a ticket. With a single shard on a single
+ * node the tickets are simply 1, 2, 3 and so on.
+ *
+ * The tickets are positive ints, so a shard runs out of them after about 2^31 / stride tickets, sooner if it has been
+ * handed out more than its share (e.g. by large batches). From then on it fails rather than wrap around.
+ *
+ * A thread always takes its tickets from the same shard. The counters are a cache line apart from each other.
+ *
+ * @author gkaranikas
+ */
+final class TicketIds {
+
+    // ints per cache line, so that every counter has a line of its own
+    private static final int PADDING = 16;
+
+    private final int shardBits;
+    private final int mask;
+    private final int node;
+    private final int nodes;
+    private final int stride;
+    private final AtomicIntegerArray counters;
+
+    /**
+     * @param shards the number of shards, a power of two
+     */
+    TicketIds(int shards) {
+        this(shards, 0, 1);
+    }
+
+    /**
+     * @param shards the number of shards of every node, a power of two
+     * @param node the node the tickets are handed out by
+     * @param nodes the number of nodes
+     */
+    TicketIds(int shards, int node, int nodes) {
+        if (shards < 1 || Integer.bitCount(shards) != 1) {
+            throw new IllegalArgumentException("The number of shards must be a power of two, not " + shards);
+        }
+        if (node < 0 || node >= nodes) {
+            throw new IllegalArgumentException("There is no node " + node + " among " + nodes + " nodes");
+        }
+        this.shardBits = Integer.numberOfTrailingZeros(shards);
+        this.mask = shards - 1;
+        this.node = node;
+        this.nodes = nodes;
+        this.stride = shards * nodes;
+        this.counters = new AtomicIntegerArray(shards * PADDING);
+    }
+
+    int getShards() {
+        return mask + 1;
+    }
+
+    /**
+     * @return how far apart the tickets of a shard are
+     */
+    int getStride() {
+        return stride;
+    }
+
+    /**
+     * @return a new ticket from the shard of the calling thread
+     * @throws IllegalStateException if the shard has run out of tickets
+     */
+    int next() {
+        return reserve(1);
+    }
+
+    /**
+     * Reserve a number of tickets at once from the shard of the calling thread. The tickets are the first one
+     * returned and the ones following it #getStride() apart.
+     *
+     * @param count the number of tickets to reserve
+     * @return the first of the tickets
+     * @throws IllegalStateException if the shard doesn't have that many tickets left, in which case none is reserved
+     */
+    int reserve(int count) {
+        int shard = currentShard();
+        int index = shard * PADDING;
+        while (true) {
+            int sequence = counters.get(index);
+            if (sequence > maxSequence(shard) - count) {
+                throw new IllegalStateException("Shard " + shard + " has run out of tickets, it can't hand out " +
+                        count + " more after ticket " + (sequence == 0 ? 0 : ticket(shard, sequence)));
+            }
+            if (counters.compareAndSet(index, sequence, sequence + count)) {
+                return ticket(shard, sequence + 1);
+            }
+        }
+    }
+
+    /**
+     * Make sure that a ticket (e.g. one recovered from a journal) is never handed out again by its shard
+     */
+    void advancePast(int ticket) {
+        if (nodeOf(ticket) == node) {
+            advance(shardOf(ticket), sequenceOf(ticket));
+        } else {
+            advanceAllPast(ticket);
+        }
+    }
+
+    /**
+     * Make sure that no shard ever hands out a ticket up to the given one, whether it was handed out before or not
+     */
+    void advanceAllPast(int ticket) {
+        for (int shard = 0; shard <= mask; shard++) {
+            // the tickets of the shard up to the given one
+            int first = ticket(shard, 1);
+            advance(shard, ticket >= first ? (ticket - first) / stride + 1 : 0);
+        }
+    }
+
+    /**
+     * @return the highest ticket handed out so far, or 0 if there is none
+     */
+    int last() {
+        int last = 0;
+        for (int shard = 0; shard <= mask; shard++) {
+            int sequence = counters.get(shard * PADDING);
+            if (sequence > 0) {
+                last = Math.max(last, ticket(shard, sequence));
+            }
+        }
+        return last;
+    }
+
+    int shardOf(int ticket) {
+        return (ticket - 1) & mask;
+    }
+
+    int nodeOf(int ticket) {
+        return ((ticket - 1) >>> shardBits) % nodes;
+    }
+
+    /**
+     * @return true if the ticket is one this node hands out, whether it has been handed out yet or not
+     */
+    boolean owns(int ticket) {
+        return ticket > 0 && nodeOf(ticket) == node;
+    }
+
+    /**
+     * @return the position of the ticket among the tickets of its shard, starting from 1
+     */
+    int sequenceOf(int ticket) {
+        // unsigned, so that there is no position of the tickets below 1 either
+        return Integer.divideUnsigned(ticket - 1, stride) + 1;
+    }
+
+    /**
+     * @return the ticket at the given position among the tickets of a shard of this node
+     */
+    int ticket(int shard, int sequence) {
+        return (sequence - 1) * stride + (node << shardBits) + shard + 1;
+    }
+
+    /**
+     * @return the position of the last positive ticket of a shard of this node
+     */
+    private int maxSequence(int shard) {
+        return (Integer.MAX_VALUE - 1 - (node << shardBits) - shard) / stride + 1;
+    }
+
+    private int currentShard() {
+        return (int) Thread.currentThread().threadId() & mask;
+    }
+
+    private void advance(int shard, int sequence) {
+        counters.accumulateAndGet(shard * PADDING, sequence, Math::max);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Document;
+
+/**
+ * A write-ahead journal of everything that happens to the tickets of the {@link WatermarkStore}, so that the store
+ * can be rebuilt after a restart.
+ *
+ * The journal only grows until a snapshot is taken. Appending never blocks on the disk. Every append returns the position of the journal right after the record,
+ * and whoever needs the record to be durable before going on waits for that position with #awaitDurable.
+ *
+ * @author gkaranikas
+ */
+public interface TicketJournal {
+
+    /**
+     * Record that a ticket has been created for a document
+     *
+     * @return the position of the journal after the record
+     */
+    long created(int ticket, Document document);
+
+    /**
+     * Record that the document of a ticket has been watermarked
+     *
+     * @return the position of the journal after the record
+     */
+    long completed(int ticket);
+
+    /**
+     * Record that a ticket has been removed or cancelled
+     *
+     * @return the position of the journal after the record
+     */
+    long removed(int ticket);
+
+    /**
+     * Record that a completed ticket has been evicted
+     *
+     * @return the position of the journal after the record
+     */
+    long expired(int ticket);
+
+    /**
+     * Wait until every record up to the given position is durable
+     *
+     * @param position a position returned by one of the appends
+     */
+    void awaitDurable(long position);
+
+    /**
+     * Go through every record of the journal in the order they were appended. This has to be done once, before
+     * anything is appended.
+     *
+     * @param visitor receives the records
+     */
+    void replay(TicketJournalVisitor visitor);
+
+    /**
+     * Take a snapshot of the tickets and drop the part of the journal that it makes redundant, so that a replay
+     * starts from the snapshot. Appending goes on while the snapshot is written.
+     *
+     * @param source the tickets to write in the snapshot
+     * @return true if a snapshot was taken, false if nothing has been appended since the last one
+     */
+    boolean snapshot(TicketSnapshotSource source);
+
+}
@@ -0,0 +1,34 @@
+package com.jojos.watermark.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Picks the {@link TicketJournal} behind the {@link WatermarkStore} based on watermark.journal.enabled
+ *
+ * @author gkaranikas
+ */
+@Configuration
+public class TicketJournalConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(name = "watermark.journal.enabled", havingValue = "false", matchIfMissing = true)
+    public TicketJournal noOpTicketJournal() {
+        return new NoOpTicketJournal();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "watermark.journal.enabled", havingValue = "true")
+    public TicketJournal fileTicketJournal(@Value("${watermark.journal.dir:journal}") String directory,
+                                           @Value("${watermark.journal.fsync:true}") boolean fsync,
+                                           @Value("${watermark.journal.buffer-size-bytes:1048576}") int bufferSize,
+                                           @Value("${watermark.journal.segment-size-bytes:67108864}") long segmentSize) throws IOException {
+        return new FileTicketJournal(Paths.get(directory), fsync, bufferSize, segmentSize);
+    }
+
+}
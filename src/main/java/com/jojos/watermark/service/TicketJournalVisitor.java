@@ -0,0 +1,25 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Document;
+
+/**
+ * Receives the records of a {@link TicketJournal} while it's replayed
+ *
+ * @author gkaranikas
+ */
+public interface TicketJournalVisitor {
+
+    /**
+     * The last ticket id handed out when a snapshot was taken. Tickets up to that one may have been removed since.
+     */
+    void lastTicket(int ticket);
+
+    void created(int ticket, Document document);
+
+    void completed(int ticket);
+
+    void removed(int ticket);
+
+    void expired(int ticket);
+
+}
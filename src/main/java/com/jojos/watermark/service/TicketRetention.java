@@ -0,0 +1,175 @@
+package com.jojos.watermark.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides how long the completed tickets are kept in the {@link WatermarkStore}. Pending tickets are never evicted.
+ *
+ * <ul>
+ *     <li>watermark.retention.uncollected-ttl-seconds: a completed ticket whose watermark has never been retrieved is
+ *     evicted that long after it was completed</li>
+ *     <li>watermark.retention.collected-ttl-seconds: a ticket is evicted that long after its watermark was first
+ *     retrieved</li>
+ *     <li>watermark.retention.max-tickets: whenever the store holds more tickets, the completed tickets are evicted in
+ *     the order they were completed until it doesn't</li>
+ * </ul>
+ * Zero means no limit. When all three are zero nothing is tracked at all.
+ *
+ * The tickets are tracked in two queues, one in the order of completion and one in the order of the first retrieval.
+ * The tickets of a queue all live for the same time, so the expired ones are always at its head and a sweep only
+ * touches the tickets it evicts. The second queue, and the bits of the tickets that have been retrieved, are only
+ * kept when the time since the retrieval or the completion counts, and a ticket is let go of once it's evicted, so
+ * that what is tracked stays bounded by the tickets in the store. The evictions are exported under the
+ * watermark.retention.evicted metric.
+ *
+ * @author gkaranikas
+ */
+@Component
+public class TicketRetention implements MeterBinder {
+
+    private final long uncollectedTtlMillis;
+    private final long collectedTtlMillis;
+    private final int maxTickets;
+    private final LongSupplier clock;
+
+    private final ExpiryQueue completedTickets = new ExpiryQueue();
+    private final ExpiryQueue collectedTickets = new ExpiryQueue();
+    private final TicketBitSet collected = new TicketBitSet();
+
+    private final LongAdder evictedUncollected = new LongAdder();
+    private final LongAdder evictedCollected = new LongAdder();
+    private final LongAdder evictedOverSize = new LongAdder();
+
+    @Autowired
+    public TicketRetention(@Value("${watermark.retention.uncollected-ttl-seconds:0}") long uncollectedTtlSeconds,
+                           @Value("${watermark.retention.collected-ttl-seconds:0}") long collectedTtlSeconds,
+                           @Value("${watermark.retention.max-tickets:0}") int maxTickets) {
+        this(TimeUnit.SECONDS.toMillis(uncollectedTtlSeconds), TimeUnit.SECONDS.toMillis(collectedTtlSeconds),
+                maxTickets, System::currentTimeMillis);
+    }
+
+    TicketRetention(long uncollectedTtlMillis, long collectedTtlMillis, int maxTickets, LongSupplier clock) {
+        this.uncollectedTtlMillis = uncollectedTtlMillis;
+        this.collectedTtlMillis = collectedTtlMillis;
+        this.maxTickets = maxTickets;
+        this.clock = clock;
+    }
+
+    /**
+     * @return a retention that keeps every ticket for ever
+     */
+    public static TicketRetention unbounded() {
+        return new TicketRetention(0, 0, 0);
+    }
+
+    /**
+     * @return whether tickets are ever evicted
+     */
+    public boolean isBounded() {
+        return uncollectedTtlMillis > 0 || collectedTtlMillis > 0 || maxTickets > 0;
+    }
+
+    /**
+     * @return the number of entries of the queues of tickets to evict
+     */
+    long getTracked() {
+        return completedTickets.size() + collectedTickets.size();
+    }
+
+    /**
+     * Start tracking a ticket that has just been completed
+     */
+    void completed(int ticket) {
+        if (uncollectedTtlMillis > 0 || maxTickets > 0) {
+            completedTickets.add(ticket, clock.getAsLong());
+        }
+    }
+
+    /**
+     * Note that the watermark of a completed ticket has been retrieved, only the first time counts
+     */
+    void collected(int ticket) {
+        if ((uncollectedTtlMillis > 0 || collectedTtlMillis > 0) && collected.set(ticket) && collectedTtlMillis > 0) {
+            collectedTickets.add(ticket, clock.getAsLong());
+        }
+    }
+
+    /**
+     * Evict the tickets that are due. Only one sweep must run at a time.
+     *
+     * @param size the number of tickets in the store
+     * @param evictor evicts a completed ticket, false if it was already gone
+     * @return the number of tickets evicted
+     */
+    int sweep(IntSupplier size, IntPredicate evictor) {
+        long now = clock.getAsLong();
+        int evicted = 0;
+        if (collectedTtlMillis > 0) {
+            while (!collectedTickets.isEmpty() && now - collectedTickets.peekTime() >= collectedTtlMillis) {
+                int ticket = collectedTickets.poll();
+                collected.clear(ticket);
+                if (evictor.test(ticket)) {
+                    evictedCollected.increment();
+                    evicted++;
+                }
+            }
+        }
+        if (uncollectedTtlMillis > 0) {
+            while (!completedTickets.isEmpty() && now - completedTickets.peekTime() >= uncollectedTtlMillis) {
+                long completedTime = completedTickets.peekTime();
+                int ticket = completedTickets.poll();
+                if (!collected.get(ticket)) {
+                    if (evictor.test(ticket)) {
+                        evictedUncollected.increment();
+                        evicted++;
+                    }
+                } else if (collectedTtlMillis == 0 && maxTickets > 0) {
+                    // a collected ticket never expires then, but it's still among the oldest to go over max-tickets
+                    collectedTickets.add(ticket, completedTime);
+                }
+                // otherwise it's in the other queue and expires from there, or it's kept for ever
+            }
+        }
+        if (maxTickets > 0) {
+            while (size.getAsInt() > maxTickets) {
+                ExpiryQueue oldest = collectedTickets.isEmpty() || !completedTickets.isEmpty() &&
+                        completedTickets.peekTime() <= collectedTickets.peekTime() ? completedTickets : collectedTickets;
+                if (oldest.isEmpty()) {
+                    // all that is left is pending
+                    break;
+                }
+                int ticket = oldest.poll();
+                collected.clear(ticket);
+                if (evictor.test(ticket)) {
+                    evictedOverSize.increment();
+                    evicted++;
+                }
+            }
+        }
+        return evicted;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("watermark.retention.evicted", evictedUncollected, LongAdder::sum)
+                .tag("reason", "uncollected-ttl").register(registry);
+        FunctionCounter.builder("watermark.retention.evicted", evictedCollected, LongAdder::sum)
+                .tag("reason", "collected-ttl").register(registry);
+        FunctionCounter.builder("watermark.retention.evicted", evictedOverSize, LongAdder::sum)
+                .tag("reason", "max-tickets").register(registry);
+        Gauge.builder("watermark.retention.tracked", this, TicketRetention::getTracked).register(registry);
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Document;
+
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * What a {@link TicketJournal} needs to know in order to write a snapshot of the tickets
+ *
+ * @author gkaranikas
+ */
+public interface TicketSnapshotSource {
+
+    /**
+     * @return the last ticket id handed out so far
+     */
+    int getLastTicket();
+
+    /**
+     * Go through the documents of the tickets. Writers are not stopped meanwhile, so whatever happens to a ticket
+     * during the iteration may or may not be seen.
+     *
+     * @param consumer receives every document along with its ticket
+     */
+    void forEachTicket(ObjIntConsumer<Document> consumer);
+
+    /**
+     * Go through the tickets that have expired, in ascending order
+     *
+     * @param consumer receives every expired ticket
+     */
+    void forEachExpiredTicket(IntConsumer consumer);
+
+}
@@ -0,0 +1,21 @@
+package com.jojos.watermark.service;
+
+/**
+ * The state of the watermark process for a ticket
+ *
+ * @author gkaranikas
+ */
+public enum TicketStatus {
+
+    // the document has been watermarked and the watermark can be retrieved
+    COMPLETED,
+    // the document has not been watermarked yet
+    PENDING,
+    // no such ticket
+    UNKNOWN,
+    // the ticket was completed but it has been evicted since, see TicketRetention
+    EXPIRED,
+    // the ticket belongs to another node of the Cluster, which has to be asked for it instead
+    NOT_LOCAL
+
+}
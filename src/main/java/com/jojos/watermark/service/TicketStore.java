@@ -0,0 +1,76 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Document;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The storage behind the {@link WatermarkStore} correlating tickets with documents.
+ *
+ * Implementations must be thread safe and every single operation must be atomic for a given ticket.
+ *
+ * @author gkaranikas
+ */
+public interface TicketStore {
+
+    /**
+     * Associate a document with a ticket unless the ticket is already associated with one
+     *
+     * @param ticket the ticket id
+     * @param document the document to store
+     * @return true if the document was stored, false if the ticket was already in use
+     */
+    boolean putIfAbsent(int ticket, Document document);
+
+    /**
+     * Associate a document with a ticket replacing the previous document (if any)
+     *
+     * @param ticket the ticket id
+     * @param document the document to store
+     * @return the document previously associated with the ticket or null if there was none
+     */
+    Document put(int ticket, Document document);
+
+    /**
+     * Replace the document associated with a ticket, only if the ticket is associated with one
+     *
+     * @param ticket the ticket id
+     * @param document the document to store
+     * @return the document previously associated with the ticket or null if there was none (and nothing was stored)
+     */
+    Document replace(int ticket, Document document);
+
+    /**
+     * @param ticket the ticket id
+     * @return the document associated with the ticket or null if there is none
+     */
+    Document get(int ticket);
+
+    /**
+     * @param ticket the ticket id
+     * @return the document that was associated with the ticket or null if there was none
+     */
+    Document remove(int ticket);
+
+    /**
+     * Remove the document associated with a ticket, only if it hasn't been watermarked
+     *
+     * @param ticket the ticket id
+     * @return the document that was removed or null if there was none or it was already watermarked
+     */
+    Document removeIfNotWatermarked(int ticket);
+
+    /**
+     * @return the number of tickets currently stored
+     */
+    int size();
+
+    /**
+     * Go through all the tickets currently stored. The iteration is weakly consistent, like the one of a
+     * concurrent map: it never fails because of concurrent updates, which may or may not be seen.
+     *
+     * @param consumer receives every document along with its ticket
+     */
+    void forEach(ObjIntConsumer<Document> consumer);
+
+}
@@ -0,0 +1,33 @@
+package com.jojos.watermark.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Scope;
+
+/**
+ * Picks the {@link TicketStore} implementation behind the {@link WatermarkStore} based on watermark.store.type.
+ * The stores are prototypes: the {@link WatermarkStore} takes one for each of its shards.
+ *
+ * @author gkaranikas
+ */
+@Configuration
+public class TicketStoreConfiguration {
+
+    @Bean
+    @Scope("prototype")
+    @ConditionalOnProperty(name = "watermark.store.type", havingValue = "heap", matchIfMissing = true)
+    public TicketStore heapTicketStore() {
+        return new HeapTicketStore();
+    }
+
+    @Bean
+    @Scope("prototype")
+    @ConditionalOnProperty(name = "watermark.store.type", havingValue = "compact")
+    public TicketStore compactTicketStore(@Value("${watermark.store.off-heap:false}") boolean offHeap,
+                                          @Value("${watermark.store.slab-size-bytes:16777216}") int slabSize) {
+        return new CompactTicketStore(offHeap, slabSize);
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Watermark;
+
+/**
+ * Receives the outcome of looking up tickets in the {@link WatermarkStore}, one ticket at a time
+ *
+ * @author gkaranikas
+ */
+@FunctionalInterface
+public interface TicketVisitor {
+
+    /**
+     * @param ticket the ticket that was looked up
+     * @param status the status of the ticket
+     * @param watermark the watermark of the ticket or null if the status is anything but {@link TicketStatus#COMPLETED}
+     */
+    void visit(int ticket, TicketStatus status, Watermark watermark);
+
+}
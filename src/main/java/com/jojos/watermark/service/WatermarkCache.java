@@ -0,0 +1,65 @@
+package com.jojos.watermark.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Watermark;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * A bounded cache of the watermarks of the documents seen lately, keyed by their {@link DocumentKey}.
+ *
+ * The same document sent over and over (e.g. a popular title, with deduplication off or after its ticket expired)
+ * gets the very same {@link Watermark} instance, and the json of the watermark is serialized only once no matter how
+ * often it's retrieved. At most watermark.cache.max-size watermarks are cached. The admission policy (W-TinyLFU)
+ * keeps the frequently requested documents in, so a burst of one-off documents doesn't push them out.
+ *
+ * The hits, misses and evictions are exported under the cache.* metrics with cache=watermarks.
+ *
+ * @author gkaranikas
+ */
+@Service
+public class WatermarkCache implements MeterBinder {
+
+    private final Cache<DocumentKey, CachedWatermark> cache;
+    private final ObjectWriter writer;
+
+    @Autowired
+    public WatermarkCache(ObjectMapper objectMapper, @Value("${watermark.cache.max-size:10000}") long maxSize) {
+        this.writer = objectMapper.writerFor(Watermark.class);
+        this.cache = Caffeine.newBuilder().maximumSize(maxSize).recordStats().build();
+    }
+
+    /**
+     * Get the watermark of a document, creating and serializing it if it's not cached
+     *
+     * @param document the document, watermarked or not
+     * @return the watermark of the document along with its json
+     */
+    public CachedWatermark get(Document document) {
+        return cache.get(DocumentKey.of(document), key -> create(document));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "watermarks");
+    }
+
+    private CachedWatermark create(Document document) {
+        Watermark watermark = document.getWatermark().orElseGet(() -> Watermark.createFor(document));
+        try {
+            return new CachedWatermark(watermark, writer.writeValueAsBytes(watermark));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize the watermark of " + document, e);
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Watermark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Stamps a watermark into the content of a document, which is the real work of a watermark task.
+ *
+ * An engine stamps any range of the content on its own, given where the range starts in the content, so that a large
+ * content can be stamped in chunks in parallel (see {@link ContentWatermarker}) and a stream a buffer at a time.
+ * The watermarked content is as long as the content. An engine is shared by all the watermark tasks, so it has to be
+ * thread safe. Declaring a bean of another engine takes the place of the {@link LsbWatermarkEngine}.
+ *
+ * @author gkaranikas
+ */
+public interface WatermarkEngine {
+
+    int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Stamp a range of the content
+     *
+     * @param watermark the watermark to stamp
+     * @param position where the range starts in the content
+     * @param content the range, from its position up to its limit, which are consumed
+     * @param watermarked receives the stamped range at its position, with at least as many bytes remaining
+     */
+    void stamp(Watermark watermark, long position, ByteBuffer content, ByteBuffer watermarked);
+
+    /**
+     * Stamp a whole content, a buffer at a time
+     *
+     * @return the number of bytes stamped
+     */
+    default long stamp(Watermark watermark, InputStream content, OutputStream watermarked) throws IOException {
+        byte[] in = new byte[STREAM_BUFFER_SIZE];
+        byte[] out = new byte[STREAM_BUFFER_SIZE];
+        long position = 0;
+        int read;
+        while ((read = content.read(in)) >= 0) {
+            stamp(watermark, position, ByteBuffer.wrap(in, 0, read), ByteBuffer.wrap(out));
+            watermarked.write(out, 0, read);
+            position += read;
+        }
+        return position;
+    }
+
+}
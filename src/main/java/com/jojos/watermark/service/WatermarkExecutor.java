@@ -0,0 +1,163 @@
+package com.jojos.watermark.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The one and only executor that performs the (time-consuming) watermark tasks.
+ *
+ * By default this is a pool of platform threads which is bounded both in threads and in the number of tasks that can
+ * wait for a thread. When both are exhausted the task is rejected with a {@link RejectedExecutionException} instead of
+ * piling up in memory. The waiting tasks are taken in the order the {@link WatermarkScheduler} gives them, see
+ * {@link WatermarkQueue}, rather than the order they came.
+ *
+ * When virtual threads are enabled (spring.threads.virtual.enabled) every task runs on its own virtual thread instead,
+ * so there is no pool to size. The number of outstanding tasks is still bounded so that the heap is not the limit.
+ *
+ * On shutdown of the application context the already accepted tasks are given some time to drain.
+ * The state of the executor is exported under the watermark.executor.* metrics.
+ *
+ * @author gkaranikas
+ */
+@Service
+public class WatermarkExecutor implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(WatermarkExecutor.class);
+
+    private final ExecutorService executor;
+    // only one of the two is used, depending on whether we run on platform or virtual threads
+    private final ThreadPoolExecutor pool;
+    private final WatermarkQueue queue;
+    private final Semaphore outstanding;
+    private final int maxOutstanding;
+    private final LongAdder completed = new LongAdder();
+    private final long shutdownTimeoutSeconds;
+
+    @Autowired
+    public WatermarkExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                             @Value("${watermark.executor.core-threads:5}") int coreThreads,
+                             @Value("${watermark.executor.max-threads:5}") int maxThreads,
+                             @Value("${watermark.executor.queue-capacity:10000}") int queueCapacity,
+                             @Value("${watermark.executor.virtual-max-outstanding:500000}") int maxOutstanding,
+                             @Value("${watermark.executor.shutdown-timeout-seconds:30}") long shutdownTimeoutSeconds) {
+        if (virtualThreads) {
+            this.pool = null;
+            this.queue = null;
+            this.outstanding = new Semaphore(maxOutstanding);
+            this.maxOutstanding = maxOutstanding;
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("watermark-", 1).factory());
+            log.info("Watermark executor started on virtual threads with at most {} outstanding tasks", maxOutstanding);
+        } else {
+            this.queue = new WatermarkQueue(queueCapacity);
+            this.pool = new ThreadPoolExecutor(coreThreads, Math.max(coreThreads, maxThreads),
+                    60L, TimeUnit.SECONDS,
+                    queue,
+                    new WatermarkThreadFactory(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            this.outstanding = null;
+            this.maxOutstanding = 0;
+            this.executor = pool;
+            log.info("Watermark executor started with {} core threads, {} max threads and a queue of {}",
+                    coreThreads, pool.getMaximumPoolSize(), queueCapacity);
+        }
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    /**
+     * Queue a watermark task for execution
+     *
+     * @param task the task to execute, as handed out by WatermarkScheduler#schedule
+     * @throws RejectedExecutionException if the executor is saturated or shutting down
+     */
+    public void execute(Runnable task) {
+        if (pool != null) {
+            pool.execute(task);
+            return;
+        }
+        if (!outstanding.tryAcquire()) {
+            throw new RejectedExecutionException("Too many outstanding watermark tasks");
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    completed.increment();
+                    outstanding.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            outstanding.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Stop accepting new tasks and wait for the queued ones to finish
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+                List<Runnable> dropped = executor.shutdownNow();
+                log.warn("Watermark executor didn't drain within {} seconds, dropping {} queued tasks",
+                        shutdownTimeoutSeconds, dropped.size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (pool != null) {
+            Gauge.builder("watermark.executor.queue.depth", pool, p -> p.getQueue().size()).register(registry);
+            Gauge.builder("watermark.executor.queue.remaining", pool, p -> p.getQueue().remainingCapacity()).register(registry);
+            Gauge.builder("watermark.executor.threads.active", pool, ThreadPoolExecutor::getActiveCount).register(registry);
+            Gauge.builder("watermark.executor.threads.pool", pool, ThreadPoolExecutor::getPoolSize).register(registry);
+            FunctionCounter.builder("watermark.executor.tasks.completed", pool, ThreadPoolExecutor::getCompletedTaskCount).register(registry);
+            for (WatermarkPriority priority : WatermarkPriority.values()) {
+                Gauge.builder("watermark.scheduler.queued", queue, q -> q.size(priority)).
+                        tag("priority", priority.name().toLowerCase(Locale.ROOT)).register(registry);
+            }
+            Gauge.builder("watermark.scheduler.flows", queue, WatermarkQueue::flows).register(registry);
+        } else {
+            Gauge.builder("watermark.executor.tasks.outstanding", outstanding,
+                    s -> maxOutstanding - s.availablePermits()).register(registry);
+            FunctionCounter.builder("watermark.executor.tasks.completed", completed, LongAdder::sum).register(registry);
+        }
+    }
+
+    private static class WatermarkThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadIds = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "watermark-" + threadIds.incrementAndGet());
+            thread.setDaemon(false);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Watermark;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The handle of a document submitted for watermarking through {@link WatermarkService#submitWatermarkFor}.
+ *
+ * Next to the ticket it carries a future of the watermark that can be composed, chained or timed out without
+ * blocking, and the time spent in every stage of the pipeline:
+ * <ul>
+ *     <li>store: storing the document and correlating a ticket with it</li>
+ *     <li>queued: waiting in the executor for a thread to pick up the watermark task</li>
+ *     <li>watermark: creating the watermark</li>
+ *     <li>persist: storing the watermarked document and notifying whoever waits for it</li>
+ * </ul>
+ * The last three stages are only there when the ticket was created for the document. A reused ticket has been
+ * (or is being) watermarked on behalf of an earlier request, so they stay zero.
+ *
+ * The future completes with a {@link CancellationException} if the ticket is cancelled or it doesn't exist any more.
+ *
+ * @author gkaranikas
+ */
+public final class WatermarkJob {
+
+    private final int ticket;
+    private final boolean created;
+    private final long storeNanos;
+    private final long submittedNanos = System.nanoTime();
+    private final CompletableFuture<Watermark> watermark = new CompletableFuture<>();
+
+    private volatile long queuedNanos;
+    private volatile long watermarkNanos;
+    private volatile long persistNanos;
+
+    WatermarkJob(int ticket, boolean created, long storeNanos) {
+        this.ticket = ticket;
+        this.created = created;
+        this.storeNanos = storeNanos;
+    }
+
+    public int getTicket() {
+        return ticket;
+    }
+
+    /**
+     * @return whether the ticket was created for the document, see {@link TicketAssignment#isCreated()}
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    /**
+     * @return the future of the watermark. Cancelling it cancels the ticket as well, if it was created for the document.
+     */
+    public CompletableFuture<Watermark> getWatermark() {
+        return watermark;
+    }
+
+    public long getStoreNanos() {
+        return storeNanos;
+    }
+
+    public long getQueuedNanos() {
+        return queuedNanos;
+    }
+
+    public long getWatermarkNanos() {
+        return watermarkNanos;
+    }
+
+    public long getPersistNanos() {
+        return persistNanos;
+    }
+
+    /**
+     * Mark the start of the watermark task
+     *
+     * @return false if the job has been cancelled meanwhile and there is no point in watermarking the document
+     */
+    boolean start() {
+        queuedNanos = System.nanoTime() - submittedNanos;
+        return !watermark.isDone();
+    }
+
+    void complete(Watermark watermark, long watermarkNanos, long persistNanos) {
+        this.watermarkNanos = watermarkNanos;
+        this.persistNanos = persistNanos;
+        this.watermark.complete(watermark);
+    }
+
+    void complete(Watermark watermark) {
+        if (watermark == null) {
+            cancel();
+        } else {
+            this.watermark.complete(watermark);
+        }
+    }
+
+    void cancel() {
+        watermark.completeExceptionally(new CancellationException("Ticket " + ticket + " was cancelled"));
+    }
+
+    @Override
+    public String toString() {
+        return "WatermarkJob{" +
+                "ticket=" + ticket +
+                ", created=" + created +
+                ", storeNanos=" + storeNanos +
+                ", queuedNanos=" + queuedNanos +
+                ", watermarkNanos=" + watermarkNanos +
+                ", persistNanos=" + persistNanos +
+                '}';
+    }
+}
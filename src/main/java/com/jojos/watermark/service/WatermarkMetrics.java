@@ -0,0 +1,125 @@
+package com.jojos.watermark.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of the watermark pipeline, exported under /actuator/metrics and /actuator/prometheus:
+ * <ul>
+ *     <li>watermark.pipeline: a timer of every stage a document goes through, tagged with the stage as in
+ *     {@link WatermarkJob} (store, queued, watermark, persist)</li>
+ *     <li>watermark.tickets.created, watermark.tickets.deduplicated: the documents that got a new ticket and the ones
+ *     that got back the ticket of the same document sent before</li>
+ *     <li>watermark.tickets.completed, watermark.tickets.failed: the tickets watermarked and the ones that could not be</li>
+ *     <li>watermark.tickets.rejected: the requests turned down, tagged with the reason: invalid for documents that
+ *     can't be read or have no such topic, busy when the executor is saturated, deadline for the tickets dropped
+ *     since their deadline passed while they were queued (see {@link WatermarkScheduler}), overloaded when the
+ *     backlog is over the limit of the {@link AdmissionLimiter}</li>
+ * </ul>
+ * The meters are looked up once, so recording is no more than adding to a few counters. The times are taken with
+ * System.nanoTime by the callers and recorded as they are. Whether the timers publish a histogram, and with which
+ * bounds, is left to the management.metrics.distribution.* properties.
+ *
+ * @author gkaranikas
+ */
+@Component
+public class WatermarkMetrics {
+
+    private final Timer store;
+    private final Timer queued;
+    private final Timer watermark;
+    private final Timer persist;
+    private final Counter created;
+    private final Counter deduplicated;
+    private final Counter completed;
+    private final Counter failed;
+    private final Counter invalid;
+    private final Counter busy;
+    private final Counter deadline;
+    private final Counter overloaded;
+
+    @Autowired
+    public WatermarkMetrics(MeterRegistry registry) {
+        this.store = stage(registry, "store");
+        this.queued = stage(registry, "queued");
+        this.watermark = stage(registry, "watermark");
+        this.persist = stage(registry, "persist");
+        this.created = Counter.builder("watermark.tickets.created").register(registry);
+        this.deduplicated = Counter.builder("watermark.tickets.deduplicated").register(registry);
+        this.completed = Counter.builder("watermark.tickets.completed").register(registry);
+        this.failed = Counter.builder("watermark.tickets.failed").register(registry);
+        this.invalid = Counter.builder("watermark.tickets.rejected").tag("reason", "invalid").register(registry);
+        this.busy = Counter.builder("watermark.tickets.rejected").tag("reason", "busy").register(registry);
+        this.deadline = Counter.builder("watermark.tickets.rejected").tag("reason", "deadline").register(registry);
+        this.overloaded = Counter.builder("watermark.tickets.rejected").tag("reason", "overloaded").register(registry);
+    }
+
+    public void recordStore(long nanos) {
+        store.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordQueued(long nanos) {
+        queued.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordWatermark(long nanos) {
+        watermark.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordPersist(long nanos) {
+        persist.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param assignment the ticket handed out for a document, counted as created or deduplicated
+     */
+    public void assigned(TicketAssignment assignment) {
+        (assignment.isCreated() ? created : deduplicated).increment();
+    }
+
+    public void completed() {
+        completed.increment();
+    }
+
+    public void failed() {
+        failed.increment();
+    }
+
+    /**
+     * A request with a document that can't be read, or is not a valid book or journal
+     */
+    public void invalid() {
+        invalid.increment();
+    }
+
+    /**
+     * A request turned down since there is no room for its watermark task
+     */
+    public void busy() {
+        busy.increment();
+    }
+
+    /**
+     * A request turned down since the backlog of documents to watermark is over the limit
+     */
+    public void overloaded() {
+        overloaded.increment();
+    }
+
+    /**
+     * A ticket dropped since its deadline passed before its watermark task got a thread
+     */
+    public void deadlineExceeded() {
+        deadline.increment();
+    }
+
+    private static Timer stage(MeterRegistry registry, String stage) {
+        return Timer.builder("watermark.pipeline").tag("stage", stage).register(registry);
+    }
+
+}
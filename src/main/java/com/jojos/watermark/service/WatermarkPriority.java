@@ -0,0 +1,25 @@
+package com.jojos.watermark.service;
+
+import java.util.Locale;
+
+/**
+ * The priority class of a watermark request, see {@link WatermarkScheduler}
+ *
+ * @author gkaranikas
+ */
+public enum WatermarkPriority {
+
+    // a client waiting for a single document, served ahead of the bulk work
+    INTERACTIVE,
+    // batches and whatever else nobody waits for right away
+    BULK;
+
+    /**
+     * @param priority the name of a priority in any case, e.g. interactive
+     * @throws IllegalArgumentException if there is no such priority
+     */
+    public static WatermarkPriority parse(String priority) {
+        return valueOf(priority.trim().toUpperCase(Locale.ROOT));
+    }
+
+}
@@ -0,0 +1,361 @@
+package com.jojos.watermark.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bounded queue of the watermark executor, which hands out the tasks in weighted fair order instead of first in
+ * first out (start-time fair queuing).
+ *
+ * Every task belongs to a flow, its priority class and client, and moves the flow ahead in a virtual time by its
+ * cost over the weight of the flow. A task is tagged with the virtual time its flow has reached, or the virtual time
+ * of the queue if the flow has nothing queued, and the task with the smallest tag is taken first. So a flow gets
+ * a share of the threads in proportion to its weight whatever the number of tasks it has queued, and a client that
+ * sends one document every now and then goes ahead of the backlog of a batch instead of behind it. Tasks of the same
+ * tag are taken in the order they came.
+ *
+ * A task past its deadline is dropped when it's taken, by running it, or as soon as the queue is full: the tasks
+ * that expired while waiting are then taken out to make room, and dropped by the thread that offers the new task. So
+ * a stuck backlog of stale bulk tasks doesn't turn interactive tasks away.
+ *
+ * @author gkaranikas
+ */
+final class WatermarkQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private static final Logger log = LoggerFactory.getLogger(WatermarkQueue.class);
+
+    private static final Comparator<WatermarkTask> ORDER =
+            Comparator.<WatermarkTask>comparingDouble(task -> task.startTag).thenComparingLong(task -> task.sequence);
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final PriorityQueue<WatermarkTask> tasks = new PriorityQueue<>(ORDER);
+    // the flows that have tasks queued
+    private final Map<WatermarkTask.Flow, FlowState> flows = new HashMap<>();
+    private final int[] queued = new int[WatermarkPriority.values().length];
+    private double virtualTime;
+    private long sequence;
+    // no queued task expires before this one, which may have been taken already
+    private WatermarkTask nextToExpire;
+
+    WatermarkQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        WatermarkTask task = WatermarkTask.of(Objects.requireNonNull(runnable));
+        List<WatermarkTask> expired = new ArrayList<>();
+        lock.lock();
+        try {
+            if (tasks.size() == capacity && removeExpired(expired) == 0) {
+                return false;
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+            drop(expired);
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) throws InterruptedException {
+        WatermarkTask task = WatermarkTask.of(Objects.requireNonNull(runnable));
+        long nanos = unit.toNanos(timeout);
+        List<WatermarkTask> expired = new ArrayList<>();
+        lock.lockInterruptibly();
+        try {
+            while (tasks.size() == capacity && removeExpired(expired) == 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+            drop(expired);
+        }
+    }
+
+    @Override
+    public void put(Runnable runnable) throws InterruptedException {
+        WatermarkTask task = WatermarkTask.of(Objects.requireNonNull(runnable));
+        List<WatermarkTask> expired = new ArrayList<>();
+        lock.lockInterruptibly();
+        try {
+            while (tasks.size() == capacity && removeExpired(expired) == 0) {
+                notFull.await();
+            }
+            enqueue(task);
+        } finally {
+            lock.unlock();
+            drop(expired);
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (tasks.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (tasks.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return tasks.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            if (!(o instanceof WatermarkTask task) || !tasks.remove(task)) {
+                return false;
+            }
+            removed(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return tasks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * @return the number of tasks of a priority class that are queued
+     */
+    int size(WatermarkPriority priority) {
+        lock.lock();
+        try {
+            return queued[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of flows that have tasks queued
+     */
+    int flows() {
+        lock.lock();
+        try {
+            return flows.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && !tasks.isEmpty()) {
+                c.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return an iterator over a snapshot of the tasks, in no particular order
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        Iterator<Runnable> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<Runnable>(tasks).iterator();
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<>() {
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return snapshot.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                return last = snapshot.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                WatermarkQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    private void enqueue(WatermarkTask task) {
+        FlowState flow = flows.computeIfAbsent(task.getFlow(), ignored -> new FlowState());
+        task.startTag = Math.max(virtualTime, flow.finishTag);
+        task.sequence = sequence++;
+        flow.finishTag = task.startTag + task.getLength();
+        flow.queued++;
+        queued[task.getPriority().ordinal()]++;
+        tasks.add(task);
+        if (task.hasDeadline() && (nextToExpire == null || task.expiresBefore(nextToExpire))) {
+            nextToExpire = task;
+        }
+        notEmpty.signal();
+    }
+
+    /**
+     * Take out the tasks that are past their deadline, which only takes a look at every task once the earliest
+     * deadline has passed
+     *
+     * @param expired where the tasks taken out are added, to be dropped once the lock is released
+     * @return the number of tasks taken out
+     */
+    private int removeExpired(List<WatermarkTask> expired) {
+        if (nextToExpire == null || !nextToExpire.isExpired()) {
+            return 0;
+        }
+        int count = expired.size();
+        nextToExpire = null;
+        tasks.removeIf(task -> {
+            if (task.isExpired()) {
+                expired.add(task);
+                return true;
+            }
+            if (task.hasDeadline() && (nextToExpire == null || task.expiresBefore(nextToExpire))) {
+                nextToExpire = task;
+            }
+            return false;
+        });
+        for (int i = count; i < expired.size(); i++) {
+            removed(expired.get(i));
+        }
+        return expired.size() - count;
+    }
+
+    /**
+     * Run the expired tasks taken out of the queue, which runs their onExpired rather than the tasks themselves
+     */
+    private static void drop(List<WatermarkTask> expired) {
+        for (WatermarkTask task : expired) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Could not drop an expired watermark task", e);
+            }
+        }
+    }
+
+    private WatermarkTask dequeue() {
+        WatermarkTask task = tasks.poll();
+        if (task != null) {
+            virtualTime = task.startTag;
+            removed(task);
+        }
+        return task;
+    }
+
+    private void removed(WatermarkTask task) {
+        FlowState flow = flows.get(task.getFlow());
+        if (--flow.queued == 0) {
+            flows.remove(task.getFlow());
+        }
+        queued[task.getPriority().ordinal()]--;
+        notFull.signal();
+    }
+
+    private static final class FlowState {
+        // the virtual time the last queued task of the flow takes the flow to
+        double finishTag;
+        int queued;
+    }
+}
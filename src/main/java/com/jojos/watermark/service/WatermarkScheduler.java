@@ -0,0 +1,129 @@
+package com.jojos.watermark.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides the order the queued watermark tasks are run in and how long they may wait, instead of first come first
+ * served, so that a client with a large backlog of batches doesn't hold up everybody else.
+ *
+ * Every request comes with a {@link Scheduling}: the client it's from, its priority class and its deadline. The
+ * tasks are queued in a flow per priority class and client and the flows share the threads in proportion to their
+ * weight (see {@link WatermarkQueue}), which is the weight of the priority class times the weight of the client:
+ * <ul>
+ *     <li>watermark.scheduler.interactive-weight, watermark.scheduler.bulk-weight: the weight of each class</li>
+ *     <li>watermark.scheduler.client-weights: the weights of the clients that get more (or less) than 1, as a list of
+ *     client:weight</li>
+ *     <li>watermark.scheduler.interactive-deadline-millis, watermark.scheduler.bulk-deadline-millis: the deadline of
+ *     the requests that don't have one of their own, 0 for none</li>
+ * </ul>
+ * A task that is still queued once its deadline passes is dropped: its tickets are cancelled rather than watermarked
+ * for a client that has given up on them. It's dropped when its turn comes, or earlier if the queue fills up, so that
+ * it doesn't take the place of a task that is still wanted.
+ *
+ * The weights only apply to the pool of platform threads, which is the one that queues. On virtual threads every
+ * task starts right away and only the deadlines apply.
+ *
+ * @author gkaranikas
+ */
+@Component
+public class WatermarkScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(WatermarkScheduler.class);
+
+    private final double interactiveWeight;
+    private final double bulkWeight;
+    private final Map<String, Double> clientWeights;
+    private final long interactiveDeadlineNanos;
+    private final long bulkDeadlineNanos;
+    private final LongSupplier clock;
+
+    @Autowired
+    public WatermarkScheduler(@Value("${watermark.scheduler.interactive-weight:16}") double interactiveWeight,
+                              @Value("${watermark.scheduler.bulk-weight:1}") double bulkWeight,
+                              @Value("${watermark.scheduler.client-weights:}") List<String> clientWeights,
+                              @Value("${watermark.scheduler.interactive-deadline-millis:30000}") long interactiveDeadlineMillis,
+                              @Value("${watermark.scheduler.bulk-deadline-millis:600000}") long bulkDeadlineMillis) {
+        this(interactiveWeight, bulkWeight, parseClientWeights(clientWeights), interactiveDeadlineMillis,
+                bulkDeadlineMillis, System::nanoTime);
+    }
+
+    WatermarkScheduler(double interactiveWeight, double bulkWeight, Map<String, Double> clientWeights,
+                       long interactiveDeadlineMillis, long bulkDeadlineMillis, LongSupplier clock) {
+        if (!(interactiveWeight > 0) || !(bulkWeight > 0)) {
+            throw new IllegalArgumentException("The weights of the priority classes have to be positive");
+        }
+        this.interactiveWeight = interactiveWeight;
+        this.bulkWeight = bulkWeight;
+        this.clientWeights = Map.copyOf(clientWeights);
+        this.interactiveDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(interactiveDeadlineMillis);
+        this.bulkDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(bulkDeadlineMillis);
+        this.clock = clock;
+        log.info("Watermark scheduler weighs interactive {} to bulk {}, with {} client weights", interactiveWeight,
+                bulkWeight, clientWeights.size());
+    }
+
+    /**
+     * @return a scheduler that weighs everything the same and never drops a task
+     */
+    public static WatermarkScheduler unweighted() {
+        return new WatermarkScheduler(1, 1, Map.of(), 0, 0, System::nanoTime);
+    }
+
+    /**
+     * Wrap a watermark task to be handed to the {@link WatermarkExecutor}
+     *
+     * @param task the watermark task
+     * @param scheduling how the task is scheduled
+     * @param cost the number of documents the task watermarks
+     * @param onExpired run instead of the task if it's still queued once its deadline passes
+     */
+    public Runnable schedule(Runnable task, Scheduling scheduling, int cost, Runnable onExpired) {
+        WatermarkPriority priority = scheduling.getPriority();
+        double weight = (priority == WatermarkPriority.INTERACTIVE ? interactiveWeight : bulkWeight) *
+                clientWeights.getOrDefault(scheduling.getClient(), 1.0);
+        long deadlineNanos;
+        if (scheduling.getDeadlineMillis() == Scheduling.DEFAULT_DEADLINE) {
+            deadlineNanos = priority == WatermarkPriority.INTERACTIVE ? interactiveDeadlineNanos : bulkDeadlineNanos;
+        } else if (scheduling.getDeadlineMillis() == Scheduling.NO_DEADLINE) {
+            deadlineNanos = 0;
+        } else {
+            deadlineNanos = TimeUnit.MILLISECONDS.toNanos(scheduling.getDeadlineMillis());
+        }
+        long deadline = 0;
+        if (deadlineNanos > 0) {
+            deadline = clock.getAsLong() + deadlineNanos;
+            // 0 stands for no deadline, so a deadline that falls exactly on it is moved by a nanosecond
+            deadline = deadline == 0 ? 1 : deadline;
+        }
+        return new WatermarkTask(task, new WatermarkTask.Flow(priority, scheduling.getClient()), cost, weight,
+                deadline, clock, onExpired);
+    }
+
+    private static Map<String, Double> parseClientWeights(List<String> clientWeights) {
+        Map<String, Double> weights = new HashMap<>();
+        for (String clientWeight : clientWeights) {
+            if (clientWeight.isBlank()) {
+                continue;
+            }
+            int separator = clientWeight.lastIndexOf(':');
+            double weight = separator < 0 ? Double.NaN
+                    : Double.parseDouble(clientWeight.substring(separator + 1).trim());
+            if (!(weight > 0)) {
+                throw new IllegalArgumentException("Invalid client weight " + clientWeight + ", expected client:weight");
+            }
+            weights.put(clientWeight.substring(0, separator).trim(), weight);
+        }
+        return weights;
+    }
+
+}
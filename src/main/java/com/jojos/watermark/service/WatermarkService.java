@@ -5,17 +5,44 @@ import com.jojos.watermark.domain.Watermark;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 /**
  * The service responsible to create watermarks and associate particular ticket ids
  * that are used to fetch the watermarked document
  *
- * An enhancement can be made so that if the same document is requested to be watermarked for a second time then
- * the ticket id that is already produced and active shall be returned. For this to happen we must change the {@link WatermarkStore} as well
+ * If the same document is requested to be watermarked for a second time then the ticket id that is already produced
+ * is returned and the document is not watermarked again.
+ *
+ * The watermark tasks are queued by the {@link WatermarkScheduler}, according to the {@link Scheduling} of every
+ * request: the single documents are interactive and the batches bulk unless the request says otherwise.
+ * A ticket whose document can't be watermarked, e.g. because its content can't be stamped, is cancelled rather than
+ * left pending.
+ * Every completed ticket keeps the json of its watermark, serialized before the ticket completes and let go of along
+ * with the ticket, so polling a ticket never serializes its watermark again however many tickets there are. The
+ * {@link WatermarkCache} only shares the json between the tickets of the same document.
+ * New requests are only let in while the backlog of documents to watermark is under the limit of the
+ * {@link AdmissionLimiter}, before anything is stored for them, so a request that is turned away costs next to nothing.
+ * A document that has been sent before is turned away as well then.
  *
  * Feel free to enhance the code in any case
  *
@@ -25,12 +52,44 @@ import java.util.concurrent.Executors;
 public class WatermarkService {
 
     private static final Logger log = LoggerFactory.getLogger(WatermarkService.class);
+    private static final RateLimitedLog watermarkLog = new RateLimitedLog(log, 1, TimeUnit.SECONDS);
+    private static final RateLimitedLog dropLog = new RateLimitedLog(log, 1, TimeUnit.SECONDS);
+    private static final RateLimitedLog rejectLog = new RateLimitedLog(log, 1, TimeUnit.SECONDS);
+
+    private static final long RECOVERY_BACKOFF_MILLIS = 10;
+    // nobody waits for the recovered tickets, but they have been waiting since before the restart already
+    private static final Scheduling RECOVERY = new Scheduling("recovery", WatermarkPriority.BULK, Scheduling.NO_DEADLINE);
 
     private WatermarkStore store;
+    private WatermarkExecutor executor;
+    private WatermarkScheduler scheduler;
+    private AdmissionLimiter admission;
+    private WatermarkCache cache;
+    private WatermarkMetrics metrics;
+    private ContentStore contents;
+    private ContentWatermarker watermarker;
+    private int batchChunkSize;
+    private final ConcurrentMap<Integer, WatermarkJob> jobs = new ConcurrentHashMap<>();
+    // the json of the watermark of every completed ticket
+    private final ConcurrentMap<Integer, CachedWatermark> completed = new ConcurrentHashMap<>();
 
     @Autowired
-    public WatermarkService(WatermarkStore store) {
+    public WatermarkService(WatermarkStore store, WatermarkExecutor executor, WatermarkScheduler scheduler,
+                            AdmissionLimiter admission, WatermarkCache cache, WatermarkMetrics metrics,
+                            ContentStore contents, ContentWatermarker watermarker,
+                            @Value("${watermark.batch.chunk-size:256}") int batchChunkSize) {
         this.store = store;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.admission = admission;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.contents = contents;
+        this.watermarker = watermarker;
+        this.batchChunkSize = batchChunkSize;
+        store.onTicketRemoved(this::forget);
+        // the contents left by a previous run belong to its tickets, which are only still there if they were recovered
+        contents.retainContents(store::hasTicket);
     }
 
     /**
@@ -39,17 +98,270 @@ public class WatermarkService {
      *
      * @param document the document to watermark
      * @return the ticket that is used to fetch the watermark once it's done
+     * @throws RejectedExecutionException if there is no more room to queue the watermark task
      */
     public Integer createWatermarkFor(Document document) {
+        return createWatermarkFor(document, Scheduling.of(WatermarkPriority.INTERACTIVE));
+    }
 
-        Integer ticket = store.storeDocumentAndCreateTicket(document);
+    /**
+     * The same as #createWatermarkFor, scheduled as the request says
+     *
+     * @param document the document to watermark
+     * @param scheduling how the watermark task is scheduled
+     * @return the ticket that is used to fetch the watermark once it's done
+     * @throws OverloadedException if the backlog is over the limit
+     * @throws RejectedExecutionException if there is no more room to queue the watermark task
+     */
+    public Integer createWatermarkFor(Document document, Scheduling scheduling) {
+        admit(1);
+        long startTime = System.nanoTime();
+        TicketAssignment assignment;
+        try {
+            assignment = store.storeDocumentOrGetTicket(document);
+        } finally {
+            admission.admitted(1);
+        }
+        metrics.recordStore(System.nanoTime() - startTime);
+        metrics.assigned(assignment);
+        Integer ticket = assignment.getTicket();
 
-        // simulate some time-consuming watermark task
-        addWatermark(ticket, document);
+        if (assignment.isCreated()) {
+            // simulate some time-consuming watermark task
+            addWatermark(ticket, document, scheduling);
+        }
 
         return ticket;
     }
 
+    /**
+     * The same as #createWatermarkFor for a document that comes with a content, which is spooled to disk and stamped
+     * by the watermark task. Such a document always gets a new ticket, since the same document may come with
+     * another content.
+     *
+     * @param document the document to watermark
+     * @param content the content of the document, read to its end
+     * @param scheduling how the watermark task is scheduled
+     * @return the ticket that is used to fetch the watermark and the watermarked content once they are done
+     * @throws ContentTooLargeException if the content is larger than watermark.content.max-size-bytes
+     * @throws OverloadedException if the backlog is over the limit, in which case the content isn't read at all
+     * @throws RejectedExecutionException if there is no more room to queue the watermark task
+     */
+    public Integer createWatermarkFor(Document document, InputStream content, Scheduling scheduling) throws IOException {
+        admit(1);
+        Path spooled;
+        long startTime;
+        Integer ticket;
+        try {
+            spooled = contents.spool(content);
+            startTime = System.nanoTime();
+            try {
+                ticket = store.storeDocumentAndCreateTicket(document);
+            } catch (RuntimeException e) {
+                Files.deleteIfExists(spooled);
+                throw e;
+            }
+        } finally {
+            admission.admitted(1);
+        }
+        metrics.recordStore(System.nanoTime() - startTime);
+        metrics.assigned(new TicketAssignment(ticket, true));
+        try {
+            contents.put(ticket, spooled);
+        } catch (IOException e) {
+            store.removeTicket(ticket);
+            Files.deleteIfExists(spooled);
+            throw e;
+        }
+        addWatermark(ticket, document, scheduling);
+        return ticket;
+    }
+
+    /**
+     * The same as #createWatermarkFor, handing back a {@link WatermarkJob} with a future of the watermark and the
+     * time spent in every stage instead of just the ticket
+     *
+     * @param document the document to watermark
+     * @return the job that completes once the watermark is created
+     * @throws RejectedExecutionException if there is no more room to queue the watermark task
+     */
+    public WatermarkJob submitWatermarkFor(Document document) {
+        return submitWatermarkFor(document, Scheduling.of(WatermarkPriority.INTERACTIVE));
+    }
+
+    /**
+     * The same as #submitWatermarkFor, scheduled as the request says
+     *
+     * @param document the document to watermark
+     * @param scheduling how the watermark task is scheduled
+     * @return the job that completes once the watermark is created
+     * @throws OverloadedException if the backlog is over the limit
+     * @throws RejectedExecutionException if there is no more room to queue the watermark task
+     */
+    public WatermarkJob submitWatermarkFor(Document document, Scheduling scheduling) {
+        admit(1);
+        long startTime = System.nanoTime();
+        TicketAssignment assignment;
+        try {
+            assignment = store.storeDocumentOrGetTicket(document);
+        } finally {
+            admission.admitted(1);
+        }
+        Integer ticket = assignment.getTicket();
+        WatermarkJob job = new WatermarkJob(ticket, assignment.isCreated(), System.nanoTime() - startTime);
+        metrics.recordStore(job.getStoreNanos());
+        metrics.assigned(assignment);
+
+        if (assignment.isCreated()) {
+            jobs.put(ticket, job);
+            long submitTime = System.nanoTime();
+            try {
+                executor.execute(scheduler.schedule(() -> watermark(ticket, document, job, submitTime), scheduling,
+                        1, () -> dropExpired(ticket, submitTime)));
+            } catch (RejectedExecutionException e) {
+                jobs.remove(ticket);
+                store.removeTicket(ticket);
+                metrics.busy();
+                log.warn("Rejected watermark task for ticket {}", ticket);
+                throw e;
+            }
+            job.getWatermark().whenComplete((watermark, failure) -> {
+                if (failure instanceof CancellationException) {
+                    cancelTicket(ticket);
+                }
+            });
+        } else {
+            Subscription subscription = store.onWatermarkCreated(ticket, job::complete);
+            job.getWatermark().whenComplete((watermark, failure) -> subscription.cancel());
+        }
+        return job;
+    }
+
+    /**
+     * Cancel a ticket that hasn't been watermarked yet. The ticket is forgotten, whoever waits for its watermark is
+     * notified that there is no such ticket and the watermark task skips it if it hasn't started already.
+     *
+     * @param ticket the ticket id to cancel
+     * @return true if the ticket was pending and has been cancelled, false if it's unknown or already completed
+     */
+    public boolean cancelTicket(Integer ticket) {
+        if (!store.cancelTicket(ticket)) {
+            return false;
+        }
+        WatermarkJob job = jobs.remove(ticket);
+        if (job != null) {
+            job.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * Queue up the watermark tasks of the tickets that were still pending when the store was rebuilt from its
+     * journal, in chunks like a batch. This is done in the background, backing off whenever the executor is
+     * saturated, so that neither the startup nor the new requests wait for the whole backlog.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeRecoveredTickets() {
+        List<Integer> tickets = new ArrayList<>();
+        List<Document> documents = new ArrayList<>();
+        store.takeRecoveredTickets((ticket, document) -> {
+            tickets.add(ticket);
+            documents.add(document);
+        });
+        if (tickets.isEmpty()) {
+            return;
+        }
+        log.info("Resuming the watermark of {} recovered tickets", tickets.size());
+        Thread.ofVirtual().name("watermark-recovery").start(() -> {
+            for (int from = 0; from < tickets.size(); from += batchChunkSize) {
+                int to = Math.min(from + batchChunkSize, tickets.size());
+                List<Integer> chunkTickets = tickets.subList(from, to);
+                List<Document> chunkDocuments = documents.subList(from, to);
+                while (true) {
+                    try {
+                        addWatermarks(chunkTickets, chunkDocuments, RECOVERY, () -> false);
+                        break;
+                    } catch (RejectedExecutionException e) {
+                        try {
+                            Thread.sleep(RECOVERY_BACKOFF_MILLIS);
+                        } catch (InterruptedException interrupted) {
+                            log.warn("Interrupted while resuming the recovered tickets, {} of them are left pending", tickets.size() - from);
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Create watermarks for a batch of documents. The new documents are watermarked in chunks, one task per chunk,
+     * instead of one task per document.
+     *
+     * @param documents the documents to watermark
+     * @return the tickets that are used to fetch the watermarks, in the order of the documents
+     * @throws RejectedExecutionException if there is no more room to queue the watermark tasks, in which case the
+     * tickets created for the batch are all discarded, even the ones of the chunks that were already queued
+     */
+    public List<Integer> createWatermarksFor(List<? extends Document> documents) {
+        return createWatermarksFor(documents, Scheduling.of(WatermarkPriority.BULK));
+    }
+
+    /**
+     * The same as #createWatermarksFor, scheduled as the request says
+     *
+     * @param documents the documents to watermark
+     * @param scheduling how the watermark tasks are scheduled
+     * @return the tickets that are used to fetch the watermarks, in the order of the documents
+     * @throws OverloadedException if the backlog is over the limit, in which case none of the documents is stored
+     * @throws RejectedExecutionException if there is no more room to queue the watermark tasks, in which case the
+     * tickets created for the batch are all discarded
+     */
+    public List<Integer> createWatermarksFor(List<? extends Document> documents, Scheduling scheduling) {
+        admit(documents.size());
+        List<TicketAssignment> assignments;
+        try {
+            assignments = store.storeDocumentsOrGetTickets(documents);
+        } finally {
+            admission.admitted(documents.size());
+        }
+        assignments.forEach(metrics::assigned);
+
+        List<Integer> tickets = new ArrayList<>(assignments.size());
+        List<Integer> chunkTickets = new ArrayList<>(batchChunkSize);
+        List<Document> chunkDocuments = new ArrayList<>(batchChunkSize);
+        // the client never learns the tickets of a rejected batch, so the chunks queued before are skipped as well
+        AtomicBoolean discarded = new AtomicBoolean();
+        try {
+            for (int i = 0; i < assignments.size(); i++) {
+                TicketAssignment assignment = assignments.get(i);
+                tickets.add(assignment.getTicket());
+                if (!assignment.isCreated()) {
+                    continue;
+                }
+                chunkTickets.add(assignment.getTicket());
+                chunkDocuments.add(documents.get(i));
+                if (chunkTickets.size() == batchChunkSize) {
+                    addWatermarks(chunkTickets, chunkDocuments, scheduling, discarded::get);
+                    chunkTickets = new ArrayList<>(batchChunkSize);
+                    chunkDocuments = new ArrayList<>(batchChunkSize);
+                }
+            }
+            if (!chunkTickets.isEmpty()) {
+                addWatermarks(chunkTickets, chunkDocuments, scheduling, discarded::get);
+            }
+        } catch (RejectedExecutionException e) {
+            discarded.set(true);
+            assignments.stream().filter(TicketAssignment::isCreated).
+                    forEach(assignment -> store.removeTicket(assignment.getTicket()));
+            metrics.busy();
+            log.warn("Rejected watermark task for a batch of {} documents, discarded all of its tickets",
+                    documents.size());
+            throw e;
+        }
+        return tickets;
+    }
+
     /**
      * Retrieves the watermark for a particular ticket id
      * @param ticket the id for which a particular watermark is produced
@@ -59,30 +371,231 @@ public class WatermarkService {
         return store.getWatermarkForTicket(ticket);
     }
 
+    /**
+     * The same as #getWatermarkForTicket, along with the json of the watermark
+     *
+     * @param ticket the id for which a particular watermark is produced
+     * @return the watermark or null if it hasn't been created one (yet)
+     */
+    public CachedWatermark getCachedWatermarkForTicket(Integer ticket) {
+        CachedWatermark watermark = completed.get(ticket);
+        if (watermark != null) {
+            store.watermarkCollected(ticket);
+            return watermark;
+        }
+        // only the tickets recovered from the journal are completed without their json, which is kept once they're read
+        Document document = store.getWatermarkedDocument(ticket);
+        if (document == null) {
+            return null;
+        }
+        watermark = cache.get(document);
+        completed.putIfAbsent(ticket, watermark);
+        if (!store.hasTicket(ticket)) {
+            // evicted meanwhile, maybe before there was anything to let go of
+            completed.remove(ticket);
+        }
+        return watermark;
+    }
+
+    /**
+     * @param ticket the ticket of a document that came with a content
+     * @return the file of the watermarked content, or null if the ticket has no content or it isn't completed (yet)
+     */
+    public Path getWatermarkedContent(Integer ticket) {
+        if (!contents.hasContent(ticket) || store.getWatermarkForTicket(ticket) == null) {
+            return null;
+        }
+        return contents.getWatermarkedContent(ticket);
+    }
 
     /**
-     * Adds a watermark to the specific document in an asynchronous manner
+     * @return the node of the {@link Cluster} that handed out the ticket and keeps its document
+     */
+    public int getNodeForTicket(int ticket) {
+        return store.getNodeForTicket(ticket);
+    }
+
+    /**
+     * @return true if the ticket was completed but it has been evicted since, see {@link TicketRetention}
+     */
+    public boolean isExpired(Integer ticket) {
+        return store.isExpired(ticket);
+    }
+
+    /**
+     * Get notified once the watermark of a ticket is created, without blocking any thread while waiting
+     *
+     * @param ticket the ticket id to wait for
+     * @param listener receives the watermark, or null if there is no such ticket
+     * @return the subscription to cancel when the watermark is not needed any more
+     */
+    public Subscription onWatermarkCreated(Integer ticket, Consumer<Watermark> listener) {
+        return store.onWatermarkCreated(ticket, listener);
+    }
+
+    /**
+     * Retrieves the status and the watermark of a number of tickets at once
+     *
+     * @param tickets the ticket ids to look up
+     * @param visitor receives the outcome for every ticket, in the order of the tickets
+     */
+    public void lookupTickets(PrimitiveIterator.OfInt tickets, TicketVisitor visitor) {
+        store.lookupTickets(tickets, visitor);
+    }
+
+    /**
+     * Adds a watermark to the specific document in an asynchronous manner.
+     * If the task can't be queued the ticket is discarded since it would never be watermarked.
      *
      * @param ticket the ticket id associated to an existing document
      * @param document the document we need to add the watermark to
+     * @param scheduling how the watermark task is scheduled
      */
-    private void addWatermark(Integer ticket, Document document) {
-        ExecutorService executorService = Executors.newFixedThreadPool(5);
-        executorService.execute(() -> {
-            long startTime = System.currentTimeMillis();
-            long threadId = Thread.currentThread().getId();
-            Watermark watermark = Watermark.createFor(document);
-            Document watermarkedDoc = document.withWatermark(watermark);
-            if (!store.storeDocumentForTicket(ticket, watermarkedDoc)) {
-                log.error("ThreadId {} -- An error occurred while storing the watermarked document {}", threadId, document);
-            } else {
-                long endTime = System.currentTimeMillis();
-                long seconds = (endTime - startTime) / 1000;
-                log.info("ThreadId {} -- Took {} seconds to watermark {}", threadId, seconds, document);
+    private void addWatermark(Integer ticket, Document document, Scheduling scheduling) {
+        long submitTime = System.nanoTime();
+        try {
+            executor.execute(scheduler.schedule(() -> watermark(ticket, document, null, submitTime), scheduling, 1,
+                    () -> dropExpired(ticket, submitTime)));
+        } catch (RejectedExecutionException e) {
+            store.removeTicket(ticket);
+            metrics.busy();
+            log.warn("Rejected watermark task for ticket {}", ticket);
+            throw e;
+        }
+    }
+
+    /**
+     * Adds watermarks to a chunk of documents with a single asynchronous task
+     *
+     * @param discarded tells whether the tickets have been discarded meanwhile, so that the rest of them are skipped
+     */
+    private void addWatermarks(List<Integer> tickets, List<Document> documents, Scheduling scheduling,
+                               BooleanSupplier discarded) {
+        long submitTime = System.nanoTime();
+        executor.execute(scheduler.schedule(() -> {
+            for (int i = 0; i < tickets.size() && !discarded.getAsBoolean(); i++) {
+                watermark(tickets.get(i), documents.get(i), null, submitTime);
             }
+        }, scheduling, tickets.size(), () -> {
+            for (Integer ticket : tickets) {
+                dropExpired(ticket, submitTime);
+            }
+        }));
+    }
 
-        });
+    /**
+     * Drop a ticket whose deadline passed before its watermark task got a thread. It's cancelled, so whoever
+     * still waits for it is told there is no such ticket.
+     */
+    private void dropExpired(Integer ticket, long submitTime) {
+        // the time a dropped document waited tells how overloaded we are as much as the time of a completed one
+        admission.record(System.nanoTime() - submitTime);
+        if (cancelTicket(ticket)) {
+            metrics.deadlineExceeded();
+            dropLog.warn("Dropped ticket {} since its deadline passed while it was queued", ticket);
+        }
+    }
+
+    /**
+     * Drop a ticket whose document couldn't be watermarked, so that it doesn't stay pending for ever. It's cancelled
+     * like one that missed its deadline, which deletes its content and tells whoever waits for it that there is no
+     * such ticket, and the executor goes on with the next one.
+     */
+    private void fail(Integer ticket, long submitTime, Exception e) {
+        admission.record(System.nanoTime() - submitTime);
+        metrics.failed();
+        log.error("Could not watermark ticket {}, dropped it", ticket, e);
+        if (!cancelTicket(ticket)) {
+            WatermarkJob job = jobs.remove(ticket);
+            if (job != null) {
+                job.cancel();
+            }
+        }
+    }
+
+    /**
+     * Let a new request in, to be followed by AdmissionLimiter#admitted once its documents are stored (or not)
+     *
+     * @param documents the number of documents of a new request
+     * @throws OverloadedException if the backlog is over the limit
+     */
+    private void admit(int documents) {
+        try {
+            admission.admit(store.getPendingTickets(), documents);
+        } catch (OverloadedException e) {
+            metrics.overloaded();
+            rejectLog.warn("Turned away a request of {} documents: {}", documents, e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Let go of everything kept for a ticket that went away
+     */
+    private void forget(int ticket) {
+        completed.remove(ticket);
+        deleteContent(ticket);
+    }
+
+    private void deleteContent(int ticket) {
+        try {
+            contents.delete(ticket);
+        } catch (IOException e) {
+            log.warn("Could not delete the content of ticket {}", ticket, e);
+        }
+    }
 
+    /**
+     * @param job the job to complete once the document is watermarked, if it was submitted as one
+     * @param submitTime when the task was handed to the executor, in System#nanoTime
+     */
+    private void watermark(Integer ticket, Document document, WatermarkJob job, long submitTime) {
+        long watermarkStart = System.nanoTime();
+        metrics.recordQueued(watermarkStart - submitTime);
+        if (job != null && !job.start()) {
+            log.info("Skipping the watermark of cancelled ticket {}", ticket);
+            return;
+        }
+        long threadId = Thread.currentThread().threadId();
+        CachedWatermark cached;
+        Watermark watermark;
+        Document watermarkedDoc;
+        try {
+            // the json of the watermark is serialized (or shared with the same document) before the ticket completes
+            cached = cache.get(document);
+            watermark = cached.getWatermark();
+            watermarkedDoc = document.withWatermark(watermark);
+            // the content, if the document came with one, is stamped before the ticket completes
+            watermarker.stamp(ticket, watermark);
+        } catch (IOException | RuntimeException e) {
+            fail(ticket, submitTime, e);
+            return;
+        }
+        long persistStart = System.nanoTime();
+        metrics.recordWatermark(persistStart - watermarkStart);
+        // kept before the ticket completes, so that nobody polls the ticket without finding it
+        completed.put(ticket, cached);
+        if (!store.storeDocumentForTicket(ticket, watermarkedDoc)) {
+            completed.remove(ticket);
+            metrics.failed();
+            log.error("ThreadId {} -- An error occurred while storing the watermarked document {}", threadId, document);
+            if (job != null) {
+                // the ticket is gone, most likely cancelled while being watermarked
+                jobs.remove(ticket);
+                job.cancel();
+            }
+        } else {
+            long endTime = System.nanoTime();
+            metrics.recordPersist(endTime - persistStart);
+            metrics.completed();
+            watermarkLog.info("ThreadId {} -- Took {} microseconds to watermark {}", threadId,
+                    TimeUnit.NANOSECONDS.toMicros(endTime - watermarkStart), document);
+            if (job != null) {
+                jobs.remove(ticket);
+                job.complete(watermark, persistStart - watermarkStart, endTime - persistStart);
+            }
+            admission.record(endTime - submitTime);
+        }
     }
 
 }
@@ -2,36 +2,102 @@ package com.jojos.watermark.service;
 
 import com.jojos.watermark.domain.Document;
 import com.jojos.watermark.domain.Watermark;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PrimitiveIterator;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
 
 /**
  * A place to store the watermarks
  *
  * This is translated to simple in-memory storage and stays alive for the life time of the application.
- * If the jvm stops the store dies with it.
+ * If the jvm stops the store dies with it. How the documents are actually kept is up to the {@link TicketStore}.
  *
- * The ticket ids start from 1 and are incremented by one after each and every request.
+ * The ticket ids start from 1 and are incremented by one after each and every new document. With
+ * watermark.store.shards set above 1 both the ticket ids and the {@link TicketStore} are split into shards (see
+ * {@link TicketIds}) so that concurrent requests don't contend on a single counter and map; a shard then hands out
+ * every n-th id. In a {@link Cluster} the node is encoded in the ticket ids as well, and the store only keeps (and
+ * deduplicates) the documents of its own node.
+ * When deduplication is on, a document that has already been received (same content type, title, author and topic)
+ * is correlated with the ticket it was given the first time instead of getting a new one.
  *
  * Thread safety and atomicity of storing documents and generating unique ticket ids is guaranteed across multiple requests.
  *
+ * Everything that happens to the tickets is recorded in a {@link TicketJournal}, if there is one, and the store is
+ * rebuilt from it when created. A new ticket is only handed out once its record is durable. Snapshots of the store
+ * keep the journal from growing for ever.
+ *
+ * Completed tickets are evicted according to the {@link TicketRetention}. An evicted ticket is still known to have
+ * expired, which takes a single bit per ticket.
+ *
  * @author gkaranikas
  */
 @Service
 @Scope(value="singleton", proxyMode = ScopedProxyMode.TARGET_CLASS)
-public class WatermarkStore {
+public class WatermarkStore implements MeterBinder {
 
     private static final Logger log = LoggerFactory.getLogger(WatermarkStore.class);
+    private static final RateLimitedLog createLog = new RateLimitedLog(log, 1, TimeUnit.SECONDS);
+    private static final RateLimitedLog reuseLog = new RateLimitedLog(log, 1, TimeUnit.SECONDS);
+
+    private final TicketStore ticketsToDocuments;
+    private final TicketIds ticketIds;
+    private final ConcurrentMap<DocumentKey, Integer> documentsToTickets = new ConcurrentHashMap<>();
+    private final boolean deduplicate;
+    private final CompletionListeners listeners = new CompletionListeners();
+    private final TicketJournal journal;
+    private final TicketRetention retention;
+    private final TicketBitSet expiredTickets = new TicketBitSet();
+    private final LongAdder pendingTickets = new LongAdder();
+    private volatile IntConsumer removalListener = ticket -> { };
+    private BitSet recoveredTickets;
+
+    public WatermarkStore() {
+        this(new HeapTicketStore(), new NoOpTicketJournal(), TicketRetention.unbounded(), true);
+    }
 
-    private final ConcurrentMap<Integer, Document> ticketsToDocuments = new ConcurrentHashMap<>();
-    private final AtomicInteger ticketIds = new AtomicInteger();
+    public WatermarkStore(TicketStore ticketsToDocuments, TicketJournal journal, TicketRetention retention,
+                          boolean deduplicate) {
+        this(() -> ticketsToDocuments, 1, Cluster.standalone(), journal, retention, deduplicate);
+    }
+
+    /**
+     * @param ticketStores creates the {@link TicketStore} of every shard
+     * @param shards the number of shards, a power of two
+     * @param cluster the cluster of nodes the store is part of, encoded in its tickets
+     */
+    @Autowired
+    public WatermarkStore(ObjectFactory<TicketStore> ticketStores, @Value("${watermark.store.shards:1}") int shards,
+                          Cluster cluster, TicketJournal journal, TicketRetention retention,
+                          @Value("${watermark.store.deduplicate:true}") boolean deduplicate) {
+        this.ticketIds = new TicketIds(shards, cluster.getNodeId(), cluster.size());
+        this.ticketsToDocuments = ticketIds.getStride() == 1 ? ticketStores.getObject() :
+                new ShardedTicketStore(ticketIds, ticketStores::getObject);
+        this.journal = journal;
+        this.retention = retention;
+        this.deduplicate = deduplicate;
+        recover();
+    }
 
     /**
      * Store the {@link Document} in memory and correlates a ticket with it
@@ -40,25 +106,146 @@ public class WatermarkStore {
      * @return the ticket id associated with the passed document
      */
     public Integer storeDocumentAndCreateTicket(Document document) {
-        int ticket = ticketIds.incrementAndGet();
-        ticketsToDocuments.putIfAbsent(ticket, document);
-
-        log.info("Creating ticket {} for document {}.", ticket, document);
+        long[] position = new long[1];
+        Integer ticket = createTicket(document, position);
+        journal.awaitDurable(position[0]);
         return ticket;
     }
 
+    /**
+     * Store the {@link Document} in memory and correlate a new ticket with it, unless the same document has been
+     * stored before in which case its existing ticket is returned. Concurrent calls for the same document all get
+     * back the same ticket and only one of them creates it.
+     *
+     * @param document the document to store
+     * @return the ticket associated with the document and whether it was created by this call
+     */
+    public TicketAssignment storeDocumentOrGetTicket(Document document) {
+        if (!deduplicate) {
+            return new TicketAssignment(storeDocumentAndCreateTicket(document), true);
+        }
+        boolean[] created = new boolean[1];
+        long[] position = new long[1];
+        Integer ticket = documentsToTickets.computeIfAbsent(DocumentKey.of(document), key -> {
+            created[0] = true;
+            return createTicket(document, position);
+        });
+        if (created[0]) {
+            // wait outside of the computation so that nothing else in the map waits along
+            journal.awaitDurable(position[0]);
+        } else {
+            reuseLog.info("Reusing ticket {} for document {}.", ticket, document);
+        }
+        return new TicketAssignment(ticket, created[0]);
+    }
+
+    /**
+     * Store a batch of {@link Document}s at once. The tickets of the new documents are reserved from a single shard as
+     * a range of its tickets in one atomic step. With deduplication on, documents that have been stored before (or appear more than once
+     * in the batch) get back their existing ticket; a ticket of the range reserved for such a document is left unused.
+     *
+     * @param documents the documents to store
+     * @return the ticket of every document, in the order of the documents
+     */
+    public List<TicketAssignment> storeDocumentsOrGetTickets(List<? extends Document> documents) {
+        List<TicketAssignment> assignments = new ArrayList<>(documents.size());
+        DocumentKey[] keys = new DocumentKey[documents.size()];
+        int newDocuments = 0;
+        for (int i = 0; i < documents.size(); i++) {
+            Integer existing = null;
+            if (deduplicate) {
+                keys[i] = DocumentKey.of(documents.get(i));
+                existing = documentsToTickets.get(keys[i]);
+            }
+            if (existing == null) {
+                newDocuments++;
+            }
+            assignments.add(existing == null ? null : new TicketAssignment(existing, false));
+        }
+
+        int stride = ticketIds.getStride();
+        int ticket = ticketIds.reserve(newDocuments) - stride;
+        long position = 0;
+        for (int i = 0; i < documents.size(); i++) {
+            if (assignments.get(i) != null) {
+                continue;
+            }
+            ticket += stride;
+            Integer existing = deduplicate ? documentsToTickets.putIfAbsent(keys[i], ticket) : null;
+            if (existing != null) {
+                assignments.set(i, new TicketAssignment(existing, false));
+            } else {
+                ticketsToDocuments.putIfAbsent(ticket, documents.get(i));
+                pendingTickets.increment();
+                position = journal.created(ticket, documents.get(i));
+                assignments.set(i, new TicketAssignment(ticket, true));
+            }
+        }
+        journal.awaitDurable(position);
+
+        log.info("Reserved {} tickets up to {} for a batch of {} documents.", newDocuments, ticket, documents.size());
+        return assignments;
+    }
+
     /**
      * Store a {@link Document} AFTER it has been watermarked. Some basic validation is
      * done by means of checking the watermark property of the previous and the passed document.
      *
+     * Nothing is stored if the ticket doesn't exist (any more), e.g. because it has been cancelled meanwhile.
+     *
      * @param ticket the ticket id for the document that has just been watermarked
      * @param document the new watermarked document - book or journal.
      * @return true if the document is found to be in a valid state and validation succeeds.
      */
     public boolean storeDocumentForTicket(Integer ticket, Document document) {
-        Document previousDocument = ticketsToDocuments.put(ticket, document);
+        Document previousDocument = ticketsToDocuments.replace(ticket, document);
+
+        if (validate(previousDocument, document)) {
+            pendingTickets.decrement();
+            journal.completed(ticket);
+            retention.completed(ticket);
+            if (listeners.complete(ticket, document.getWatermark().get())) {
+                retention.collected(ticket);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forget about a ticket and its document, e.g. when the document can't be watermarked after all
+     *
+     * @param ticket the ticket id to remove
+     * @return true if there was a document associated with the ticket
+     */
+    public boolean removeTicket(Integer ticket) {
+        Document document = ticketsToDocuments.remove(ticket);
+        if (document == null) {
+            return false;
+        }
+        if (!document.getWatermark().isPresent()) {
+            pendingTickets.decrement();
+        }
+        forget(ticket, document);
+        return true;
+    }
 
-        return validate(previousDocument, document);
+    /**
+     * Cancel a ticket whose document hasn't been watermarked yet. The ticket and its document are forgotten exactly
+     * like in #removeTicket, while a ticket that has already been completed is left as it is.
+     *
+     * @param ticket the ticket id to cancel
+     * @return true if the ticket was pending and has been cancelled
+     */
+    public boolean cancelTicket(Integer ticket) {
+        Document document = ticketsToDocuments.removeIfNotWatermarked(ticket);
+        if (document == null) {
+            return false;
+        }
+        pendingTickets.decrement();
+        forget(ticket, document);
+        log.info("Cancelled ticket {} for document {}.", ticket, document);
+        return true;
     }
 
     /**
@@ -68,27 +255,297 @@ public class WatermarkStore {
      * @return the watermark for that ticket or null if it doesn't exist or it hasn't yet been created.
      */
     public Watermark getWatermarkForTicket(Integer ticket) {
-        if (isWatermarkCreatedForTicket(ticket)) {
-            return ticketsToDocuments.get(ticket).getWatermark().get();
+        Document document = getWatermarkedDocument(ticket);
+        return document == null ? null : document.getWatermark().get();
+    }
+
+    /**
+     * The same as #getWatermarkForTicket, giving back the whole document
+     *
+     * @return the watermarked document of the ticket or null if it doesn't exist or it hasn't yet been watermarked
+     */
+    public Document getWatermarkedDocument(Integer ticket) {
+        Document document = ticketsToDocuments.get(ticket);
+        if (document != null && document.getWatermark().isPresent()) {
+            retention.collected(ticket);
+            return document;
         }
         return null;
     }
 
-    private boolean isWatermarkCreatedForTicket(Integer ticket) {
-        return ticketsToDocuments.get(ticket) != null && ticketsToDocuments.get(ticket).getWatermark().isPresent();
+    /**
+     * Take note that the watermark of a completed ticket has been handed out, as #getWatermarkedDocument does, when
+     * the watermark is retrieved from elsewhere than the store
+     */
+    public void watermarkCollected(int ticket) {
+        retention.collected(ticket);
+    }
+
+    /**
+     * @return true if the ticket exists, whether it has been watermarked or not
+     */
+    public boolean hasTicket(int ticket) {
+        return ticketsToDocuments.get(ticket) != null;
+    }
+
+    /**
+     * @return the number of tickets that haven't been watermarked yet
+     */
+    public long getPendingTickets() {
+        return pendingTickets.sum();
+    }
+
+    /**
+     * @return the node of the {@link Cluster} that handed out the ticket, whether the ticket exists or not
+     */
+    public int getNodeForTicket(int ticket) {
+        return ticketIds.nodeOf(ticket);
+    }
+
+    /**
+     * @return true if the ticket was completed but it has been evicted since
+     */
+    public boolean isExpired(Integer ticket) {
+        return expiredTickets.get(ticket);
+    }
+
+    /**
+     * Evict the completed tickets that are due according to the {@link TicketRetention}. Their documents are
+     * forgotten, so the same document gets a new ticket the next time it's received.
+     * Only one eviction must run at a time.
+     *
+     * @return the number of tickets evicted
+     */
+    public int evictExpiredTickets() {
+        int evicted = retention.sweep(ticketsToDocuments::size, this::expire);
+        if (evicted > 0) {
+            log.info("Evicted {} expired tickets.", evicted);
+        }
+        return evicted;
+    }
+
+    /**
+     * Get notified of every ticket that goes away, whether it's removed, cancelled or evicted, to let go of anything
+     * else that is kept for it. The listener is invoked by the thread that removes the ticket and replaces any
+     * listener set before.
+     */
+    public void onTicketRemoved(IntConsumer listener) {
+        this.removalListener = listener;
+    }
+
+    /**
+     * Get notified once the watermark for a ticket is created. The listener is invoked exactly once (unless the
+     * subscription is cancelled first) by the thread that stores the watermark, or right away by the calling thread
+     * if the watermark is already there or the ticket doesn't exist.
+     *
+     * @param ticket the ticket id to wait for
+     * @param listener receives the watermark, or null if there is no such ticket (any more)
+     * @return the subscription that can be cancelled when there is no interest in the watermark any more
+     */
+    public Subscription onWatermarkCreated(Integer ticket, Consumer<Watermark> listener) {
+        CompletionListeners.Listener registered = listeners.add(ticket, listener);
+        // the watermark might have been stored before the listener was added
+        Document document = ticketsToDocuments.get(ticket);
+        if (document == null || document.getWatermark().isPresent()) {
+            registered.fire(document == null ? null : document.getWatermark().get());
+            registered.cancel();
+            if (document != null) {
+                retention.collected(ticket);
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * @return the number of tickets for which someone waits to be notified
+     */
+    public int getAwaitedTickets() {
+        return listeners.size();
+    }
+
+    /**
+     * Look up a number of tickets in one pass. Every ticket is resolved with a single read of the store and handed
+     * over to the visitor before moving on to the next one, so that nothing is accumulated in memory.
+     *
+     * @param tickets the tickets to look up
+     * @param visitor receives the status and the watermark (if any) of every ticket, in the order of the tickets
+     */
+    public void lookupTickets(PrimitiveIterator.OfInt tickets, TicketVisitor visitor) {
+        while (tickets.hasNext()) {
+            int ticket = tickets.nextInt();
+            Document document = ticketsToDocuments.get(ticket);
+            if (document == null) {
+                visitor.visit(ticket, expiredTickets.get(ticket) ? TicketStatus.EXPIRED : TicketStatus.UNKNOWN, null);
+            } else if (document.getWatermark().isPresent()) {
+                retention.collected(ticket);
+                visitor.visit(ticket, TicketStatus.COMPLETED, document.getWatermark().get());
+            } else {
+                visitor.visit(ticket, TicketStatus.PENDING, null);
+            }
+        }
+    }
+
+    /**
+     * Give back the tickets that were still waiting for their watermark when the store was rebuilt from the journal.
+     * This can only be done once, any later call finds nothing.
+     *
+     * @param visitor receives every recovered ticket that is still pending along with its document
+     */
+    public void takeRecoveredTickets(BiConsumer<Integer, Document> visitor) {
+        BitSet tickets;
+        synchronized (this) {
+            tickets = recoveredTickets;
+            recoveredTickets = null;
+        }
+        if (tickets == null) {
+            return;
+        }
+        for (int ticket = tickets.nextSetBit(0); ticket >= 0; ticket = tickets.nextSetBit(ticket + 1)) {
+            Document document = ticketsToDocuments.get(ticket);
+            if (document != null && !document.getWatermark().isPresent()) {
+                visitor.accept(ticket, document);
+            }
+        }
+    }
+
+    /**
+     * Take a snapshot of all the tickets in the journal (if there is one) so that the store can be rebuilt
+     * from it instead of the whole journal. The store keeps on serving requests meanwhile.
+     *
+     * @return true if a snapshot was taken, false if there was nothing new to take one of
+     */
+    public boolean snapshot() {
+        return journal.snapshot(new TicketSnapshotSource() {
+            @Override
+            public int getLastTicket() {
+                return ticketIds.last();
+            }
+
+            @Override
+            public void forEachTicket(ObjIntConsumer<Document> consumer) {
+                ticketsToDocuments.forEach(consumer);
+            }
+
+            @Override
+            public void forEachExpiredTicket(IntConsumer consumer) {
+                expiredTickets.forEach(consumer);
+            }
+        });
+    }
+
+    private int createTicket(Document document, long[] position) {
+        int ticket = ticketIds.next();
+        ticketsToDocuments.putIfAbsent(ticket, document);
+        pendingTickets.increment();
+        position[0] = journal.created(ticket, document);
+
+        createLog.info("Creating ticket {} for document {}.", ticket, document);
+        return ticket;
+    }
+
+    /**
+     * Rebuild the tickets, the documents and the ticket ids from the journal
+     */
+    private void recover() {
+        BitSet pending = new BitSet();
+        journal.replay(new TicketJournalVisitor() {
+            @Override
+            public void lastTicket(int ticket) {
+                ticketIds.advanceAllPast(ticket);
+            }
+
+            @Override
+            public void created(int ticket, Document document) {
+                ticketsToDocuments.put(ticket, document);
+                if (deduplicate) {
+                    documentsToTickets.put(DocumentKey.of(document), ticket);
+                }
+                ticketIds.advancePast(ticket);
+                pending.set(ticket);
+            }
+
+            @Override
+            public void completed(int ticket) {
+                Document document = ticketsToDocuments.get(ticket);
+                if (document != null && !document.getWatermark().isPresent()) {
+                    ticketsToDocuments.put(ticket, document.withWatermark(Watermark.createFor(document)));
+                }
+                pending.clear(ticket);
+            }
+
+            @Override
+            public void removed(int ticket) {
+                Document document = ticketsToDocuments.remove(ticket);
+                if (document != null) {
+                    documentsToTickets.remove(DocumentKey.of(document), ticket);
+                }
+                pending.clear(ticket);
+            }
+
+            @Override
+            public void expired(int ticket) {
+                removed(ticket);
+                expiredTickets.set(ticket);
+            }
+        });
+        // the completion times are lost, so the recovered tickets are retained as if they had just been completed
+        ticketsToDocuments.forEach((document, ticket) -> {
+            if (document.getWatermark().isPresent()) {
+                retention.completed(ticket);
+            }
+        });
+        int lastTicket = ticketIds.last();
+        if (lastTicket > 0) {
+            log.info("Recovered {} tickets up to {} from the journal, {} of them still pending.",
+                    ticketsToDocuments.size(), lastTicket, pending.cardinality());
+        }
+        pendingTickets.add(pending.cardinality());
+        synchronized (this) {
+            recoveredTickets = pending;
+        }
+    }
+
+    /**
+     * Export the number of tickets in the store and how many of them are pending as watermark.store.tickets and
+     * watermark.store.pending
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("watermark.store.tickets", ticketsToDocuments, TicketStore::size).register(registry);
+        Gauge.builder("watermark.store.pending", pendingTickets, LongAdder::sum).register(registry);
+    }
+
+    private boolean expire(int ticket) {
+        Document document = ticketsToDocuments.get(ticket);
+        // pending tickets are never evicted, and a completed ticket doesn't change any more but to go away
+        if (document == null || !document.getWatermark().isPresent() || ticketsToDocuments.remove(ticket) == null) {
+            return false;
+        }
+        expiredTickets.set(ticket);
+        journal.expired(ticket);
+        documentsToTickets.remove(DocumentKey.of(document), ticket);
+        removalListener.accept(ticket);
+        return true;
+    }
+
+    private void forget(Integer ticket, Document document) {
+        journal.removed(ticket);
+        documentsToTickets.remove(DocumentKey.of(document), ticket);
+        removalListener.accept(ticket);
+        listeners.complete(ticket, null);
     }
 
     private boolean validate(Document previousDocument, Document document) {
         if (previousDocument == null) {
-            log.warn("ThreadId {} -- Attempting to store the ticket associated with a non-existing document", Thread.currentThread().getId());
+            log.warn("ThreadId {} -- Attempting to store the ticket associated with a non-existing document", Thread.currentThread().threadId());
             return false;
         }
         if (previousDocument.getWatermark().isPresent()) {
-            log.warn("ThreadId {} -- Attempting to store the ticket associated with a document that's previously already watermarked {}", Thread.currentThread().getId(), document.getTitle());
+            log.warn("ThreadId {} -- Attempting to store the ticket associated with a document that's previously already watermarked {}", Thread.currentThread().threadId(), document.getTitle());
             return false;
         }
         if (!document.getWatermark().isPresent()) {
-            log.warn("ThreadId {} -- Attempting to store a non watermarked document", Thread.currentThread().getId());
+            log.warn("ThreadId {} -- Attempting to store a non watermarked document", Thread.currentThread().threadId());
             return false;
         }
         return true;
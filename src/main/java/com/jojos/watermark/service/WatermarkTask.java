@@ -0,0 +1,106 @@
+package com.jojos.watermark.service;
+
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * A watermark task as queued by the {@link WatermarkQueue}: the task itself along with the flow it's queued in, its
+ * cost and its deadline, as handed out by the {@link WatermarkScheduler}.
+ *
+ * A task that is run past its deadline runs its onExpired instead.
+ *
+ * @author gkaranikas
+ */
+final class WatermarkTask implements Runnable {
+
+    /**
+     * The queue of a priority class and a client
+     */
+    record Flow(WatermarkPriority priority, String client) {
+    }
+
+    // what a plain Runnable is queued as
+    private static final Flow UNSCHEDULED = new Flow(WatermarkPriority.INTERACTIVE, "");
+
+    private final Runnable task;
+    private final Flow flow;
+    private final int cost;
+    private final double weight;
+    private final long deadline;
+    private final LongSupplier clock;
+    private final Runnable onExpired;
+
+    // assigned by the queue
+    double startTag;
+    long sequence;
+
+    /**
+     * @param cost the number of documents the task watermarks
+     * @param weight the share of the flow, the larger the sooner its tasks run
+     * @param deadline the System#nanoTime the task has to start by, or 0 for none
+     * @param clock the System#nanoTime
+     * @param onExpired run instead of the task once it's past its deadline
+     */
+    WatermarkTask(Runnable task, Flow flow, int cost, double weight, long deadline, LongSupplier clock,
+                  Runnable onExpired) {
+        this.task = Objects.requireNonNull(task);
+        this.flow = flow;
+        this.cost = Math.max(cost, 1);
+        this.weight = weight;
+        this.deadline = deadline;
+        this.clock = clock;
+        this.onExpired = onExpired;
+    }
+
+    /**
+     * @return the task as it is if it's a watermark task already, otherwise an interactive one without a deadline
+     */
+    static WatermarkTask of(Runnable task) {
+        if (task instanceof WatermarkTask) {
+            return (WatermarkTask) task;
+        }
+        return new WatermarkTask(task, UNSCHEDULED, 1, 1, 0, System::nanoTime, null);
+    }
+
+    Flow getFlow() {
+        return flow;
+    }
+
+    WatermarkPriority getPriority() {
+        return flow.priority();
+    }
+
+    /**
+     * @return how far the task moves its flow ahead in the virtual time of the queue
+     */
+    double getLength() {
+        return cost / weight;
+    }
+
+    /**
+     * @return whether the task expires at all, a task without an onExpired never does
+     */
+    boolean hasDeadline() {
+        return onExpired != null && deadline != 0;
+    }
+
+    /**
+     * @return whether the deadline of the task comes before the one of another, both of them having one
+     */
+    boolean expiresBefore(WatermarkTask other) {
+        return deadline - other.deadline < 0;
+    }
+
+    boolean isExpired() {
+        return hasDeadline() && clock.getAsLong() - deadline > 0;
+    }
+
+    @Override
+    public void run() {
+        if (isExpired()) {
+            onExpired.run();
+        } else {
+            task.run();
+        }
+    }
+}
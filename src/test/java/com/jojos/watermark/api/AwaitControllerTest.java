@@ -0,0 +1,150 @@
+package com.jojos.watermark.api;
+
+import com.jojos.watermark.domain.Content;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.MockMvcPrint;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Integration test for waiting on watermarks: creating and awaiting a watermark, long-polling a ticket, polling
+ * with an ETag, streaming server-sent events for many tickets and cancelling tickets.
+ *
+ * The tests don't run in a fixed order so no assumption is made on the actual ticket numbers.
+ *
+ * @author gkaranikas
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "watermark.await.max-wait-seconds=10")
+@AutoConfigureMockMvc(print = MockMvcPrint.LOG_DEBUG)
+@DirtiesContext
+public class AwaitControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void testLongPollWatermark() throws Exception {
+        String ticket = createJournal("Long Poll Journal");
+
+        MvcResult result = mockMvc.perform(get("/watermark/get").param("ticket", ticket).param("wait", "30")).
+                andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(result)).
+                andExpect(status().isOk()).
+                andExpect(jsonPath("$.content").value(Content.Journal.name())).
+                andExpect(jsonPath("$.title").value("Long Poll Journal"));
+    }
+
+    @Test
+    public void testLongPollUnknownTicket() throws Exception {
+        MvcResult result = mockMvc.perform(get("/watermark/get").param("ticket", Integer.toString(Integer.MAX_VALUE)).param("wait", "30")).
+                andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(result)).
+                andExpect(status().isOk()).
+                andExpect(content().string(""));
+    }
+
+    @Test
+    public void testStreamWatermarkEvents() throws Exception {
+        String first = createJournal("Event Journal 1");
+        String second = createJournal("Event Journal 2");
+        String unknown = Integer.toString(Integer.MAX_VALUE);
+
+        MvcResult result = mockMvc.perform(get("/watermark/events").param("tickets", first + "," + second + "," + unknown).
+                accept(MediaType.TEXT_EVENT_STREAM)).
+                andExpect(request().asyncStarted()).andReturn();
+        result.getAsyncResult(10_000);
+
+        String events = result.getResponse().getContentAsString();
+        Assert.assertTrue(events, events.contains("id:" + first + "\nevent:watermark\n"));
+        Assert.assertTrue(events, events.contains("id:" + second + "\nevent:watermark\n"));
+        Assert.assertTrue(events, events.contains("id:" + unknown + "\nevent:watermark\n"));
+        Assert.assertTrue(events, events.contains("\"title\":\"Event Journal 1\""));
+        Assert.assertTrue(events, events.contains("\"title\":\"Event Journal 2\""));
+        Assert.assertTrue(events, events.contains("\"status\":\"UNKNOWN\""));
+    }
+
+    @Test
+    public void testCreateAndAwaitWatermark() throws Exception {
+        String body = "{\"title\":\"Awaited Book\",\"author\":{\"firstName\":\"Jane\",\"lastName\":\"Doe\"},\"topic\":\"Business\"}";
+        MvcResult result = mockMvc.perform(post("/watermark/create").param("wait", "30").
+                contentType(MediaType.APPLICATION_JSON).content(body)).
+                andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(result)).
+                andExpect(status().isOk()).
+                andExpect(header().string("Server-Timing", containsString("watermark;dur="))).
+                andExpect(jsonPath("$.ticket").isNumber()).
+                andExpect(jsonPath("$.status").value("COMPLETED")).
+                andExpect(jsonPath("$.watermark.content").value(Content.Book.name())).
+                andExpect(jsonPath("$.watermark.title").value("Awaited Book"));
+
+        // the same document again reuses the completed ticket
+        result = mockMvc.perform(post("/watermark/create").param("wait", "30").
+                contentType(MediaType.APPLICATION_JSON).content(body)).
+                andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(result)).
+                andExpect(status().isOk()).
+                andExpect(jsonPath("$.status").value("COMPLETED"));
+    }
+
+    @Test
+    public void testPollWithETag() throws Exception {
+        String ticket = createJournal("Tagged Journal");
+        awaitWatermark(ticket);
+
+        String eTag = mockMvc.perform(get("/watermark/get").param("ticket", ticket)).
+                andExpect(status().isOk()).
+                andExpect(header().string("ETag", startsWith("\""))).
+                andExpect(jsonPath("$.title").value("Tagged Journal")).
+                andReturn().getResponse().getHeader("ETag");
+        mockMvc.perform(get("/watermark/get").param("ticket", ticket).header("If-None-Match", eTag)).
+                andExpect(status().isNotModified()).
+                andExpect(content().string(""));
+        mockMvc.perform(get("/watermark/get").param("ticket", ticket).header("If-None-Match", "\"stale\"")).
+                andExpect(status().isOk()).
+                andExpect(header().string("ETag", eTag));
+    }
+
+    @Test
+    public void testCancelCompletedOrUnknownTicket() throws Exception {
+        String ticket = createJournal("Cancelled Journal");
+        awaitWatermark(ticket);
+
+        mockMvc.perform(post("/watermark/cancel").param("ticket", ticket)).andExpect(status().isNotFound());
+        mockMvc.perform(post("/watermark/cancel").param("ticket", Integer.toString(Integer.MAX_VALUE))).
+                andExpect(status().isNotFound());
+    }
+
+    private void awaitWatermark(String ticket) throws Exception {
+        MvcResult result = mockMvc.perform(get("/watermark/get").param("ticket", ticket).param("wait", "30")).andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(jsonPath("$.title").exists());
+    }
+
+    private String createJournal(String title) throws Exception {
+        return mockMvc.perform(get("/watermark/create").
+                param("title", title).
+                param("authorFirstName", "Akio").
+                param("authorLastName", "Suzuki")).
+                andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    }
+
+}
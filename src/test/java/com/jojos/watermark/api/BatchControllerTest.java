@@ -0,0 +1,153 @@
+package com.jojos.watermark.api;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jojos.watermark.domain.Content;
+import com.jojos.watermark.domain.Topic;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.MockMvcPrint;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.List;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Integration test for the batch operations of the api: creating watermarks and looking up tickets in bulk.
+ *
+ * The tests don't run in a fixed order so no assumption is made on the actual ticket numbers.
+ *
+ * @author gkaranikas
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "watermark.batch.max-size=5")
+@AutoConfigureMockMvc(print = MockMvcPrint.LOG_DEBUG)
+@DirtiesContext
+public class BatchControllerTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void testPostBatchJsonArray() throws Exception {
+        String body = "[" +
+                "{\"title\":\"Batch Book\",\"author\":{\"firstName\":\"Jane\",\"lastName\":\"Doe\"},\"topic\":\"Media\"}," +
+                "{\"title\":\"Batch Journal\",\"author\":{\"firstName\":\"John\",\"lastName\":\"Doe\"}}," +
+                "{\"title\":\"Batch Book\",\"author\":{\"firstName\":\"Jane\",\"lastName\":\"Doe\"},\"topic\":\"Media\"}" +
+                "]";
+        List<Integer> tickets = postBatch(MediaType.APPLICATION_JSON, body);
+
+        Assert.assertEquals(3, tickets.size());
+        Assert.assertEquals(tickets.get(0) + 1, (int) tickets.get(1));
+        // the same document within a batch gets the same ticket
+        Assert.assertEquals(tickets.get(0), tickets.get(2));
+
+        awaitWatermark(tickets.get(0));
+        mockMvc.perform(get("/watermark/get").param("ticket", tickets.get(0).toString())).
+                andExpect(jsonPath("$.content").value(Content.Book.name())).
+                andExpect(jsonPath("$.title").value("Batch Book")).
+                andExpect(jsonPath("$.topic").value(Topic.Media.name()));
+        awaitWatermark(tickets.get(1));
+        mockMvc.perform(get("/watermark/get").param("ticket", tickets.get(1).toString())).
+                andExpect(jsonPath("$.content").value(Content.Journal.name())).
+                andExpect(jsonPath("$.title").value("Batch Journal"));
+    }
+
+    @Test
+    public void testPostBatchNdJson() throws Exception {
+        String body = "{\"title\":\"Stream Journal 1\",\"author\":{\"firstName\":\"A\",\"lastName\":\"B\"}}\n" +
+                "{\"title\":\"Stream Journal 2\",\"author\":{\"firstName\":\"A\",\"lastName\":\"B\"}}\n";
+        List<Integer> tickets = postBatch(MediaType.APPLICATION_NDJSON, body);
+        Assert.assertEquals(2, tickets.size());
+
+        // sending the batch again gives back the same tickets
+        Assert.assertEquals(tickets, postBatch(MediaType.APPLICATION_NDJSON, body));
+    }
+
+    @Test
+    public void testPostBatchTooLarge() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            body.append("{\"title\":\"Too Many ").append(i).append("\",\"author\":{\"firstName\":\"A\",\"lastName\":\"B\"}}\n");
+        }
+        mockMvc.perform(post("/watermark/batch").contentType(MediaType.APPLICATION_NDJSON).content(body.toString())).
+                andExpect(status().isPayloadTooLarge());
+    }
+
+    @Test
+    public void testPostInvalidDocuments() throws Exception {
+        String invalid = "{\"title\":\"Fiction\",\"author\":{\"firstName\":\"A\",\"lastName\":\"B\"},\"topic\":\"Fiction\"}";
+        mockMvc.perform(post("/watermark/create").contentType(MediaType.APPLICATION_JSON).content(invalid)).
+                andExpect(status().isBadRequest());
+        mockMvc.perform(post("/watermark/batch").contentType(MediaType.APPLICATION_JSON).content("[" + invalid + "]")).
+                andExpect(status().isBadRequest());
+        mockMvc.perform(post("/watermark/batch").contentType(MediaType.APPLICATION_NDJSON).content(invalid + "\n")).
+                andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testLookupTicketRanges() throws Exception {
+        String body = "{\"title\":\"Lookup Journal 1\",\"author\":{\"firstName\":\"A\",\"lastName\":\"B\"}}\n" +
+                "{\"title\":\"Lookup Journal 2\",\"author\":{\"firstName\":\"A\",\"lastName\":\"B\"}}\n";
+        List<Integer> tickets = postBatch(MediaType.APPLICATION_NDJSON, body);
+        awaitWatermark(tickets.get(0));
+        awaitWatermark(tickets.get(1));
+
+        int unknown = Integer.MAX_VALUE;
+        mockMvc.perform(get("/watermark/get").param("tickets", tickets.get(0) + "-" + tickets.get(1) + "," + unknown)).
+                andExpect(status().isOk()).
+                andExpect(jsonPath("$.length()").value(3)).
+                andExpect(jsonPath("$[0].ticket").value(tickets.get(0))).
+                andExpect(jsonPath("$[0].status").value("COMPLETED")).
+                andExpect(jsonPath("$[0].watermark.title").value("Lookup Journal 1")).
+                andExpect(jsonPath("$[1].ticket").value(tickets.get(1))).
+                andExpect(jsonPath("$[1].watermark.title").value("Lookup Journal 2")).
+                andExpect(jsonPath("$[2].ticket").value(unknown)).
+                andExpect(jsonPath("$[2].status").value("UNKNOWN")).
+                andExpect(jsonPath("$[2].watermark").doesNotExist());
+
+        mockMvc.perform(post("/watermark/get").contentType(MediaType.APPLICATION_JSON).content("[" + unknown + "," + tickets.get(1) + "]")).
+                andExpect(status().isOk()).
+                andExpect(jsonPath("$[0].status").value("UNKNOWN")).
+                andExpect(jsonPath("$[1].status").value("COMPLETED")).
+                andExpect(jsonPath("$[1].watermark.author").value("A B"));
+    }
+
+    @Test
+    public void testLookupInvalidTicketRanges() throws Exception {
+        mockMvc.perform(get("/watermark/get").param("tickets", "5-1")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/watermark/get").param("tickets", "a-b")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/watermark/get").param("tickets", "1-6")).andExpect(status().isPayloadTooLarge());
+    }
+
+    private List<Integer> postBatch(MediaType mediaType, String body) throws Exception {
+        String content = mockMvc.perform(post("/watermark/batch").contentType(mediaType).content(body)).
+                andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        return mapper.readValue(content, new TypeReference<List<Integer>>() {});
+    }
+
+    private void awaitWatermark(int ticket) throws Exception {
+        for (int retries = 0; retries < 50; retries++) {
+            if (!mockMvc.perform(get("/watermark/get").param("ticket", Integer.toString(ticket))).
+                    andReturn().getResponse().getContentAsString().isEmpty()) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        Assert.fail("No watermark for ticket " + ticket);
+    }
+
+}
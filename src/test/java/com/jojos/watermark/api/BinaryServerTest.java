@@ -0,0 +1,127 @@
+package com.jojos.watermark.api;
+
+import com.jojos.watermark.data.DocumentCodec;
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Integration test of the binary protocol of the {@link BinaryServer}
+ *
+ * @author gkaranikas
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"watermark.binary.enabled=true", "watermark.binary.port=0"})
+@DirtiesContext
+public class BinaryServerTest {
+
+    @Autowired
+    private BinaryServer server;
+
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private int payloadLength;
+
+    @Before
+    public void setUp() throws IOException {
+        socket = new Socket("localhost", server.getPort());
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        socket.close();
+    }
+
+    @Test
+    public void testPipelinedCreateAndGet() throws Exception {
+        // every request is written before reading any response
+        send(1, BinaryServer.CREATE, DocumentCodec.encode(new Book("Binary Book", new Author("Jane", "Doe"), Topic.Media)));
+        send(2, BinaryServer.CREATE, DocumentCodec.encode(new Journal("Binary Journal", new Author("John", "Doe"))));
+        send(3, BinaryServer.GET, ByteBuffer.allocate(Integer.BYTES).putInt(Integer.MAX_VALUE).array());
+        send(4, (byte) 42, new byte[0]);
+        out.flush();
+
+        int book = ByteBuffer.wrap(receive(1, BinaryServer.OK)).getInt();
+        int journal = ByteBuffer.wrap(receive(2, BinaryServer.OK)).getInt();
+        Assert.assertEquals(book + 1, journal);
+        Assert.assertEquals(0, receive(3, BinaryServer.UNKNOWN).length);
+        Assert.assertEquals(0, receive(4, BinaryServer.INVALID).length);
+
+        String watermark = awaitWatermark(5, book);
+        Assert.assertTrue(watermark, watermark.contains("\"title\":\"Binary Book\""));
+        Assert.assertTrue(watermark, watermark.contains("\"topic\":\"Media\""));
+    }
+
+    @Test
+    public void testInvalidDocument() throws Exception {
+        send(1, BinaryServer.CREATE, new byte[] {1, 99});
+        send(2, BinaryServer.GET, new byte[] {1});
+        out.flush();
+        receive(1, BinaryServer.INVALID);
+        receive(2, BinaryServer.INVALID);
+    }
+
+    private String awaitWatermark(int requestId, int ticket) throws Exception {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            send(requestId, BinaryServer.GET, ByteBuffer.allocate(Integer.BYTES).putInt(ticket).array());
+            out.flush();
+            Assert.assertEquals(requestId, readHeader());
+            byte status = in.readByte();
+            byte[] payload = readPayload();
+            if (status == BinaryServer.COMPLETED) {
+                return new String(payload, StandardCharsets.UTF_8);
+            }
+            Assert.assertEquals(BinaryServer.PENDING, status);
+            Thread.sleep(500);
+        }
+        throw new AssertionError("Ticket " + ticket + " was not watermarked in time");
+    }
+
+    private void send(int requestId, byte operation, byte[] payload) throws IOException {
+        out.writeInt(Integer.BYTES + 1 + payload.length);
+        out.writeInt(requestId);
+        out.writeByte(operation);
+        out.write(payload);
+    }
+
+    private byte[] receive(int requestId, byte status) throws IOException {
+        Assert.assertEquals(requestId, readHeader());
+        Assert.assertEquals(status, in.readByte());
+        return readPayload();
+    }
+
+    private int readHeader() throws IOException {
+        payloadLength = in.readInt() - Integer.BYTES - 1;
+        return in.readInt();
+    }
+
+    private byte[] readPayload() throws IOException {
+        byte[] payload = new byte[payloadLength];
+        in.readFully(payload);
+        return payload;
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.jojos.watermark.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Integration test of the {@link ClusterForwardingFilter} on node 0 of a cluster of 3 nodes, where node 1 is a stub
+ * recording the requests it gets and node 2 can't be reached. With a single shard node 0 hands out the tickets 1, 4,
+ * 7..., node 1 the tickets 2, 5, 8... and node 2 the tickets 3, 6, 9... Node 1 answers every lookup of tickets with
+ * PENDING.
+ *
+ * @author gkaranikas
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"watermark.cluster.enabled=true", "watermark.cluster.node-id=0"})
+@DirtiesContext
+public class ClusterForwardingFilterTest {
+
+    private static final Queue<String> forwarded = new ConcurrentLinkedQueue<>();
+    private static HttpServer node1;
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @DynamicPropertySource
+    static void clusterNodes(DynamicPropertyRegistry registry) throws IOException {
+        node1 = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        node1.createContext("/watermark/", exchange -> {
+            Headers headers = exchange.getRequestHeaders();
+            forwarded.add(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " " +
+                    headers.getFirst(ClusterForwardingFilter.FORWARDED_BY) + " " + headers.getFirst("If-None-Match"));
+            if (exchange.getRequestURI().getPath().equals("/watermark/cancel")) {
+                exchange.sendResponseHeaders(204, -1);
+            } else if (exchange.getRequestMethod().equals("POST")) {
+                int[] tickets = new ObjectMapper().readValue(exchange.getRequestBody(), int[].class);
+                forwarded.add(Arrays.toString(tickets));
+                byte[] body = Arrays.stream(tickets).
+                        mapToObj(ticket -> "{\"ticket\":" + ticket + ",\"status\":\"PENDING\"}").
+                        collect(Collectors.joining(",", "[", "]")).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } else {
+                byte[] body = "{\"title\":\"Forwarded\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+                exchange.getResponseHeaders().set("ETag", "\"node1\"");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        node1.start();
+        int unreachable;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            unreachable = socket.getLocalPort();
+        }
+        registry.add("watermark.cluster.nodes", () -> "http://localhost:1,http://localhost:" +
+                node1.getAddress().getPort() + ",http://localhost:" + unreachable);
+    }
+
+    @AfterClass
+    public static void stopNodes() {
+        node1.stop(0);
+    }
+
+    @Before
+    public void setUp() {
+        forwarded.clear();
+    }
+
+    @Test
+    public void testOwnTicketIsServedLocally() throws Exception {
+        HttpResponse<String> created = send(HttpRequest.newBuilder(
+                uri("/watermark/create?title=Cluster&authorFirstName=Akio&authorLastName=Suzuki")).GET());
+        int ticket = Integer.parseInt(created.body());
+        Assert.assertEquals(1, ticket % 3);
+
+        Assert.assertEquals(200, send(HttpRequest.newBuilder(uri("/watermark/get?ticket=" + ticket)).GET()).statusCode());
+        Assert.assertTrue(forwarded.isEmpty());
+    }
+
+    @Test
+    public void testTicketOfAnotherNodeIsForwarded() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/watermark/get?ticket=5&wait=1")).
+                header("If-None-Match", "\"other\"").GET());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("{\"title\":\"Forwarded\"}", response.body());
+        Assert.assertEquals("\"node1\"", response.headers().firstValue("ETag").orElse(null));
+        Assert.assertEquals("GET /watermark/get?ticket=5&wait=1 0 \"other\"", forwarded.poll());
+
+        Assert.assertEquals(204, send(HttpRequest.newBuilder(uri("/watermark/cancel?ticket=8")).
+                POST(HttpRequest.BodyPublishers.noBody())).statusCode());
+        Assert.assertEquals("POST /watermark/cancel?ticket=8 0 null", forwarded.poll());
+    }
+
+    @Test
+    public void testForwardedRequestIsNotForwardedAgain() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/watermark/get?ticket=5")).
+                header(ClusterForwardingFilter.FORWARDED_BY, "1").GET());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("", response.body());
+        Assert.assertTrue(forwarded.isEmpty());
+    }
+
+    @Test
+    public void testContentDownloadIsRedirected() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/watermark/content?ticket=5")).GET());
+        Assert.assertEquals(307, response.statusCode());
+        Assert.assertEquals("http://localhost:" + node1.getAddress().getPort() + "/watermark/content?ticket=5",
+                response.headers().firstValue("Location").orElse(null));
+        Assert.assertTrue(forwarded.isEmpty());
+    }
+
+    @Test
+    public void testUnreachableNodeIsBadGateway() throws Exception {
+        Assert.assertEquals(502, send(HttpRequest.newBuilder(uri("/watermark/get?ticket=6")).GET()).statusCode());
+    }
+
+    @Test
+    public void testLookupAsksTheNodesOfTheTickets() throws Exception {
+        HttpResponse<String> created = send(HttpRequest.newBuilder(
+                uri("/watermark/create?title=Lookup&authorFirstName=Akio&authorLastName=Suzuki")).GET());
+        int ticket = Integer.parseInt(created.body());
+
+        HttpResponse<String> response = send(HttpRequest.newBuilder(
+                uri("/watermark/get?tickets=5," + ticket + ",2")).GET());
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode tickets = new ObjectMapper().readTree(response.body());
+        Assert.assertEquals(3, tickets.size());
+        Assert.assertEquals(5, tickets.get(0).get("ticket").asInt());
+        Assert.assertEquals("PENDING", tickets.get(0).get("status").asText());
+        Assert.assertEquals(ticket, tickets.get(1).get("ticket").asInt());
+        Assert.assertNotEquals("UNKNOWN", tickets.get(1).get("status").asText());
+        Assert.assertEquals(2, tickets.get(2).get("ticket").asInt());
+        Assert.assertEquals("POST /watermark/get 0 null", forwarded.poll());
+        Assert.assertEquals("[5, 2]", forwarded.poll());
+
+        response = send(HttpRequest.newBuilder(uri("/watermark/get")).header("Content-Type", "application/json").
+                POST(HttpRequest.BodyPublishers.ofString("[" + ticket + ",8]")));
+        Assert.assertEquals(200, response.statusCode());
+        tickets = new ObjectMapper().readTree(response.body());
+        Assert.assertEquals(ticket, tickets.get(0).get("ticket").asInt());
+        Assert.assertEquals(8, tickets.get(1).get("ticket").asInt());
+        Assert.assertEquals("PENDING", tickets.get(1).get("status").asText());
+        Assert.assertEquals("POST /watermark/get 0 null", forwarded.poll());
+        Assert.assertEquals("[8]", forwarded.poll());
+    }
+
+    @Test
+    public void testLookupOfOwnTicketsIsServedLocally() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/watermark/get?tickets=1000,1003")).GET());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("[{\"ticket\":1000,\"status\":\"UNKNOWN\"},{\"ticket\":1003,\"status\":\"UNKNOWN\"}]",
+                response.body());
+        Assert.assertTrue(forwarded.isEmpty());
+    }
+
+    @Test
+    public void testLookupOnUnreachableNodeIsBadGateway() throws Exception {
+        Assert.assertEquals(502, send(HttpRequest.newBuilder(uri("/watermark/get?tickets=1,2,3")).GET()).statusCode());
+    }
+
+    @Test
+    public void testEventsOfOtherNodesAreNotLocal() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/watermark/events?tickets=2,3")).GET());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.body(), response.body().contains("\"ticket\":2,\"status\":\"NOT_LOCAL\""));
+        Assert.assertTrue(response.body(), response.body().contains("\"ticket\":3,\"status\":\"NOT_LOCAL\""));
+        Assert.assertTrue(forwarded.isEmpty());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.jojos.watermark.api;
+
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+import com.jojos.watermark.domain.Watermark;
+import com.jojos.watermark.service.LsbWatermarkEngine;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Integration test of uploading documents with their content and downloading the watermarked content, on a running
+ * tomcat so that the content is sent with sendfile.
+ *
+ * @author gkaranikas
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "watermark.content.max-size-bytes=200000")
+@DirtiesContext
+public class ContentControllerTest {
+
+    private static final int SIZE = 100_000;
+    private static Path directory;
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final byte[] content = randomContent(SIZE);
+
+    @DynamicPropertySource
+    static void contentDirectory(DynamicPropertyRegistry registry) throws IOException {
+        directory = Files.createTempDirectory("watermark-content");
+        registry.add("watermark.content.dir", directory::toString);
+    }
+
+    @AfterClass
+    public static void deleteContents() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testUploadAndDownload() throws Exception {
+        // a stream of unknown length is sent chunked
+        int ticket = create("/watermark/create?title=Stamped&authorFirstName=Akio&authorLastName=Suzuki&topic=Science",
+                "application/octet-stream", HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(content)));
+        awaitWatermark(ticket);
+
+        HttpResponse<byte[]> response = download(ticket, null);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("bytes", response.headers().firstValue("Accept-Ranges").orElse(null));
+        Assert.assertArrayEquals(stamp(new Book("Stamped", new Author("Akio", "Suzuki"), Topic.Science)), response.body());
+    }
+
+    @Test
+    public void testRangeRequests() throws Exception {
+        int ticket = create("/watermark/create?title=Ranges&authorFirstName=Akio&authorLastName=Suzuki",
+                "application/octet-stream", HttpRequest.BodyPublishers.ofByteArray(content));
+        awaitWatermark(ticket);
+        byte[] watermarked = stamp(new Journal("Ranges", new Author("Akio", "Suzuki")));
+
+        HttpResponse<byte[]> range = download(ticket, "bytes=10-19");
+        Assert.assertEquals(206, range.statusCode());
+        Assert.assertEquals("bytes 10-19/" + SIZE, range.headers().firstValue("Content-Range").orElse(null));
+        Assert.assertArrayEquals(Arrays.copyOfRange(watermarked, 10, 20), range.body());
+
+        HttpResponse<byte[]> suffix = download(ticket, "bytes=-5");
+        Assert.assertEquals(206, suffix.statusCode());
+        Assert.assertArrayEquals(Arrays.copyOfRange(watermarked, SIZE - 5, SIZE), suffix.body());
+
+        HttpResponse<byte[]> unsatisfiable = download(ticket, "bytes=" + SIZE + "-");
+        Assert.assertEquals(416, unsatisfiable.statusCode());
+        Assert.assertEquals("bytes */" + SIZE, unsatisfiable.headers().firstValue("Content-Range").orElse(null));
+
+        Assert.assertEquals(200, download(ticket, "lines=1-2").statusCode());
+    }
+
+    @Test
+    public void testMultipartUpload() throws Exception {
+        String boundary = "watermark-boundary";
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"document\"\r\n" +
+                "Content-Type: application/json\r\n\r\n" +
+                "{\"title\":\"Multipart\",\"author\":{\"firstName\":\"Akio\",\"lastName\":\"Suzuki\"},\"topic\":\"Media\"}\r\n" +
+                "--" + boundary + "\r\nContent-Disposition: form-data; name=\"content\"; filename=\"book.pdf\"\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(content);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        int ticket = create("/watermark/create", "multipart/form-data; boundary=" + boundary,
+                HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()));
+        awaitWatermark(ticket);
+        Assert.assertArrayEquals(stamp(new Book("Multipart", new Author("Akio", "Suzuki"), Topic.Media)),
+                download(ticket, null).body());
+    }
+
+    @Test
+    public void testContentTooLarge() throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                        uri("/watermark/create?title=Large&authorFirstName=Akio&authorLastName=Suzuki")).
+                header("Content-Type", "application/octet-stream").
+                POST(HttpRequest.BodyPublishers.ofByteArray(randomContent(300_000))).build(),
+                HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(413, response.statusCode());
+    }
+
+    @Test
+    public void testDocumentWithoutContent() throws Exception {
+        HttpResponse<String> created = client.send(HttpRequest.newBuilder(
+                uri("/watermark/create?title=Plain&authorFirstName=Akio&authorLastName=Suzuki")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        int ticket = Integer.parseInt(created.body());
+        awaitWatermark(ticket);
+
+        Assert.assertEquals(404, download(ticket, null).statusCode());
+        Assert.assertEquals(404, download(Integer.MAX_VALUE, null).statusCode());
+    }
+
+    private int create(String path, String contentType, HttpRequest.BodyPublisher body) throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri(path)).
+                header("Content-Type", contentType).POST(body).build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(response.body(), 200, response.statusCode());
+        return Integer.parseInt(response.body());
+    }
+
+    private void awaitWatermark(int ticket) throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                uri("/watermark/get?ticket=" + ticket + "&wait=10")).GET().build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertFalse("Ticket " + ticket + " wasn't watermarked", response.body().isEmpty());
+    }
+
+    private HttpResponse<byte[]> download(int ticket, String range) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri("/watermark/content?ticket=" + ticket)).GET();
+        if (range != null) {
+            request.header("Range", range);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private byte[] stamp(Document document) throws IOException {
+        ByteArrayOutputStream watermarked = new ByteArrayOutputStream();
+        new LsbWatermarkEngine().stamp(Watermark.createFor(document), new ByteArrayInputStream(content), watermarked);
+        return watermarked.toByteArray();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    private static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(7).nextBytes(content);
+        return content;
+    }
+
+}
@@ -61,10 +61,10 @@ public class ControllerTest {
     private static final int concurrentRuns = 5_000;
 
     @Test
-    public void test1_PostCreateWatermarkForBook() throws Exception {
+    public void test01_PostCreateWatermarkForBook() throws Exception {
         Document book = new Book("Dummy Book", new Author("Dick", "Whittington"), Topic.Business);
         MvcResult result = mockMvc.perform(post("/watermark/create").
-                contentType(MediaType.APPLICATION_JSON_UTF8).
+                contentType(MediaType.APPLICATION_JSON).
                 content(convertObjectToJsonBytes(book))).
                 andExpect(status().isOk()).andReturn();
         String content = result.getResponse().getContentAsString();
@@ -72,10 +72,10 @@ public class ControllerTest {
     }
 
     @Test
-    public void test2_PostCreateWatermarkForJournal() throws Exception {
+    public void test02_PostCreateWatermarkForJournal() throws Exception {
         Document document = new Journal("Magnetospheric Multiscale", new Author("Roy", "Torbert"));
         MvcResult result = mockMvc.perform(post("/watermark/create").
-                contentType(MediaType.APPLICATION_JSON_UTF8).
+                contentType(MediaType.APPLICATION_JSON).
                 content(convertObjectToJsonBytes(document))).
                 andExpect(status().isOk()).andReturn();
         String content = result.getResponse().getContentAsString();
@@ -83,19 +83,19 @@ public class ControllerTest {
     }
 
     @Test
-    public void test3_GetCreateWatermarkNoParams() throws Exception {
+    public void test03_GetCreateWatermarkNoParams() throws Exception {
         mockMvc.perform(get("/watermark/create")).
                 andExpect(status().isBadRequest());
     }
 
     @Test
-    public void test4_GetCreateWatermarkLessParams() throws Exception {
+    public void test04_GetCreateWatermarkLessParams() throws Exception {
         mockMvc.perform(get("/watermark/create").param("title", "Earth")).
                 andExpect(status().isBadRequest());
     }
 
     @Test
-    public void test5_GetCreateWatermarkForJournal() throws Exception {
+    public void test05_GetCreateWatermarkForJournal() throws Exception {
         MvcResult result = mockMvc.perform(get("/watermark/create").
                 param("title", "Digital Media").
                 param("authorFirstName", "Elias").
@@ -106,7 +106,7 @@ public class ControllerTest {
     }
 
     @Test
-    public void test6_GetCreateWatermarkForBook() throws Exception {
+    public void test06_GetCreateWatermarkForBook() throws Exception {
         MvcResult result = mockMvc.perform(get("/watermark/create").
                 param("title", "Earth").
                 param("authorFirstName", "Sougamoto").
@@ -117,7 +117,7 @@ public class ControllerTest {
     }
 
     @Test
-    public void test7_GetCreateWatermarkForBookWrongTopic() throws Exception {
+    public void test07_GetCreateWatermarkForBookWrongTopic() throws Exception {
         mockMvc.perform(get("/watermark/create").
                 param("title", "Earth").
                 param("authorFirstName", "Oti").
@@ -126,17 +126,33 @@ public class ControllerTest {
     }
 
     @Test
-    public void test8_GetWaterMarkForTicketNoParams() throws Exception {
+    public void test08_GetCreateWatermarkWithWrongScheduling() throws Exception {
+        mockMvc.perform(get("/watermark/create").
+                param("title", "Moon").
+                param("authorFirstName", "Oti").
+                param("authorLastName", "Katsei").
+                header("X-Watermark-Priority", "urgent")).
+                andExpect(status().isBadRequest());
+        mockMvc.perform(get("/watermark/create").
+                param("title", "Moon").
+                param("authorFirstName", "Oti").
+                param("authorLastName", "Katsei").
+                header("X-Watermark-Deadline-Millis", "0")).
+                andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void test09_GetWaterMarkForTicketNoParams() throws Exception {
         mockMvc.perform(get("/watermark/get")).
                 andExpect(status().isBadRequest());
     }
 
     @Test
-    public void test9_GetWaterMarkForTicketsConcurrent() throws Exception {
+    public void test10_GetWaterMarkForTicketsConcurrent() throws Exception {
         //        assureArtificialDelayPassed();
         mockMvc.perform(get("/watermark/get").param("ticket", "1")).
                 andExpect(status().isOk()).
-                andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8)).
+                andExpect(content().contentType(MediaType.APPLICATION_JSON)).
                 andExpect(jsonPath("$.content").value(Content.Book.name())).
                 andExpect(jsonPath("$.title").value("Dummy Book")).
                 andExpect(jsonPath("$.author").value("Dick Whittington")).
@@ -144,21 +160,21 @@ public class ControllerTest {
 
         mockMvc.perform(get("/watermark/get").param("ticket", "2")).
                 andExpect(status().isOk()).
-                andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8)).
+                andExpect(content().contentType(MediaType.APPLICATION_JSON)).
                 andExpect(jsonPath("$.content").value(Content.Journal.name())).
                 andExpect(jsonPath("$.title").value("Magnetospheric Multiscale")).
                 andExpect(jsonPath("$.author").value("Roy Torbert"));
 
         mockMvc.perform(get("/watermark/get").param("ticket", "3")).
                 andExpect(status().isOk()).
-                andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8)).
+                andExpect(content().contentType(MediaType.APPLICATION_JSON)).
                 andExpect(jsonPath("$.content").value(Content.Journal.name())).
                 andExpect(jsonPath("$.title").value("Digital Media")).
                 andExpect(jsonPath("$.author").value("Elias Rimon"));
 
         mockMvc.perform(get("/watermark/get").param("ticket", "4")).
                 andExpect(status().isOk()).
-                andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8)).
+                andExpect(content().contentType(MediaType.APPLICATION_JSON)).
                 andExpect(jsonPath("$.content").value(Content.Book.name())).
                 andExpect(jsonPath("$.title").value("Earth")).
                 andExpect(jsonPath("$.author").value("Sougamoto Soi")).
@@ -219,7 +235,7 @@ public class ControllerTest {
 
         // if the response is not empty continue normally
         MvcResult result = resultAction.andExpect(status().isOk()).
-                andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8)).
+                andExpect(content().contentType(MediaType.APPLICATION_JSON)).
                 andExpect(jsonPath("$.content").value(Content.Journal.name())).
                 andExpect(jsonPath("$.author").value("Sougamoto Soi")).
                 andReturn();
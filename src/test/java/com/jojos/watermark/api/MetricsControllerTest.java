@@ -0,0 +1,59 @@
+package com.jojos.watermark.api;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.MockMvcPrint;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Integration test for the metrics of the watermark pipeline, as scraped by prometheus
+ *
+ * @author gkaranikas
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc(print = MockMvcPrint.LOG_DEBUG)
+@AutoConfigureObservability
+@DirtiesContext
+public class MetricsControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void testPipelineMetricsAreScraped() throws Exception {
+        mockMvc.perform(post("/watermark/create").contentType(MediaType.APPLICATION_JSON).
+                content("{\"title\":\"Fiction\",\"author\":{\"firstName\":\"A\",\"lastName\":\"B\"},\"topic\":\"Fiction\"}")).
+                andExpect(status().isBadRequest());
+        mockMvc.perform(get("/watermark/create").param("title", "Metrics").
+                param("authorFirstName", "Akio").param("authorLastName", "Suzuki")).
+                andExpect(status().isOk());
+        mockMvc.perform(get("/watermark/create").param("title", "Metrics").
+                param("authorFirstName", "Akio").param("authorLastName", "Suzuki")).
+                andExpect(status().isOk());
+
+        mockMvc.perform(get("/actuator/prometheus")).
+                andExpect(status().isOk()).
+                andExpect(content().string(containsString("watermark_tickets_rejected_total{reason=\"invalid\",} 1.0"))).
+                andExpect(content().string(containsString("watermark_tickets_created_total 1.0"))).
+                andExpect(content().string(containsString("watermark_tickets_deduplicated_total 1.0"))).
+                andExpect(content().string(containsString("watermark_pipeline_seconds_bucket{stage=\"store\""))).
+                andExpect(content().string(containsString("watermark_store_tickets "))).
+                andExpect(content().string(containsString("watermark_admission_limit "))).
+                andExpect(content().string(containsString("watermark_admission_latency_seconds ")));
+    }
+
+}
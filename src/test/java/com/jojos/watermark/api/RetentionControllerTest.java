@@ -0,0 +1,75 @@
+package com.jojos.watermark.api;
+
+import com.jojos.watermark.service.WatermarkStore;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.MockMvcPrint;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Integration test for the eviction of completed tickets. The evictions are triggered by the test rather than
+ * on a schedule.
+ *
+ * @author gkaranikas
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"watermark.retention.max-tickets=1", "watermark.retention.sweep-interval-millis=0"})
+@AutoConfigureMockMvc(print = MockMvcPrint.LOG_DEBUG)
+@DirtiesContext
+public class RetentionControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WatermarkStore store;
+
+    @Test
+    public void testEvictedTicketIsGone() throws Exception {
+        String evicted = createJournal("Evicted Journal");
+        awaitWatermark(evicted);
+        String kept = createJournal("Kept Journal");
+        awaitWatermark(kept);
+        Assert.assertEquals(1, store.evictExpiredTickets());
+
+        mockMvc.perform(get("/watermark/get").param("ticket", evicted)).andExpect(status().isGone());
+        mockMvc.perform(get("/watermark/get").param("ticket", kept)).
+                andExpect(status().isOk()).
+                andExpect(jsonPath("$.title").value("Kept Journal"));
+        mockMvc.perform(get("/watermark/get").param("tickets", evicted + "-" + kept)).
+                andExpect(status().isOk()).
+                andExpect(jsonPath("$[0].status").value("EXPIRED")).
+                andExpect(jsonPath("$[1].status").value("COMPLETED"));
+
+        MvcResult result = mockMvc.perform(get("/watermark/get").param("ticket", evicted).param("wait", "30")).
+                andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isGone());
+    }
+
+    private void awaitWatermark(String ticket) throws Exception {
+        MvcResult result = mockMvc.perform(get("/watermark/get").param("ticket", ticket).param("wait", "30")).andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(jsonPath("$.title").exists());
+    }
+
+    private String createJournal(String title) throws Exception {
+        return mockMvc.perform(get("/watermark/create").
+                param("title", title).
+                param("authorFirstName", "Akio").
+                param("authorLastName", "Suzuki")).
+                andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.jojos.watermark.data;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.mock.http.MockHttpInputMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Unit test of the {@link DocumentParser} and the {@link DocumentMessageConverter} built on it
+ *
+ * @author gkaranikas
+ */
+public class DocumentParserTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DocumentMessageConverter converter = new DocumentMessageConverter(objectMapper);
+
+    @Test
+    public void testParseBook() throws IOException {
+        Document document = parse("{\"title\":\"Earth\",\"author\":{\"firstName\":\"Sougamoto\",\"lastName\":\"Soi\"},\"topic\":\"Science\"}");
+        Assert.assertTrue(document instanceof Book);
+        Assert.assertEquals("Earth", document.getTitle());
+        Assert.assertEquals("Sougamoto", document.getAuthor().getFirstName());
+        Assert.assertEquals("Soi", document.getAuthor().getLastName());
+        Assert.assertEquals(Topic.Science, ((Book) document).getTopic());
+    }
+
+    @Test
+    public void testParseJournalSkippingUnknownFields() throws IOException {
+        Document document = parse("{\"watermark\":{\"content\":\"Book\",\"nested\":[1,{\"a\":2}]},\"title\":\"Digital Media\"," +
+                "\"author\":{\"middleName\":\"X\",\"firstName\":\"Elias\",\"lastName\":\"Rimon\"},\"topic\":null,\"pages\":[1,2]}");
+        Assert.assertTrue(document instanceof Journal);
+        Assert.assertEquals("Digital Media", document.getTitle());
+        Assert.assertEquals("Elias Rimon", document.getAuthor().toString());
+        Assert.assertNull(parse("{\"title\":\"No Author\",\"author\":null}").getAuthor());
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testUnknownTopic() throws IOException {
+        parse("{\"title\":\"Earth\",\"topic\":\"whatever\"}");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testTitleIsNotAString() throws IOException {
+        parse("{\"title\":{\"text\":\"Earth\"}}");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConverterReadsDocumentsAndArrays() throws IOException {
+        Assert.assertTrue(converter.canRead(DocumentView.class, null, MediaType.APPLICATION_JSON));
+        Assert.assertTrue(converter.canRead(new ParameterizedTypeReference<List<DocumentView>>() {}.getType(), null, MediaType.APPLICATION_JSON));
+        Assert.assertFalse(converter.canRead(new ParameterizedTypeReference<List<String>>() {}.getType(), null, MediaType.APPLICATION_JSON));
+        Assert.assertFalse(converter.canWrite(DocumentView.class, MediaType.APPLICATION_JSON));
+
+        DocumentView documentView = (DocumentView) converter.read(DocumentView.class, null, message("{\"title\":\"Νέα Εστία\"}"));
+        Assert.assertEquals("Νέα Εστία", documentView.toDocument().getTitle());
+
+        List<DocumentView> documentViews = (List<DocumentView>) converter.read(
+                new ParameterizedTypeReference<List<DocumentView>>() {}.getType(), null,
+                message("[{\"title\":\"first\"},{\"title\":\"second\",\"topic\":\"Media\"}]"));
+        Assert.assertEquals(2, documentViews.size());
+        Assert.assertTrue(documentViews.get(1).toDocument() instanceof Book);
+    }
+
+    @Test(expected = HttpMessageNotReadableException.class)
+    public void testConverterRejectsInvalidDocument() throws IOException {
+        converter.read(DocumentView.class, null, message("{\"title\":\"Earth\",\"topic\":\"Fiction\"}"));
+    }
+
+    private Document parse(String json) throws IOException {
+        try (JsonParser parser = objectMapper.createParser(json)) {
+            return DocumentParser.parse(parser);
+        }
+    }
+
+    private static MockHttpInputMessage message(String json) {
+        MockHttpInputMessage message = new MockHttpInputMessage(json.getBytes(StandardCharsets.UTF_8));
+        message.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        return message;
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.jojos.watermark.load;
+
+import com.jojos.watermark.api.BinaryServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A client of the {@link BinaryServer} over a few connections, which pipelines the requests of any number of threads:
+ * a request is written as soon as it's sent, whatever the requests still waiting for their response on the same
+ * connection, and its response completes the future of the request whenever it comes.
+ *
+ * @author gkaranikas
+ */
+final class BinaryClient implements AutoCloseable {
+
+    private static final int FRAME_HEADER_SIZE = Integer.BYTES + 1;
+
+    /**
+     * The status and the payload of a response
+     */
+    record Response(byte status, byte[] payload) {
+    }
+
+    private final Connection[] connections;
+    private final AtomicInteger requestIds = new AtomicInteger();
+
+    BinaryClient(String host, int port, int connections) throws IOException {
+        this.connections = new Connection[connections];
+        for (int i = 0; i < connections; i++) {
+            this.connections[i] = new Connection(new Socket(host, port));
+        }
+    }
+
+    /**
+     * @param operation BinaryServer#CREATE or BinaryServer#GET
+     * @return the response, which fails if the connection fails before it comes
+     */
+    CompletableFuture<Response> send(byte operation, byte[] payload) {
+        int requestId = requestIds.incrementAndGet();
+        return connections[Math.floorMod(requestId, connections.length)].send(requestId, operation, payload);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Connection connection : connections) {
+            connection.socket.close();
+        }
+    }
+
+    private static final class Connection {
+
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final Map<Integer, CompletableFuture<Response>> pending = new ConcurrentHashMap<>();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            Thread.ofVirtual().name("binary-client-reader").start(this::read);
+        }
+
+        CompletableFuture<Response> send(int requestId, byte operation, byte[] payload) {
+            CompletableFuture<Response> response = new CompletableFuture<>();
+            pending.put(requestId, response);
+            writeLock.lock();
+            try {
+                out.writeInt(FRAME_HEADER_SIZE + payload.length);
+                out.writeInt(requestId);
+                out.writeByte(operation);
+                out.write(payload);
+                out.flush();
+            } catch (IOException e) {
+                pending.remove(requestId);
+                response.completeExceptionally(e);
+            } finally {
+                writeLock.unlock();
+            }
+            return response;
+        }
+
+        private void read() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                while (true) {
+                    int length = in.readInt();
+                    int requestId = in.readInt();
+                    byte status = in.readByte();
+                    byte[] payload = new byte[length - FRAME_HEADER_SIZE];
+                    in.readFully(payload);
+                    CompletableFuture<Response> response = pending.remove(requestId);
+                    if (response != null) {
+                        response.complete(new Response(status, payload));
+                    }
+                }
+            } catch (IOException e) {
+                pending.values().forEach(response -> response.completeExceptionally(e));
+            }
+        }
+    }
+
+}
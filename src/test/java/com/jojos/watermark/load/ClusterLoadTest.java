@@ -0,0 +1,169 @@
+package com.jojos.watermark.load;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Load test of a cluster: starts clusters of a growing number of nodes on this machine, every node in a process of
+ * its own standing in for a host, and runs the {@link LoadGenerator} against each cluster at every rate of load.rates,
+ * to show how the throughput scales with the nodes. The documents are spread over the nodes and the tickets are polled
+ * on any node, so most of the polls are forwarded to the node of the ticket. It only runs with the load-test profile
+ * (mvn test -Pload-test -Dtest=ClusterLoadTest) and takes the properties of {@link LoadTest} along with
+ *
+ *  load.nodes                 the number of nodes of every cluster (1,2,4)
+ *  load.node-heap             the maximum heap of every node (512m)
+ *  load.node-args             any other arguments of the nodes, separated by spaces, e.g.
+ *                             --spring.threads.virtual.enabled=true
+ *
+ * The nodes compete for the cpus of the machine with each other and with the generator, so the cluster only scales as
+ * far as there are cpus to spare. The output of every node is written next to the report.
+ *
+ * @author gkaranikas
+ */
+public class ClusterLoadTest {
+
+    private static final String JAVA = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(120);
+
+    @Test
+    public void testClusterLoad() throws Exception {
+        int[] clusterSizes = parseInts(System.getProperty("load.nodes", "1,2,4"));
+        int[] rates = parseInts(System.getProperty("load.rates", "250,500,1000,2000,4000"));
+        Duration duration = Duration.ofSeconds(Long.getLong("load.duration-seconds", 30));
+        Duration warmup = Duration.ofSeconds(Long.getLong("load.warmup-seconds", 10));
+        double bookRatio = Double.parseDouble(System.getProperty("load.book-ratio", "0.5"));
+        Duration pollInterval = Duration.ofMillis(Long.getLong("load.poll-interval-millis", 10));
+        Duration timeout = Duration.ofSeconds(Long.getLong("load.timeout-seconds", 30));
+        Path reportDir = Paths.get(System.getProperty("load.report-dir", "target/load-test")).toAbsolutePath();
+        Files.createDirectories(reportDir);
+
+        List<List<LoadGenerator.Result>> results = new ArrayList<>();
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()) {
+            for (int nodes : clusterSizes) {
+                List<URI> baseUris = new ArrayList<>();
+                for (int node = 0; node < nodes; node++) {
+                    baseUris.add(URI.create("http://localhost:" + freePort()));
+                }
+                List<Process> processes = new ArrayList<>();
+                try {
+                    for (int node = 0; node < nodes; node++) {
+                        processes.add(startNode(node, baseUris, reportDir.resolve(nodes + "-nodes-node-" + node)));
+                    }
+                    for (URI baseUri : baseUris) {
+                        awaitStartup(client, baseUri);
+                    }
+
+                    LoadGenerator generator = new LoadGenerator(client, baseUris, bookRatio, pollInterval, timeout);
+                    if (!warmup.isZero()) {
+                        generator.run(rates[0], warmup);
+                    }
+                    List<LoadGenerator.Result> clusterResults = new ArrayList<>();
+                    for (int rate : rates) {
+                        clusterResults.add(generator.run(rate, duration));
+                    }
+                    results.add(clusterResults);
+                } finally {
+                    for (Process process : processes) {
+                        process.destroy();
+                    }
+                    for (Process process : processes) {
+                        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                            process.destroyForcibly();
+                        }
+                    }
+                }
+            }
+        }
+
+        try (PrintStream report = new PrintStream(new FileOutputStream(reportDir.resolve("cluster-report.txt").toFile()))) {
+            report.printf("%d s per rate, %.0f%% books, %d cpus, node arguments: %s%n%n", duration.toSeconds(),
+                    bookRatio * 100, Runtime.getRuntime().availableProcessors(), System.getProperty("load.node-args", ""));
+            report.printf("%-12s %s%n", "watermarks/s", Arrays.stream(rates).mapToObj(rate -> String.format("%10d", rate)).
+                    collect(Collectors.joining(" ", "", " documents/s")));
+            for (int i = 0; i < clusterSizes.length; i++) {
+                report.printf("%-12s %s%n", clusterSizes[i] + " nodes", results.get(i).stream().
+                        map(result -> String.format("%10.1f", result.throughput())).collect(Collectors.joining(" ")));
+            }
+            for (int i = 0; i < clusterSizes.length; i++) {
+                report.printf("%n%d nodes%n", clusterSizes[i]);
+                System.out.printf("%n%d nodes%n", clusterSizes[i]);
+                for (LoadGenerator.Result result : results.get(i)) {
+                    result.print(report);
+                    result.print(System.out);
+                    String prefix = clusterSizes[i] + "-nodes-";
+                    LoadTest.writeDistribution(reportDir, result.rate, prefix + "time-to-watermark", result.timeToWatermark);
+                    LoadTest.writeDistribution(reportDir, result.rate, prefix + "get", result.get);
+                }
+            }
+        }
+
+        for (int i = 0; i < clusterSizes.length; i++) {
+            Assert.assertTrue("Nothing was watermarked by " + clusterSizes[i] + " nodes at " + rates[0] + " documents/s",
+                    results.get(i).get(0).watermarked.get() > 0);
+        }
+    }
+
+    /**
+     * Start a node in a process of its own, from the classes of the tests, with its logs in a directory of its own
+     */
+    private static Process startNode(int node, List<URI> baseUris, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        List<String> command = new ArrayList<>(List.of(JAVA, "-Xmx" + System.getProperty("load.node-heap", "512m"),
+                "-cp", System.getProperty("java.class.path"), "com.jojos.watermark.Main",
+                "--server.port=" + baseUris.get(node).getPort(),
+                "--watermark.cluster.enabled=true",
+                "--watermark.cluster.node-id=" + node,
+                "--watermark.cluster.nodes=" + baseUris.stream().map(URI::toString).collect(Collectors.joining(","))));
+        String nodeArgs = System.getProperty("load.node-args", "").trim();
+        if (!nodeArgs.isEmpty()) {
+            command.addAll(Arrays.asList(nodeArgs.split("\\s+")));
+        }
+        return new ProcessBuilder(command).directory(directory.toFile()).redirectErrorStream(true).
+                redirectOutput(directory.resolve("output.log").toFile()).start();
+    }
+
+    private static void awaitStartup(HttpClient client, URI baseUri) throws InterruptedException {
+        HttpRequest health = HttpRequest.newBuilder(baseUri.resolve("/actuator/health")).timeout(Duration.ofSeconds(1)).build();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(250);
+        }
+        throw new AssertionError("The node at " + baseUri + " didn't start within " + STARTUP_TIMEOUT);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static int[] parseInts(String values) {
+        return Arrays.stream(values.split(",")).mapToInt(value -> Integer.parseInt(value.trim())).toArray();
+    }
+
+}
@@ -0,0 +1,341 @@
+package com.jojos.watermark.load;
+
+import com.jojos.watermark.api.BinaryServer;
+import com.jojos.watermark.data.DocumentCodec;
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the full create, poll and get cycle of the watermark service at a fixed rate of new documents, over http or
+ * over the binary protocol of the {@link BinaryServer}.
+ *
+ * The load is open-loop: the start of every cycle is scheduled in advance, at the given rate, whether or not the
+ * earlier cycles have finished, and every cycle runs on a virtual thread of its own. The latencies are measured from
+ * the scheduled start rather than from the moment the request was actually sent, so a request that couldn't be sent in
+ * time because the service (or the generator) was stalled is charged with the time it was held back. Measuring from
+ * the actual send would leave out exactly the requests that had to wait (coordinated omission); the service time,
+ * from the actual send, is recorded next to it to show the difference.
+ *
+ * A cycle creates a ticket for a new document (a book or a journal, in the given ratio) and then polls the ticket
+ * every poll interval until the watermark is returned, recording the time from the scheduled start to the watermark.
+ * Given the nodes of a cluster, the documents are sent to the nodes in turn and every ticket is polled on any of the
+ * nodes, as they would be behind a load balancer.
+ *
+ * Over the binary protocol the cycles share a few connections of a {@link BinaryClient}, so the requests of all the
+ * cycles are pipelined on them, the way a high volume client would send them.
+ *
+ * @author gkaranikas
+ */
+class LoadGenerator {
+
+    private static final Topic[] TOPICS = {Topic.Business, Topic.Science, Topic.Media};
+
+    // what a create comes back with instead of a ticket
+    private static final int REJECTED = -1;
+    private static final int FAILED = -2;
+
+    /**
+     * How the documents are sent and their tickets polled
+     */
+    private interface Protocol {
+
+        /**
+         * @param node the node to send the document to
+         * @param document the number of the document, unique to it
+         * @param topic the topic of a book, or null for a journal
+         * @return the ticket of the document, REJECTED if the service is overloaded or FAILED
+         * @throws TimeoutException if there is no response in time
+         */
+        int create(int node, int document, Topic topic) throws IOException, InterruptedException, TimeoutException;
+
+        /**
+         * @return true if the watermark was returned, false if the ticket is still pending
+         * @throws IOException if the ticket couldn't be polled, e.g. since it's unknown
+         * @throws TimeoutException if there is no response in time
+         */
+        boolean get(int node, int ticket) throws IOException, InterruptedException, TimeoutException;
+    }
+
+    private final Protocol protocol;
+    private final int nodes;
+    private final double bookRatio;
+    private final long pollIntervalNanos;
+    private final long timeoutNanos;
+    private final AtomicInteger documents = new AtomicInteger();
+
+    LoadGenerator(HttpClient client, List<URI> baseUris, double bookRatio, Duration pollInterval, Duration timeout) {
+        this(new HttpProtocol(client, baseUris, timeout), baseUris.size(), bookRatio, pollInterval, timeout);
+    }
+
+    LoadGenerator(BinaryClient client, double bookRatio, Duration pollInterval, Duration timeout) {
+        this(new BinaryProtocol(client, timeout), 1, bookRatio, pollInterval, timeout);
+    }
+
+    private LoadGenerator(Protocol protocol, int nodes, double bookRatio, Duration pollInterval, Duration timeout) {
+        this.protocol = protocol;
+        this.nodes = nodes;
+        this.bookRatio = bookRatio;
+        this.pollIntervalNanos = pollInterval.toNanos();
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    /**
+     * Start a cycle for rate * duration new documents, spread evenly over the duration, and wait for all of them to end
+     *
+     * @param rate the new documents per second
+     * @param duration how long to keep on starting cycles
+     * @return the latencies and the outcome of the cycles
+     */
+    Result run(int rate, Duration duration) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        int cycles = (int) (rate * duration.toSeconds());
+        Result result = new Result(rate, cycles);
+        CountDownLatch done = new CountDownLatch(cycles);
+
+        Thread[] threads = new Thread[cycles];
+        long start = System.nanoTime();
+        for (int i = 0; i < cycles; i++) {
+            long scheduledStart = start + i * intervalNanos;
+            int node = i % nodes;
+            for (long delay = scheduledStart - System.nanoTime(); delay > 0; delay = scheduledStart - System.nanoTime()) {
+                LockSupport.parkNanos(delay);
+            }
+            threads[i] = Thread.startVirtualThread(() -> {
+                try {
+                    cycle(node, scheduledStart, result);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        // the cycles still running after the timeout are cut short and counted as timed out, so that they neither
+        // count nor load the service in the next run
+        if (!done.await(timeoutNanos + TimeUnit.SECONDS.toNanos(10), TimeUnit.NANOSECONDS)) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            done.await();
+        }
+        result.start = start;
+        return result;
+    }
+
+    private void cycle(int node, long scheduledStart, Result result) {
+        try {
+            int document = documents.incrementAndGet();
+            Topic topic = ThreadLocalRandom.current().nextDouble() < bookRatio ? TOPICS[document % TOPICS.length] : null;
+            long sendTime = System.nanoTime();
+            int ticket = protocol.create(node, document, topic);
+            long createdTime = System.nanoTime();
+            result.create.recordValue(micros(createdTime - scheduledStart));
+            result.createService.recordValue(micros(createdTime - sendTime));
+            if (ticket == REJECTED) {
+                result.rejected.incrementAndGet();
+                return;
+            } else if (ticket == FAILED) {
+                result.failed.incrementAndGet();
+                return;
+            }
+
+            int pollNode = ThreadLocalRandom.current().nextInt(nodes);
+            while (System.nanoTime() - scheduledStart < timeoutNanos) {
+                sendTime = System.nanoTime();
+                boolean watermarked = protocol.get(pollNode, ticket);
+                long polledTime = System.nanoTime();
+                result.get.recordValue(micros(polledTime - sendTime));
+                if (watermarked) {
+                    result.timeToWatermark.recordValue(micros(polledTime - scheduledStart));
+                    result.watermarked.incrementAndGet();
+                    result.lastWatermark.accumulateAndGet(polledTime, Math::max);
+                    return;
+                }
+                LockSupport.parkNanos(pollIntervalNanos);
+            }
+            result.timedOut.incrementAndGet();
+        } catch (TimeoutException | InterruptedException e) {
+            result.timedOut.incrementAndGet();
+        } catch (IOException e) {
+            result.failed.incrementAndGet();
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Json documents to POST /watermark/create, tickets polled with GET /watermark/get
+     */
+    private static final class HttpProtocol implements Protocol {
+
+        private final HttpClient client;
+        private final URI[] createUris;
+        private final String[] getUris;
+        private final Duration timeout;
+
+        HttpProtocol(HttpClient client, List<URI> baseUris, Duration timeout) {
+            this.client = client;
+            this.createUris = baseUris.stream().map(baseUri -> baseUri.resolve("/watermark/create")).toArray(URI[]::new);
+            this.getUris = baseUris.stream().map(baseUri -> baseUri.resolve("/watermark/get").toString() + "?ticket=").
+                    toArray(String[]::new);
+            this.timeout = timeout;
+        }
+
+        @Override
+        public int create(int node, int document, Topic topic)
+                throws IOException, InterruptedException, TimeoutException {
+            String json = "{ \"title\" : \"Load Test " + document + "\", " +
+                    "\"author\" : {\"firstName\" : \"Load\", \"lastName\" : \"Generator\"}";
+            if (topic != null) {
+                json += ", \"topic\" : \"" + topic + "\"";
+            }
+            HttpResponse<String> created = send(HttpRequest.newBuilder(createUris[node]).
+                    header("Content-Type", "application/json").
+                    POST(HttpRequest.BodyPublishers.ofString(json + " }")));
+            if (created.statusCode() == 503) {
+                return REJECTED;
+            }
+            return created.statusCode() == 200 ? Integer.parseInt(created.body()) : FAILED;
+        }
+
+        @Override
+        public boolean get(int node, int ticket) throws IOException, InterruptedException, TimeoutException {
+            HttpResponse<String> polled = send(HttpRequest.newBuilder(URI.create(getUris[node] + ticket)).GET());
+            if (polled.statusCode() != 200) {
+                throw new IOException("Ticket " + ticket + " was answered with " + polled.statusCode());
+            }
+            return !polled.body().isEmpty();
+        }
+
+        private HttpResponse<String> send(HttpRequest.Builder request)
+                throws IOException, InterruptedException, TimeoutException {
+            try {
+                return client.send(request.timeout(timeout).build(), HttpResponse.BodyHandlers.ofString());
+            } catch (HttpTimeoutException e) {
+                throw new TimeoutException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Documents encoded with the {@link DocumentCodec} in CREATE frames, tickets polled with GET frames
+     */
+    private static final class BinaryProtocol implements Protocol {
+
+        private final BinaryClient client;
+        private final long timeoutNanos;
+
+        BinaryProtocol(BinaryClient client, Duration timeout) {
+            this.client = client;
+            this.timeoutNanos = timeout.toNanos();
+        }
+
+        @Override
+        public int create(int node, int document, Topic topic)
+                throws IOException, InterruptedException, TimeoutException {
+            String title = "Load Test " + document;
+            Author author = new Author("Load", "Generator");
+            BinaryClient.Response created = send(BinaryServer.CREATE,
+                    DocumentCodec.encode(topic == null ? new Journal(title, author) : new Book(title, author, topic)));
+            if (created.status() == BinaryServer.BUSY) {
+                return REJECTED;
+            }
+            return created.status() == BinaryServer.OK ? ByteBuffer.wrap(created.payload()).getInt() : FAILED;
+        }
+
+        @Override
+        public boolean get(int node, int ticket) throws IOException, InterruptedException, TimeoutException {
+            BinaryClient.Response polled = send(BinaryServer.GET,
+                    ByteBuffer.allocate(Integer.BYTES).putInt(ticket).array());
+            if (polled.status() != BinaryServer.COMPLETED && polled.status() != BinaryServer.PENDING) {
+                throw new IOException("Ticket " + ticket + " was answered with status " + polled.status());
+            }
+            return polled.status() == BinaryServer.COMPLETED;
+        }
+
+        private BinaryClient.Response send(byte operation, byte[] payload)
+                throws IOException, InterruptedException, TimeoutException {
+            try {
+                return client.send(operation, payload).get(timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * The latencies (in microseconds) and the outcome of the cycles of a run
+     */
+    static class Result {
+
+        final int rate;
+        final int cycles;
+        final Histogram create = new ConcurrentHistogram(3);
+        final Histogram createService = new ConcurrentHistogram(3);
+        final Histogram get = new ConcurrentHistogram(3);
+        final Histogram timeToWatermark = new ConcurrentHistogram(3);
+        final AtomicInteger watermarked = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger timedOut = new AtomicInteger();
+        final AtomicLong lastWatermark = new AtomicLong();
+        private long start;
+
+        Result(int rate, int cycles) {
+            this.rate = rate;
+            this.cycles = cycles;
+        }
+
+        /**
+         * @return the watermarks per second, from the start of the run to the last watermark returned
+         */
+        double throughput() {
+            long elapsed = lastWatermark.get() - start;
+            return elapsed > 0 ? watermarked.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed : 0;
+        }
+
+        void print(PrintStream out) {
+            out.printf("%d documents/s: %d cycles, %d watermarked, %d rejected (503), %d failed, %d timed out, %.1f watermarks/s%n",
+                    rate, cycles, watermarked.get(), rejected.get(), failed.get(), timedOut.get(), throughput());
+            out.printf("  %-26s %10s %10s %10s %10s%n", "latency (ms)", "p50", "p99", "p999", "max");
+            print(out, "create", create);
+            print(out, "create (service time)", createService);
+            print(out, "get", get);
+            print(out, "time to watermark", timeToWatermark);
+        }
+
+        private static void print(PrintStream out, String name, Histogram histogram) {
+            out.printf("  %-26s %10.3f %10.3f %10.3f %10.3f%n", name, millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()));
+        }
+
+        private static double millis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.jojos.watermark.load;
+
+import com.jojos.watermark.api.BinaryServer;
+import org.HdrHistogram.Histogram;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Load test of a single node: boots the application on a random port and runs the {@link LoadGenerator} against it
+ * at every rate of load.rates in turn, to find the rate at which the node saturates. It only runs with the load-test
+ * profile (mvn test -Pload-test) and is configured with system properties:
+ *
+ *  load.protocol              http, or binary for the frames of the {@link BinaryServer} (http)
+ *  load.binary-connections    how many connections the binary requests are pipelined on (4)
+ *  load.rates                 the new documents per second of every step (250,500,1000,2000,4000)
+ *  load.duration-seconds      how long every step lasts (30)
+ *  load.warmup-seconds        how long the first rate is run before the steps, without recording anything (10)
+ *  load.book-ratio            the share of the documents that are books rather than journals (0.5)
+ *  load.poll-interval-millis  how long to wait between the polls of a ticket (10)
+ *  load.timeout-seconds       how long a document may take to be watermarked (30)
+ *  load.report-dir            where the report and the latency distributions are written (target/load-test)
+ *
+ * Any property of the application can be set the same way, e.g. -Dspring.threads.virtual.enabled=true
+ *
+ * @author gkaranikas
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"watermark.binary.enabled=true", "watermark.binary.port=0"})
+@DirtiesContext
+public class LoadTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private BinaryServer binaryServer;
+
+    @Test
+    public void testLoad() throws Exception {
+        boolean binary = "binary".equals(System.getProperty("load.protocol", "http"));
+        int binaryConnections = Integer.getInteger("load.binary-connections", 4);
+        int[] rates = Arrays.stream(System.getProperty("load.rates", "250,500,1000,2000,4000").split(",")).
+                mapToInt(rate -> Integer.parseInt(rate.trim())).toArray();
+        Duration duration = Duration.ofSeconds(Long.getLong("load.duration-seconds", 30));
+        Duration warmup = Duration.ofSeconds(Long.getLong("load.warmup-seconds", 10));
+        double bookRatio = Double.parseDouble(System.getProperty("load.book-ratio", "0.5"));
+        Duration pollInterval = Duration.ofMillis(Long.getLong("load.poll-interval-millis", 10));
+        Duration timeout = Duration.ofSeconds(Long.getLong("load.timeout-seconds", 30));
+        Path reportDir = Paths.get(System.getProperty("load.report-dir", "target/load-test"));
+
+        List<LoadGenerator.Result> results = new ArrayList<>();
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+             BinaryClient binaryClient = binary ?
+                     new BinaryClient("localhost", binaryServer.getPort(), binaryConnections) : null) {
+            LoadGenerator generator = binary ? new LoadGenerator(binaryClient, bookRatio, pollInterval, timeout) :
+                    new LoadGenerator(client, List.of(URI.create("http://localhost:" + port)), bookRatio, pollInterval,
+                            timeout);
+
+            if (!warmup.isZero()) {
+                generator.run(rates[0], warmup);
+            }
+            for (int rate : rates) {
+                results.add(generator.run(rate, duration));
+            }
+        }
+
+        Files.createDirectories(reportDir);
+        try (PrintStream report = new PrintStream(new FileOutputStream(reportDir.resolve("report.txt").toFile()))) {
+            report.printf("%s, %d s per rate, %.0f%% books, virtual threads %s%n%n",
+                    binary ? "binary over " + binaryConnections + " connections" : "http", duration.toSeconds(),
+                    bookRatio * 100, System.getProperty("spring.threads.virtual.enabled", "false"));
+            for (LoadGenerator.Result result : results) {
+                result.print(report);
+                result.print(System.out);
+                report.println();
+                writeDistribution(reportDir, result.rate, "create", result.create);
+                writeDistribution(reportDir, result.rate, "create-service", result.createService);
+                writeDistribution(reportDir, result.rate, "get", result.get);
+                writeDistribution(reportDir, result.rate, "time-to-watermark", result.timeToWatermark);
+            }
+        }
+
+        // past the saturation point nothing may get through, but the first rate should be below it
+        Assert.assertTrue("Nothing was watermarked at " + rates[0] + " documents/s", results.get(0).watermarked.get() > 0);
+    }
+
+    /**
+     * Write the percentile distribution (in milliseconds) of the latencies in the .hgrm format, which can be plotted
+     * with http://hdrhistogram.github.io/HdrHistogram/plotFiles.html
+     */
+    static void writeDistribution(Path reportDir, int rate, String name, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(new FileOutputStream(reportDir.resolve(rate + "-" + name + ".hgrm").toFile()))) {
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+}
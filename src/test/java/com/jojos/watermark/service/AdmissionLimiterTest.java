@@ -0,0 +1,127 @@
+package com.jojos.watermark.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit test of how the {@link AdmissionLimiter} adapts its limit
+ *
+ * @author gkaranikas
+ */
+public class AdmissionLimiterTest {
+
+    private static final long TARGET = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void testLimitShrinksWhenLatencyIsOverTarget() {
+        AdmissionLimiter limiter = new AdmissionLimiter(true, 1000, 100, 10_000, TARGET, WINDOW, clock::get);
+        // twice the target halves the limit, which is smoothed into the old one
+        window(limiter, 2 * TARGET, 0);
+        Assert.assertEquals(900, limiter.getLimit());
+
+        // any worse is still halved at most
+        window(limiter, 10 * TARGET, 0);
+        Assert.assertEquals(810, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitKeepsTheBacklogTheThroughputDrains() {
+        AdmissionLimiter limiter = new AdmissionLimiter(true, 1000, 100, 10_000, TARGET, WINDOW, clock::get);
+        // late documents, but 8000 of them a second, which watermark a backlog of 800 within the target
+        for (int i = 0; i < 40; i++) {
+            limiter.admit(0, 1);
+            limiter.admitted(1);
+            for (int j = 0; j < 800; j++) {
+                limiter.record(4 * TARGET);
+            }
+            clock.addAndGet(WINDOW);
+        }
+        limiter.record(4 * TARGET);
+        Assert.assertEquals(800, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitOnlyGrowsWhenItsUsed() {
+        AdmissionLimiter limiter = new AdmissionLimiter(true, 1000, 100, 10_000, TARGET, WINDOW, clock::get);
+        window(limiter, TARGET / 2, 100);
+        Assert.assertEquals(1000, limiter.getLimit());
+
+        // grows by the square root of the limit, smoothed
+        window(limiter, TARGET / 2, 600);
+        Assert.assertEquals(1006, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitStaysWithinBounds() {
+        AdmissionLimiter limiter = new AdmissionLimiter(true, 110, 100, 120, TARGET, WINDOW, clock::get);
+        for (int i = 0; i < 10; i++) {
+            window(limiter, 10 * TARGET, 0);
+        }
+        Assert.assertEquals(100, limiter.getLimit());
+        for (int i = 0; i < 100; i++) {
+            window(limiter, 0, 60);
+        }
+        Assert.assertEquals(120, limiter.getLimit());
+    }
+
+    @Test
+    public void testBacklogOverLimitIsTurnedAway() {
+        AdmissionLimiter limiter = new AdmissionLimiter(true, 100, 100, 100, TARGET, WINDOW, clock::get);
+        // a batch larger than the limit still gets through an idle node
+        limiter.admit(0, 1000);
+        try {
+            limiter.admit(0, 1);
+            Assert.fail("Expected the request to be turned away while the batch isn't stored yet");
+        } catch (OverloadedException expected) {
+        }
+        limiter.admitted(1000);
+        limiter.admit(99, 1);
+        limiter.admitted(1);
+        try {
+            limiter.admit(100, 1);
+            Assert.fail("Expected the request to be turned away");
+        } catch (OverloadedException e) {
+            // nothing has been watermarked yet to tell how long it takes
+            Assert.assertEquals(1, e.getRetryAfterSeconds());
+        }
+
+        // 50 documents in 100 ms, a throughput of 500 documents a second
+        for (int i = 0; i < 50; i++) {
+            limiter.record(TARGET);
+        }
+        clock.addAndGet(WINDOW);
+        try {
+            limiter.admit(1100, 1);
+            Assert.fail("Expected the request to be turned away");
+        } catch (OverloadedException e) {
+            Assert.assertEquals(3, e.getRetryAfterSeconds());
+        }
+    }
+
+    @Test
+    public void testDisabledLimiterLetsEverythingIn() {
+        AdmissionLimiter limiter = AdmissionLimiter.unlimited();
+        limiter.record(Long.MAX_VALUE / 2);
+        limiter.admit(Long.MAX_VALUE / 2, 1);
+    }
+
+    /**
+     * A window in which 10 documents took the latency each, with the backlog at most as given
+     */
+    private void window(AdmissionLimiter limiter, long latency, long backlog) {
+        limiter.admit(backlog, 1);
+        limiter.admitted(1);
+        for (int i = 0; i < 10; i++) {
+            limiter.record(latency);
+        }
+        clock.addAndGet(WINDOW);
+        limiter.record(latency);
+    }
+
+}
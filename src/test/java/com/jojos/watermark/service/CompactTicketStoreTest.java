@@ -0,0 +1,200 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Content;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+import com.jojos.watermark.domain.Watermark;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test of the {@link CompactTicketStore}, both on and off heap
+ *
+ * @author gkaranikas
+ */
+@RunWith(Parameterized.class)
+public class CompactTicketStoreTest {
+
+    @Parameterized.Parameters(name = "offHeap={0}")
+    public static Collection<Object[]> offHeap() {
+        return Arrays.asList(new Object[][]{{false}, {true}});
+    }
+
+    private final CompactTicketStore store;
+
+    public CompactTicketStoreTest(boolean offHeap) {
+        // tiny slabs so that we cross slab boundaries
+        this.store = new CompactTicketStore(offHeap, 1024);
+    }
+
+    @Test
+    public void testStoreAndGetBook() {
+        Book book = new Book("A Brief History of Time", new Author("Stephen", "Hawking"), Topic.Science);
+        Assert.assertTrue(store.putIfAbsent(1, book));
+
+        Document stored = store.get(1);
+        Assert.assertTrue(stored instanceof Book);
+        Assert.assertEquals("A Brief History of Time", stored.getTitle());
+        Assert.assertEquals("Stephen", stored.getAuthor().getFirstName());
+        Assert.assertEquals("Hawking", stored.getAuthor().getLastName());
+        Assert.assertEquals(Topic.Science, ((Book) stored).getTopic());
+        Assert.assertFalse(stored.getWatermark().isPresent());
+    }
+
+    @Test
+    public void testStoreAndGetJournalWithMissingFields() {
+        Assert.assertTrue(store.putIfAbsent(7, new Journal(null, null)));
+        Assert.assertTrue(store.putIfAbsent(8, new Journal("Νέα Εστία", new Author(null, "Καζαντζάκης"))));
+
+        Document stored = store.get(7);
+        Assert.assertTrue(stored instanceof Journal);
+        Assert.assertNull(stored.getTitle());
+        Assert.assertNull(stored.getAuthor());
+
+        stored = store.get(8);
+        Assert.assertEquals("Νέα Εστία", stored.getTitle());
+        Assert.assertNull(stored.getAuthor().getFirstName());
+        Assert.assertEquals("Καζαντζάκης", stored.getAuthor().getLastName());
+    }
+
+    @Test
+    public void testPutIfAbsentKeepsFirstDocument() {
+        Assert.assertTrue(store.putIfAbsent(3, new Journal("first", new Author("a", "b"))));
+        Assert.assertFalse(store.putIfAbsent(3, new Journal("second", new Author("a", "b"))));
+        Assert.assertEquals("first", store.get(3).getTitle());
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testPutWatermarkedDocument() {
+        Book book = new Book("Earth", new Author("Sougamoto", "Soi"), Topic.Media);
+        store.putIfAbsent(2, book);
+
+        Document previous = store.put(2, book.withWatermark(Watermark.createFor(book)));
+        Assert.assertFalse(previous.getWatermark().isPresent());
+
+        Watermark watermark = store.get(2).getWatermark().get();
+        Assert.assertEquals(Content.Book, watermark.getContent());
+        Assert.assertEquals("Earth", watermark.getTitle());
+        Assert.assertEquals("Sougamoto Soi", watermark.getAuthor());
+        Assert.assertEquals(Topic.Media, watermark.getTopic());
+
+        previous = store.put(2, book.withWatermark(Watermark.createFor(book)));
+        Assert.assertTrue(previous.getWatermark().isPresent());
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testUnknownAndRemovedTickets() {
+        Assert.assertNull(store.get(1));
+        Assert.assertNull(store.get(Integer.MAX_VALUE));
+        Assert.assertNull(store.remove(5));
+
+        store.putIfAbsent(5, new Journal("gone", new Author("a", "b")));
+        Assert.assertEquals("gone", store.remove(5).getTitle());
+        Assert.assertNull(store.get(5));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testConcurrentStoreAcrossPagesAndSlabs() throws Exception {
+        int threads = 8;
+        int perThread = 20_000;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger ticketIds = new AtomicInteger();
+        List<Future<Void>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executorService.submit(() -> {
+                latch.await();
+                for (int i = 0; i < perThread; i++) {
+                    int ticket = ticketIds.incrementAndGet();
+                    Journal journal = new Journal("Journal" + ticket, new Author("first", "last"));
+                    Assert.assertTrue(store.putIfAbsent(ticket, journal));
+                    Assert.assertNull(store.put(ticket, journal.withWatermark(Watermark.createFor(journal))).getWatermark().orElse(null));
+                }
+                return null;
+            }));
+        }
+        latch.countDown();
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+        for (Future<Void> result : results) {
+            // any assertion that failed in a worker
+            result.get();
+        }
+
+        Assert.assertEquals(threads * perThread, store.size());
+        for (int ticket = 1; ticket <= threads * perThread; ticket++) {
+            Assert.assertEquals("Journal" + ticket, store.get(ticket).getWatermark().get().getTitle());
+        }
+    }
+
+    @Test
+    public void testNegativeTicketsAreUnknown() {
+        Assert.assertNull(store.get(-1));
+        Assert.assertNull(store.remove(-1));
+        Assert.assertNull(store.removeIfNotWatermarked(Integer.MIN_VALUE));
+        Journal journal = new Journal("negative", new Author("a", "b"));
+        Assert.assertNull(store.replace(-1, journal.withWatermark(Watermark.createFor(journal))));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testRecordOfAFailedUpdateIsTakenBack() {
+        Journal journal = new Journal("first", new Author("a", "b"));
+        Assert.assertTrue(store.putIfAbsent(1, journal));
+        long bytes = store.getRecordBytes();
+
+        Assert.assertFalse(store.putIfAbsent(1, new Journal("second", new Author("a", "b"))));
+        Assert.assertNull(store.replace(2, journal));
+        // the watermarked copy of the same document only flips its flag
+        store.put(1, journal.withWatermark(Watermark.createFor(journal)));
+        Assert.assertEquals(bytes, store.getRecordBytes());
+        Assert.assertEquals("first", store.get(1).getWatermark().get().getTitle());
+    }
+
+    @Test
+    public void testReplaceOnlyExistingTickets() {
+        Journal journal = new Journal("replaced", new Author("a", "b"));
+        Assert.assertNull(store.replace(4, journal.withWatermark(Watermark.createFor(journal))));
+        Assert.assertNull(store.get(4));
+
+        store.putIfAbsent(4, journal);
+        Assert.assertFalse(store.replace(4, journal.withWatermark(Watermark.createFor(journal))).getWatermark().isPresent());
+        Assert.assertTrue(store.get(4).getWatermark().isPresent());
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testRemoveIfNotWatermarked() {
+        Journal pending = new Journal("pending", new Author("a", "b"));
+        Journal completed = new Journal("completed", new Author("a", "b"));
+        store.putIfAbsent(1, pending);
+        store.putIfAbsent(2, completed.withWatermark(Watermark.createFor(completed)));
+
+        Assert.assertNull(store.removeIfNotWatermarked(2));
+        Assert.assertNull(store.removeIfNotWatermarked(3));
+        Assert.assertEquals("pending", store.removeIfNotWatermarked(1).getTitle());
+        Assert.assertNull(store.get(1));
+        Assert.assertEquals("completed", store.get(2).getTitle());
+        Assert.assertEquals(1, store.size());
+    }
+
+}
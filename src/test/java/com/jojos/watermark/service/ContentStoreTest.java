@@ -0,0 +1,86 @@
+package com.jojos.watermark.service;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Unit test of the {@link ContentStore}
+ *
+ * @author gkaranikas
+ */
+public class ContentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSpoolAndPut() throws IOException {
+        ContentStore contents = new ContentStore(folder.getRoot().toPath().resolve("content"), 1024);
+        Assert.assertFalse(contents.hasContent(1));
+
+        contents.put(1, contents.spool(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+        Assert.assertTrue(contents.hasContent(1));
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(contents.getContent(1)));
+        Assert.assertEquals(1, fileCount(contents));
+
+        Files.write(contents.getWatermarkedContent(1), new byte[]{1, 3, 3});
+        contents.delete(1);
+        Assert.assertFalse(contents.hasContent(1));
+        Assert.assertEquals(0, fileCount(contents));
+    }
+
+    @Test
+    public void testContentTooLarge() throws IOException {
+        ContentStore contents = new ContentStore(folder.getRoot().toPath(), 1024);
+        try {
+            contents.spool(new ByteArrayInputStream(new byte[1025]));
+            Assert.fail("Expected the content to be too large");
+        } catch (ContentTooLargeException expected) {
+        }
+        Assert.assertEquals(0, fileCount(contents));
+    }
+
+    @Test
+    public void testContentsAreFoundOnStartup() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        ContentStore contents = new ContentStore(directory, 1024);
+        contents.put(7, contents.spool(new ByteArrayInputStream(new byte[10])));
+        Path leftOver = contents.spool(new ByteArrayInputStream(new byte[10]));
+
+        ContentStore restarted = new ContentStore(directory, 1024);
+        Assert.assertTrue(restarted.hasContent(7));
+        Assert.assertFalse(restarted.hasContent(8));
+        Assert.assertFalse(Files.exists(leftOver));
+    }
+
+    @Test
+    public void testContentsOfUnknownTicketsAreDeleted() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        ContentStore contents = new ContentStore(directory, 1024);
+        contents.put(7, contents.spool(new ByteArrayInputStream(new byte[10])));
+        contents.put(8, contents.spool(new ByteArrayInputStream(new byte[10])));
+        Files.write(contents.getWatermarkedContent(8), new byte[10]);
+
+        // only ticket 7 was recovered, ticket 8 may be handed out again to a document without content
+        ContentStore restarted = new ContentStore(directory, 1024);
+        Assert.assertEquals(1, restarted.retainContents(ticket -> ticket == 7));
+        Assert.assertTrue(restarted.hasContent(7));
+        Assert.assertFalse(restarted.hasContent(8));
+        Assert.assertEquals(1, fileCount(restarted));
+    }
+
+    private static long fileCount(ContentStore contents) throws IOException {
+        try (Stream<Path> files = Files.list(contents.getDirectory())) {
+            return files.count();
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+import com.jojos.watermark.domain.Watermark;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit test of the {@link ContentWatermarker} with the {@link LsbWatermarkEngine}
+ *
+ * @author gkaranikas
+ */
+public class ContentWatermarkerTest {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Watermark book = Watermark.createFor(
+            new Book("A Brief History of Time", new Author("Stephen", "Hawking"), Topic.Science));
+    private final Watermark journal = Watermark.createFor(new Journal("Nature", new Author("Stephen", "Hawking")));
+
+    private ContentStore contents;
+    private ContentWatermarker watermarker;
+
+    @Before
+    public void setUp() throws IOException {
+        contents = new ContentStore(folder.getRoot().toPath(), Long.MAX_VALUE);
+        watermarker = new ContentWatermarker(new LsbWatermarkEngine(), contents, 4, CHUNK_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        watermarker.close();
+    }
+
+    @Test
+    public void testOnlyTheLowestBitsAreStamped() throws IOException {
+        // not a multiple of the chunk or of a word, so the last chunk and word are partial
+        byte[] content = randomContent(10 * CHUNK_SIZE + 13);
+        put(1, content);
+
+        Assert.assertTrue(watermarker.stamp(1, book));
+        byte[] watermarked = Files.readAllBytes(contents.getWatermarkedContent(1));
+        Assert.assertEquals(content.length, watermarked.length);
+        long key = LsbWatermarkEngine.keyOf(book);
+        for (int i = 0; i < content.length; i++) {
+            Assert.assertEquals("byte " + i, content[i] & 0xFE, watermarked[i] & 0xFE);
+            Assert.assertEquals("byte " + i, LsbWatermarkEngine.bitAt(key, i), watermarked[i] & 1);
+        }
+    }
+
+    @Test
+    public void testChunksAndStreamStampTheSame() throws IOException {
+        byte[] content = randomContent(7 * CHUNK_SIZE + 5);
+        Path file = folder.newFile().toPath();
+        Path watermarked = folder.newFile().toPath();
+        Files.write(file, content);
+        Files.write(watermarked, new byte[20 * CHUNK_SIZE]);
+
+        Assert.assertEquals(content.length, watermarker.stamp(book, file, watermarked));
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        Assert.assertEquals(content.length,
+                new LsbWatermarkEngine().stamp(book, new ByteArrayInputStream(content), streamed));
+        Assert.assertArrayEquals(streamed.toByteArray(), Files.readAllBytes(watermarked));
+    }
+
+    @Test
+    public void testWatermarksStampDifferentBits() throws IOException {
+        byte[] content = randomContent(CHUNK_SIZE);
+        put(1, content);
+        put(2, content);
+
+        watermarker.stamp(1, book);
+        watermarker.stamp(2, journal);
+        Assert.assertFalse(Arrays.equals(Files.readAllBytes(contents.getWatermarkedContent(1)),
+                Files.readAllBytes(contents.getWatermarkedContent(2))));
+    }
+
+    @Test
+    public void testDocumentWithoutContent() throws IOException {
+        Assert.assertFalse(watermarker.stamp(3, book));
+        Assert.assertFalse(Files.exists(contents.getWatermarkedContent(3)));
+
+        put(4, new byte[0]);
+        Assert.assertTrue(watermarker.stamp(4, book));
+        Assert.assertEquals(0, Files.size(contents.getWatermarkedContent(4)));
+    }
+
+    private void put(int ticket, byte[] content) throws IOException {
+        contents.put(ticket, contents.spool(new ByteArrayInputStream(content)));
+    }
+
+    private static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        return content;
+    }
+
+}
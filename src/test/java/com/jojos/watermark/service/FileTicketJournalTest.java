@@ -0,0 +1,266 @@
+package com.jojos.watermark.service;
+
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+import com.jojos.watermark.domain.Watermark;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Unit test of the {@link FileTicketJournal}
+ *
+ * @author gkaranikas
+ */
+public class FileTicketJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private FileTicketJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.getRoot().toPath();
+        journal = open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+    }
+
+    @Test
+    public void testReplayRecords() throws IOException {
+        Assert.assertTrue(replay(journal).isEmpty());
+        journal.created(1, new Book("A Brief History of Time", new Author("Stephen", "Hawking"), Topic.Science));
+        journal.created(2, new Journal("Νέα Εστία", null));
+        journal.completed(1);
+        journal.awaitDurable(journal.removed(2));
+        journal.close();
+
+        journal = open();
+        List<String> records = replay(journal);
+        Assert.assertEquals(4, records.size());
+        Assert.assertEquals("created 1 Book A Brief History of Time Science", records.get(0));
+        Assert.assertEquals("created 2 Journal Νέα Εστία", records.get(1));
+        Assert.assertEquals("completed 1", records.get(2));
+        Assert.assertEquals("removed 2", records.get(3));
+    }
+
+    @Test
+    public void testIncompleteTailIsDropped() throws IOException {
+        replay(journal);
+        journal.created(1, new Journal("first", new Author("a", "b")));
+        journal.awaitDurable(journal.created(2, new Journal("second", new Author("a", "b"))));
+        journal.close();
+
+        Path file = FileTicketJournal.segmentFile(directory, 1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // a torn write of the second record
+            channel.truncate(channel.size() - 3);
+            // followed by garbage
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 9, 1, 2}), channel.size());
+        }
+
+        journal = open();
+        List<String> records = replay(journal);
+        Assert.assertEquals(1, records.size());
+        journal.awaitDurable(journal.completed(1));
+        journal.close();
+
+        journal = open();
+        records = replay(journal);
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals("completed 1", records.get(1));
+    }
+
+    @Test
+    public void testConcurrentAppendsAreAllDurable() throws Exception {
+        replay(journal);
+        int threads = 8;
+        int perThread = 2_000;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger ticketIds = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            executorService.submit(() -> {
+                latch.await();
+                for (int i = 0; i < perThread; i++) {
+                    int ticket = ticketIds.incrementAndGet();
+                    journal.awaitDurable(journal.created(ticket, new Journal("Journal" + ticket, new Author("a", "b"))));
+                }
+                return null;
+            });
+        }
+        latch.countDown();
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+        journal.close();
+
+        journal = open();
+        Assert.assertEquals(threads * perThread, replay(journal).size());
+    }
+
+    @Test
+    public void testSnapshotCompactsJournal() throws IOException {
+        replay(journal);
+        Assert.assertFalse(journal.snapshot(source(0)));
+
+        Journal first = new Journal("first", new Author("a", "b"));
+        Journal second = new Journal("second", new Author("a", "b"));
+        journal.created(1, first);
+        journal.created(2, second);
+        journal.completed(1);
+        journal.created(3, second);
+        journal.removed(3);
+        Assert.assertTrue(journal.snapshot(source(3, first.withWatermark(Watermark.createFor(first)), second)));
+        Assert.assertFalse(journal.snapshot(source(3)));
+        // the tail after the snapshot
+        journal.awaitDurable(journal.completed(2));
+        journal.close();
+
+        Assert.assertFalse(Files.exists(FileTicketJournal.segmentFile(directory, 1)));
+        Assert.assertTrue(Files.exists(FileTicketJournal.snapshotFile(directory, 2)));
+        journal = open();
+        List<String> records = replay(journal);
+        Assert.assertEquals(List.of("last 3", "created 1 Journal first", "completed 1", "created 2 Journal second",
+                "completed 2"), records);
+
+        // a second snapshot replaces the first one
+        journal.created(4, first);
+        Assert.assertTrue(journal.snapshot(source(4, first, second)));
+        journal.close();
+        Assert.assertFalse(Files.exists(FileTicketJournal.snapshotFile(directory, 2)));
+        journal = open();
+        Assert.assertEquals(List.of("last 4", "created 1 Journal first", "created 2 Journal second"), replay(journal));
+    }
+
+    @Test
+    public void testSegmentsRollOverBySize() throws IOException {
+        journal = new FileTicketJournal(directory, true, 4096, 256);
+        replay(journal);
+        for (int ticket = 1; ticket <= 100; ticket++) {
+            journal.awaitDurable(journal.created(ticket, new Journal("Journal" + ticket, new Author("a", "b"))));
+        }
+        journal.close();
+
+        Assert.assertTrue(Files.exists(FileTicketJournal.segmentFile(directory, 2)));
+        journal = open();
+        Assert.assertEquals(100, replay(journal).size());
+    }
+
+    @Test
+    public void testExpiredTicketsSurviveSnapshot() throws IOException {
+        replay(journal);
+        Journal document = new Journal("kept", new Author("a", "b"));
+        journal.created(8, document);
+        journal.completed(8);
+        Assert.assertTrue(journal.snapshot(source(8, new int[] {2, 3, 4, 6}, document)));
+        journal.awaitDurable(journal.expired(1));
+        journal.close();
+
+        journal = open();
+        Assert.assertEquals(List.of("last 8", "created 1 Journal kept", "expired 2", "expired 3", "expired 4",
+                "expired 6", "expired 1"), replay(journal));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAppendBeforeReplay() {
+        journal.completed(1);
+    }
+
+    private FileTicketJournal open() throws IOException {
+        // a small buffer so that appends have to wait for the buffer to be written out
+        return new FileTicketJournal(directory, true, 4096, 1 << 20);
+    }
+
+    /**
+     * @param documents the documents of the tickets 1, 2 and so on
+     */
+    private static TicketSnapshotSource source(int lastTicket, Document... documents) {
+        return source(lastTicket, new int[0], documents);
+    }
+
+    /**
+     * @param expired the expired tickets in ascending order
+     * @param documents the documents of the tickets 1, 2 and so on
+     */
+    private static TicketSnapshotSource source(int lastTicket, int[] expired, Document... documents) {
+        return new TicketSnapshotSource() {
+            @Override
+            public int getLastTicket() {
+                return lastTicket;
+            }
+
+            @Override
+            public void forEachTicket(ObjIntConsumer<Document> consumer) {
+                for (int i = 0; i < documents.length; i++) {
+                    consumer.accept(documents[i], i + 1);
+                }
+            }
+
+            @Override
+            public void forEachExpiredTicket(IntConsumer consumer) {
+                IntStream.of(expired).forEach(consumer);
+            }
+        };
+    }
+
+    private static List<String> replay(TicketJournal journal) {
+        List<String> records = new ArrayList<>();
+        journal.replay(new TicketJournalVisitor() {
+            @Override
+            public void lastTicket(int ticket) {
+                records.add("last " + ticket);
+            }
+
+            @Override
+            public void created(int ticket, Document document) {
+                String topic = document instanceof Book ? " " + ((Book) document).getTopic() : "";
+                records.add("created " + ticket + " " + document.getClass().getSimpleName() + " " + document.getTitle() + topic);
+            }
+
+            @Override
+            public void completed(int ticket) {
+                records.add("completed " + ticket);
+            }
+
+            @Override
+            public void removed(int ticket) {
+                records.add("removed " + ticket);
+            }
+
+            @Override
+            public void expired(int ticket) {
+                records.add("expired " + ticket);
+            }
+        });
+        return records;
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.jojos.watermark.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Testing of the {@link RateLimitedLog} against a clock that is moved by hand
+ *
+ * @author gkaranikas
+ */
+public class RateLimitedLogTest {
+
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Mock
+    private Logger logger;
+
+    private final AtomicLong clock = new AtomicLong();
+    private RateLimitedLog log;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(logger.isInfoEnabled()).thenReturn(true);
+        log = new RateLimitedLog(logger, INTERVAL_NANOS, clock::get);
+    }
+
+    @Test
+    public void testOneMessagePerInterval() {
+        log.info("Creating ticket {}", 1);
+        log.info("Creating ticket {}", 2);
+        log.info("Creating ticket {}", 3);
+        verify(logger).info("Creating ticket {}", new Object[]{1});
+
+        clock.addAndGet(INTERVAL_NANOS);
+        log.info("Creating ticket {}", 4);
+        verify(logger).info("Creating ticket {} ({} similar messages suppressed)", new Object[]{4, 2L});
+        verify(logger, times(2)).info(anyString(), any(Object[].class));
+    }
+
+    @Test
+    public void testWarnings() {
+        when(logger.isWarnEnabled()).thenReturn(true);
+        log.warn("Could not forward to node {}: {}", 1, "timeout");
+        log.warn("Could not forward to node {}: {}", 1, "timeout");
+        clock.addAndGet(INTERVAL_NANOS);
+        log.warn("Could not forward to node {}: {}", 2, "timeout");
+        verify(logger).warn("Could not forward to node {}: {}", new Object[]{1, "timeout"});
+        verify(logger).warn("Could not forward to node {}: {} ({} similar messages suppressed)", new Object[]{2, "timeout", 1L});
+        verify(logger, never()).info(anyString(), any(Object[].class));
+    }
+
+    @Test
+    public void testEveryMessageAtDebug() {
+        when(logger.isDebugEnabled()).thenReturn(true);
+        for (int ticket = 1; ticket <= 3; ticket++) {
+            log.info("Creating ticket {}", ticket);
+        }
+        verify(logger, times(3)).info(anyString(), any(Object[].class));
+    }
+
+    @Test
+    public void testNothingWithInfoDisabled() {
+        when(logger.isInfoEnabled()).thenReturn(false);
+        log.info("Creating ticket {}", 1);
+        verify(logger, never()).info(anyString(), any(Object[].class));
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.jojos.watermark.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit test of the {@link TicketIds}
+ *
+ * @author gkaranikas
+ */
+public class TicketIdsTest {
+
+    @Test
+    public void testSingleShardCountsFromOne() {
+        TicketIds ticketIds = new TicketIds(1);
+        Assert.assertEquals(0, ticketIds.last());
+        Assert.assertEquals(1, ticketIds.next());
+        Assert.assertEquals(2, ticketIds.next());
+        Assert.assertEquals(3, ticketIds.reserve(3));
+        Assert.assertEquals(6, ticketIds.next());
+        Assert.assertEquals(6, ticketIds.last());
+    }
+
+    @Test
+    public void testShardRunsOutOfTicketsRatherThanWrap() {
+        // node 1 of 2 hands out the even tickets
+        TicketIds ticketIds = new TicketIds(1, 1, 2);
+        ticketIds.advancePast(Integer.MAX_VALUE - 5);
+        try {
+            ticketIds.reserve(3);
+            Assert.fail("Expected the tickets to run out");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(Integer.MAX_VALUE - 3, ticketIds.reserve(2));
+        Assert.assertEquals(Integer.MAX_VALUE - 1, ticketIds.last());
+        try {
+            ticketIds.next();
+            Assert.fail("Expected the tickets to run out");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(Integer.MAX_VALUE - 1, ticketIds.last());
+    }
+
+    @Test
+    public void testTicketsEncodeTheirShard() {
+        TicketIds ticketIds = new TicketIds(8);
+        for (int shard = 0; shard < 8; shard++) {
+            for (int sequence = 1; sequence < 100; sequence++) {
+                int ticket = ticketIds.ticket(shard, sequence);
+                Assert.assertEquals(shard, ticketIds.shardOf(ticket));
+                Assert.assertEquals(sequence, ticketIds.sequenceOf(ticket));
+            }
+        }
+        // the tickets of all the shards together are dense
+        Assert.assertEquals(1, ticketIds.ticket(0, 1));
+        Assert.assertEquals(8, ticketIds.ticket(7, 1));
+        Assert.assertEquals(9, ticketIds.ticket(0, 2));
+    }
+
+    @Test
+    public void testNoTicketIsHandedOutTwice() throws Exception {
+        TicketIds ticketIds = new TicketIds(4);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<int[]>> results = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            results.add(executorService.submit(() -> {
+                int[] tickets = new int[10_000];
+                for (int i = 0; i < tickets.length; i++) {
+                    tickets[i] = ticketIds.next();
+                }
+                return tickets;
+            }));
+        }
+        executorService.shutdown();
+
+        BitSet seen = new BitSet();
+        int last = 0;
+        for (Future<int[]> result : results) {
+            for (int ticket : result.get()) {
+                Assert.assertFalse("Ticket " + ticket + " was handed out twice", seen.get(ticket));
+                seen.set(ticket);
+                last = Math.max(last, ticket);
+            }
+        }
+        Assert.assertEquals(80_000, seen.cardinality());
+        Assert.assertEquals(last, ticketIds.last());
+    }
+
+    @Test
+    public void testAdvancePastRecoveredTickets() {
+        TicketIds ticketIds = new TicketIds(4);
+        ticketIds.advancePast(10);
+        Assert.assertEquals(10, ticketIds.last());
+        // a shard never goes back
+        ticketIds.advancePast(2);
+        Assert.assertEquals(10, ticketIds.last());
+
+        // no shard hands out a ticket up to 21 any more, whether it had handed out tickets before or not
+        ticketIds.advanceAllPast(21);
+        Assert.assertEquals(21, ticketIds.last());
+        int next = ticketIds.next();
+        Assert.assertTrue(next > 21 && next <= 25);
+    }
+
+    @Test
+    public void testTicketsEncodeTheirNode() {
+        TicketIds[] nodes = new TicketIds[3];
+        BitSet seen = new BitSet();
+        for (int node = 0; node < nodes.length; node++) {
+            nodes[node] = new TicketIds(4, node, nodes.length);
+        }
+        for (int node = 0; node < nodes.length; node++) {
+            for (int shard = 0; shard < 4; shard++) {
+                for (int sequence = 1; sequence < 100; sequence++) {
+                    int ticket = nodes[node].ticket(shard, sequence);
+                    Assert.assertFalse("Ticket " + ticket + " is handed out twice", seen.get(ticket));
+                    seen.set(ticket);
+                    Assert.assertEquals(node, nodes[node].nodeOf(ticket));
+                    // any node can tell the node of a ticket
+                    Assert.assertEquals(node, nodes[(node + 1) % nodes.length].nodeOf(ticket));
+                    Assert.assertEquals(shard, nodes[node].shardOf(ticket));
+                    Assert.assertEquals(sequence, nodes[node].sequenceOf(ticket));
+                }
+            }
+        }
+        // the tickets of all the nodes together are dense
+        Assert.assertEquals(3 * 4 * 99, seen.cardinality());
+        Assert.assertEquals(1, seen.nextSetBit(0));
+        Assert.assertEquals(3 * 4 * 99, seen.length() - 1);
+
+        // a node skips the tickets of the others
+        nodes[1].advanceAllPast(28);
+        Assert.assertEquals(20, nodes[1].last());
+        Assert.assertEquals(1, nodes[1].nodeOf(nodes[1].next()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShardsArePowerOfTwo() {
+        new TicketIds(3);
+    }
+
+}
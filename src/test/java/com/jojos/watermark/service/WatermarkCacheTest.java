@@ -0,0 +1,56 @@
+package com.jojos.watermark.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
+import com.jojos.watermark.domain.Watermark;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit test of the {@link WatermarkCache}
+ *
+ * @author gkaranikas
+ */
+public class WatermarkCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private WatermarkCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new WatermarkCache(objectMapper, 100);
+        cache.bindTo(registry);
+    }
+
+    @Test
+    public void testSameDocumentSharesWatermarkAndJson() throws Exception {
+        CachedWatermark first = cache.get(new Book("Earth", new Author("Sougamoto", "Soi"), Topic.Science));
+        CachedWatermark second = cache.get(new Book("Earth", new Author("Sougamoto", "Soi"), Topic.Science));
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(objectMapper.writeValueAsString(first.getWatermark()), new String(first.getJson(), StandardCharsets.UTF_8));
+        Assert.assertEquals(1, registry.get("cache.gets").tag("cache", "watermarks").tag("result", "hit").functionCounter().count(), 0);
+        Assert.assertEquals(1, registry.get("cache.gets").tag("cache", "watermarks").tag("result", "miss").functionCounter().count(), 0);
+    }
+
+    @Test
+    public void testWatermarkOfWatermarkedDocumentIsKept() {
+        Journal journal = new Journal("Digital Media", new Author("Elias", "Rimon"));
+        Watermark watermark = Watermark.createFor(journal);
+
+        CachedWatermark cached = cache.get(journal.withWatermark(watermark));
+        Assert.assertSame(watermark, cached.getWatermark());
+        Assert.assertEquals("{\"content\":\"Journal\",\"title\":\"Digital Media\",\"author\":\"Elias Rimon\"}",
+                new String(cached.getJson(), StandardCharsets.UTF_8));
+        Assert.assertSame(cached, cache.get(journal));
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.jojos.watermark.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit test of the order the {@link WatermarkQueue} hands out the tasks of the {@link WatermarkScheduler} in
+ *
+ * @author gkaranikas
+ */
+public class WatermarkQueueTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final WatermarkScheduler scheduler =
+            new WatermarkScheduler(16, 1, Map.of("premium", 2.0), 10, 0, clock::get);
+    private final List<String> ran = new ArrayList<>();
+
+    @Test
+    public void testInteractiveGoesAheadOfBulkBacklog() {
+        WatermarkQueue queue = new WatermarkQueue(1000);
+        for (int i = 0; i < 100; i++) {
+            queue.offer(task("bulk", "batch", WatermarkPriority.BULK, 1));
+        }
+        queue.poll().run();
+        queue.poll().run();
+        queue.offer(task("interactive", "reader", WatermarkPriority.INTERACTIVE, 1));
+
+        queue.poll().run();
+        Assert.assertEquals(List.of("bulk", "bulk", "interactive"), ran);
+        Assert.assertEquals(98, queue.size(WatermarkPriority.BULK));
+        Assert.assertEquals(0, queue.size(WatermarkPriority.INTERACTIVE));
+        Assert.assertEquals(1, queue.flows());
+    }
+
+    @Test
+    public void testClientsShareByWeight() {
+        WatermarkQueue queue = new WatermarkQueue(1000);
+        for (int i = 0; i < 12; i++) {
+            queue.offer(task("a", "a", WatermarkPriority.BULK, 1));
+            queue.offer(task("premium", "premium", WatermarkPriority.BULK, 1));
+        }
+        // a batch of three documents costs as much as three single ones
+        for (int i = 0; i < 4; i++) {
+            queue.offer(task("c", "c", WatermarkPriority.BULK, 3));
+        }
+        Assert.assertEquals(3, queue.flows());
+
+        for (int i = 0; i < 16; i++) {
+            queue.poll().run();
+        }
+        // premium gets twice the share of a, and a three times the tasks of c
+        Assert.assertEquals(9, ran.stream().filter("premium"::equals).count());
+        Assert.assertEquals(5, ran.stream().filter("a"::equals).count());
+        Assert.assertEquals(2, ran.stream().filter("c"::equals).count());
+    }
+
+    @Test
+    public void testTasksOfAFlowKeepTheirOrder() {
+        WatermarkQueue queue = new WatermarkQueue(10);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(task(Integer.toString(i), "a", WatermarkPriority.BULK, 1));
+        }
+        List<Runnable> drained = new ArrayList<>();
+        Assert.assertEquals(5, queue.drainTo(drained));
+        drained.forEach(Runnable::run);
+        Assert.assertEquals(List.of("0", "1", "2", "3", "4"), ran);
+        Assert.assertEquals(0, queue.flows());
+    }
+
+    @Test
+    public void testQueueIsBounded() throws InterruptedException {
+        WatermarkQueue queue = new WatermarkQueue(2);
+        Assert.assertTrue(queue.offer(task("1", "a", WatermarkPriority.BULK, 1)));
+        Assert.assertTrue(queue.offer(task("2", "b", WatermarkPriority.INTERACTIVE, 1)));
+        Assert.assertFalse(queue.offer(task("3", "c", WatermarkPriority.INTERACTIVE, 1)));
+        Assert.assertFalse(queue.offer(task("3", "c", WatermarkPriority.INTERACTIVE, 1), 1, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, queue.remainingCapacity());
+
+        Assert.assertNotNull(queue.take());
+        Assert.assertEquals(1, queue.remainingCapacity());
+        Assert.assertTrue(queue.remove(queue.peek()));
+        Assert.assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testTaskPastItsDeadlineExpires() {
+        WatermarkQueue queue = new WatermarkQueue(10);
+        queue.offer(task("interactive", "reader", WatermarkPriority.INTERACTIVE, 1));
+        // bulk tasks have no deadline here
+        queue.offer(task("bulk", "batch", WatermarkPriority.BULK, 1));
+        queue.offer(() -> ran.add("plain"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(11));
+
+        for (Runnable task; (task = queue.poll()) != null; ) {
+            task.run();
+        }
+        Assert.assertEquals(List.of("expired interactive", "bulk", "plain"), ran);
+    }
+
+    @Test
+    public void testExpiredTasksMakeRoomInAFullQueue() {
+        WatermarkQueue queue = new WatermarkQueue(3);
+        queue.offer(task("interactive", "reader", WatermarkPriority.INTERACTIVE, 1));
+        queue.offer(task("bulk", "batch", WatermarkPriority.BULK, 1));
+        queue.offer(task("other", "reader", WatermarkPriority.INTERACTIVE, 1));
+        Assert.assertFalse(queue.offer(task("rejected", "reader", WatermarkPriority.INTERACTIVE, 1)));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(11));
+
+        // the interactive tasks are past their deadline, the bulk one has none
+        Assert.assertTrue(queue.offer(task("new", "reader", WatermarkPriority.INTERACTIVE, 1)));
+        Assert.assertEquals(List.of("expired interactive", "expired other"), ran);
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(1, queue.size(WatermarkPriority.INTERACTIVE));
+        Assert.assertEquals(2, queue.flows());
+
+        Assert.assertTrue(queue.offer(task("last", "reader", WatermarkPriority.INTERACTIVE, 1)));
+        Assert.assertFalse(queue.offer(task("rejected", "reader", WatermarkPriority.INTERACTIVE, 1)));
+        for (Runnable task; (task = queue.poll()) != null; ) {
+            task.run();
+        }
+        Assert.assertEquals(List.of("expired interactive", "expired other", "bulk", "new", "last"), ran);
+    }
+
+    private Runnable task(String name, String client, WatermarkPriority priority, int cost) {
+        return scheduler.schedule(() -> ran.add(name), new Scheduling(client, priority, Scheduling.DEFAULT_DEADLINE),
+                cost, () -> ran.add("expired " + name));
+    }
+
+}
@@ -2,20 +2,42 @@ package com.jojos.watermark.service;
 
 import com.jojos.watermark.domain.Document;
 import com.jojos.watermark.domain.Watermark;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
-import org.powermock.api.mockito.PowerMockito;
-import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
-import static org.mockito.Matchers.any;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -23,28 +45,47 @@ import static org.mockito.Mockito.when;
  *
  * @author gkaranikas
  */
-@RunWith(PowerMockRunner.class)
-@PrepareForTest({Watermark.class})
 public class WatermarkServiceTest {
-    @InjectMocks
     private WatermarkService service;
     @Mock
     private WatermarkStore store;
     @Mock
+    private WatermarkExecutor executor;
+    @Mock
+    private WatermarkCache cache;
+    @Mock
+    private ContentStore contents;
+    @Mock
+    private ContentWatermarker watermarker;
+    @Mock
     private Document document;
     @Mock
     private Watermark watermark;
 
     private static final AtomicInteger ticketIds = new AtomicInteger();
 
+    private SimpleMeterRegistry registry;
+    private AutoCloseable mocks;
+    private MockedStatic<Watermark> watermarks;
+
     @Before
     public void setUp() {
-        MockitoAnnotations.initMocks(this);
-        PowerMockito.mockStatic(Watermark.class);
-        when(store.storeDocumentAndCreateTicket(any())).thenReturn(ticketIds.incrementAndGet());
+        mocks = MockitoAnnotations.openMocks(this);
+        registry = new SimpleMeterRegistry();
+        service = new WatermarkService(store, executor, WatermarkScheduler.unweighted(), AdmissionLimiter.unlimited(),
+                cache, new WatermarkMetrics(registry), contents, watermarker, 2);
+        watermarks = Mockito.mockStatic(Watermark.class);
+        when(store.storeDocumentOrGetTicket(any())).thenReturn(new TicketAssignment(ticketIds.incrementAndGet(), true));
         when(store.getWatermarkForTicket(any())).thenReturn(watermark);
         when(store.storeDocumentForTicket(any(), any())).thenReturn(true);
-        when(Watermark.createFor(document)).thenReturn(watermark);
+        watermarks.when(() -> Watermark.createFor(document)).thenReturn(watermark);
+        when(cache.get(document)).thenReturn(new CachedWatermark(watermark, new byte[0]));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        watermarks.close();
+        mocks.close();
     }
 
     @Test
@@ -59,10 +100,252 @@ public class WatermarkServiceTest {
         }
     }
 
+    @Test
+    public void testExistingTicketIsNotWatermarkedAgain() {
+        when(store.storeDocumentOrGetTicket(any())).thenReturn(new TicketAssignment(1, false));
+        Assert.assertEquals(Integer.valueOf(1), service.createWatermarkFor(document));
+        verify(executor, never()).execute(any());
+    }
+
+    @Test
+    public void testRejectedWatermarkTaskDiscardsTicket() {
+        doThrow(new RejectedExecutionException()).when(executor).execute(any());
+        try {
+            service.createWatermarkFor(document);
+            Assert.fail("Expected the watermark task to be rejected");
+        } catch (RejectedExecutionException e) {
+            verify(store).removeTicket(ticketIds.get());
+        }
+    }
+
+    @Test
+    public void testPipelineIsMetered() {
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(executor).execute(any());
+        service.createWatermarkFor(document);
+        when(store.storeDocumentOrGetTicket(any())).thenReturn(new TicketAssignment(1, false));
+        service.createWatermarkFor(document);
+        doThrow(new RejectedExecutionException()).when(executor).execute(any());
+        when(store.storeDocumentOrGetTicket(any())).thenReturn(new TicketAssignment(ticketIds.incrementAndGet(), true));
+        try {
+            service.createWatermarkFor(document);
+            Assert.fail("Expected the watermark task to be rejected");
+        } catch (RejectedExecutionException expected) {
+        }
+
+        Assert.assertEquals(2, registry.get("watermark.tickets.created").counter().count(), 0);
+        Assert.assertEquals(1, registry.get("watermark.tickets.deduplicated").counter().count(), 0);
+        Assert.assertEquals(1, registry.get("watermark.tickets.completed").counter().count(), 0);
+        Assert.assertEquals(0, registry.get("watermark.tickets.failed").counter().count(), 0);
+        Assert.assertEquals(1, registry.get("watermark.tickets.rejected").tag("reason", "busy").counter().count(), 0);
+        Assert.assertEquals(3, registry.get("watermark.pipeline").tag("stage", "store").timer().count());
+        for (String stage : Arrays.asList("queued", "watermark", "persist")) {
+            Assert.assertEquals(stage, 1, registry.get("watermark.pipeline").tag("stage", stage).timer().count());
+        }
+    }
+
+    @Test
+    public void testContentIsStampedBeforeTicketCompletes() throws Exception {
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(executor).execute(any());
+        Integer ticket = service.createWatermarkFor(document);
+
+        InOrder inOrder = Mockito.inOrder(watermarker, store);
+        inOrder.verify(watermarker).stamp(ticket, watermark);
+        inOrder.verify(store).storeDocumentForTicket(eq(ticket), any());
+    }
+
+    @Test
+    public void testTicketThatCantBeStampedIsCancelled() throws Exception {
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(executor).execute(any());
+        when(watermarker.stamp(anyInt(), any())).thenThrow(new IOException("No space left on device"));
+        when(store.cancelTicket(any())).thenReturn(true, false);
+
+        WatermarkJob job = service.submitWatermarkFor(document);
+        Assert.assertTrue(job.getWatermark().isCancelled());
+        verify(store, atLeastOnce()).cancelTicket(job.getTicket());
+        verify(store, never()).storeDocumentForTicket(any(), any());
+        Assert.assertEquals(1, registry.get("watermark.tickets.failed").counter().count(), 0);
+    }
+
+    @Test
+    public void testBatchIsWatermarkedInChunks() {
+        List<TicketAssignment> assignments = Arrays.asList(new TicketAssignment(10, true), new TicketAssignment(11, true),
+                new TicketAssignment(3, false), new TicketAssignment(12, true), new TicketAssignment(13, true),
+                new TicketAssignment(14, true));
+        when(store.storeDocumentsOrGetTickets(any())).thenReturn(assignments);
+
+        List<Integer> tickets = service.createWatermarksFor(Collections.nCopies(assignments.size(), document));
+        Assert.assertEquals(Arrays.asList(10, 11, 3, 12, 13, 14), tickets);
+        // chunks of two new documents each
+        verify(executor, times(3)).execute(any());
+    }
+
+    @Test
+    public void testRejectedBatchChunkDiscardsAllTickets() throws Exception {
+        List<TicketAssignment> assignments = Arrays.asList(new TicketAssignment(10, true), new TicketAssignment(11, true),
+                new TicketAssignment(3, false), new TicketAssignment(12, true), new TicketAssignment(13, true),
+                new TicketAssignment(14, true));
+        when(store.storeDocumentsOrGetTickets(any())).thenReturn(assignments);
+        ArgumentCaptor<Runnable> queued = ArgumentCaptor.forClass(Runnable.class);
+        doNothing().doThrow(new RejectedExecutionException()).when(executor).execute(queued.capture());
+        try {
+            service.createWatermarksFor(Collections.nCopies(assignments.size(), document));
+            Assert.fail("Expected the watermark task to be rejected");
+        } catch (RejectedExecutionException e) {
+            // the client never gets the tickets of the chunk that was queued either
+            for (int ticket : new int[]{10, 11, 12, 13, 14}) {
+                verify(store).removeTicket(ticket);
+            }
+            verify(store, never()).removeTicket(3);
+        }
+
+        // the chunk that was queued skips its discarded tickets
+        queued.getAllValues().get(0).run();
+        verify(watermarker, never()).stamp(anyInt(), any());
+        verify(store, never()).storeDocumentForTicket(any(), any());
+    }
+
     @Test
     public void testGetWatermarkForTicket() {
         when(store.getWatermarkForTicket(any())).thenReturn(watermark);
         Assert.assertEquals(watermark, service.getWatermarkForTicket(4));
     }
 
+    @Test
+    public void testSubmittedJobCompletesWithWatermark() {
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(executor).execute(any());
+
+        WatermarkJob job = service.submitWatermarkFor(document);
+        Assert.assertEquals(ticketIds.get(), job.getTicket());
+        Assert.assertTrue(job.isCreated());
+        Assert.assertEquals(watermark, job.getWatermark().getNow(null));
+        Assert.assertTrue(job.getStoreNanos() > 0);
+        Assert.assertTrue(job.getWatermarkNanos() > 0);
+        Assert.assertTrue(job.getPersistNanos() > 0);
+    }
+
+    @Test
+    public void testCompletedTicketKeepsTheJsonOfItsWatermark() {
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        ArgumentCaptor<IntConsumer> removalListener = ArgumentCaptor.forClass(IntConsumer.class);
+        verify(store).onTicketRemoved(removalListener.capture());
+        CachedWatermark cached = cache.get(document);
+
+        Integer ticket = service.createWatermarkFor(document);
+        verify(executor).execute(task.capture());
+        task.getValue().run();
+
+        // whether the document is still cached or not, the polls neither look it up nor serialize it again
+        Assert.assertSame(cached, service.getCachedWatermarkForTicket(ticket));
+        Assert.assertSame(cached, service.getCachedWatermarkForTicket(ticket));
+        verify(cache, times(2)).get(document);
+        verify(store, never()).getWatermarkedDocument(any());
+        verify(store, times(2)).watermarkCollected(ticket);
+
+        removalListener.getValue().accept(ticket);
+        Assert.assertNull(service.getCachedWatermarkForTicket(ticket));
+    }
+
+    @Test
+    public void testCancelledJobIsNotWatermarked() {
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        when(store.cancelTicket(any())).thenReturn(true);
+
+        WatermarkJob job = service.submitWatermarkFor(document);
+        verify(executor).execute(task.capture());
+        Assert.assertTrue(service.cancelTicket(job.getTicket()));
+        Assert.assertTrue(job.getWatermark().isCancelled());
+
+        task.getValue().run();
+        verify(store, never()).storeDocumentForTicket(any(), any());
+    }
+
+    @Test
+    public void testTicketPastItsDeadlineIsDropped() {
+        AtomicLong clock = new AtomicLong();
+        service = new WatermarkService(store, executor, new WatermarkScheduler(16, 1, Map.of(), 10, 10, clock::get),
+                AdmissionLimiter.unlimited(), cache, new WatermarkMetrics(registry), contents, watermarker, 2);
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        // the ticket is only there to cancel once
+        when(store.cancelTicket(any())).thenReturn(true, false);
+
+        WatermarkJob job = service.submitWatermarkFor(document);
+        verify(executor).execute(task.capture());
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(11));
+        task.getValue().run();
+
+        verify(store, never()).storeDocumentForTicket(any(), any());
+        Assert.assertTrue(job.getWatermark().isCancelled());
+        Assert.assertEquals(1, registry.get("watermark.tickets.rejected").tag("reason", "deadline").counter().count(), 0);
+    }
+
+    @Test
+    public void testOverloadedRequestIsTurnedAwayBeforeItsStored() {
+        service = new WatermarkService(store, executor, WatermarkScheduler.unweighted(),
+                new AdmissionLimiter(true, 100, 100, 100, 1_000_000, 1_000_000, System::nanoTime),
+                cache, new WatermarkMetrics(registry), contents, watermarker, 2);
+        when(store.getPendingTickets()).thenReturn(100L);
+        try {
+            service.createWatermarkFor(document);
+            Assert.fail("Expected the request to be turned away");
+        } catch (OverloadedException e) {
+            Assert.assertEquals(1, e.getRetryAfterSeconds());
+        }
+        try {
+            service.createWatermarksFor(Collections.nCopies(3, document));
+            Assert.fail("Expected the batch to be turned away");
+        } catch (OverloadedException expected) {
+        }
+        verify(store, never()).storeDocumentOrGetTicket(any());
+        verify(store, never()).storeDocumentsOrGetTickets(any());
+        Assert.assertEquals(2,
+                registry.get("watermark.tickets.rejected").tag("reason", "overloaded").counter().count(), 0);
+
+        when(store.getPendingTickets()).thenReturn(99L);
+        Assert.assertEquals(ticketIds.get(), (int) service.createWatermarkFor(document));
+    }
+
+    @Test
+    public void testReusedTicketJobCompletesWhenWatermarkIsCreated() {
+        when(store.storeDocumentOrGetTicket(any())).thenReturn(new TicketAssignment(1, false));
+        ArgumentCaptor<Consumer<Watermark>> listener = ArgumentCaptor.forClass(Consumer.class);
+        when(store.onWatermarkCreated(eq(1), listener.capture())).thenReturn(() -> {});
+
+        WatermarkJob job = service.submitWatermarkFor(document);
+        Assert.assertFalse(job.isCreated());
+        Assert.assertFalse(job.getWatermark().isDone());
+        verify(executor, never()).execute(any());
+
+        listener.getValue().accept(watermark);
+        Assert.assertEquals(watermark, job.getWatermark().getNow(null));
+    }
+
+    @Test
+    public void testRecoveredTicketsAreWatermarkedAgain() {
+        doAnswer(invocation -> {
+            BiConsumer<Integer, Document> visitor = invocation.getArgument(0);
+            for (int ticket = 1; ticket <= 5; ticket++) {
+                visitor.accept(ticket, document);
+            }
+            return null;
+        }).when(store).takeRecoveredTickets(any());
+        // the executor is saturated at first
+        doThrow(new RejectedExecutionException()).doNothing().when(executor).execute(any());
+
+        service.resumeRecoveredTickets();
+        // chunks of two recovered tickets each, plus the rejected one
+        verify(executor, timeout(5000).times(4)).execute(any());
+    }
+
 }
@@ -1,17 +1,39 @@
 package com.jojos.watermark.service;
 
+import com.jojos.watermark.domain.Author;
+import com.jojos.watermark.domain.Book;
 import com.jojos.watermark.domain.Document;
+import com.jojos.watermark.domain.Journal;
+import com.jojos.watermark.domain.Topic;
 import com.jojos.watermark.domain.Watermark;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
-import org.junit.rules.ExpectedException;
-import org.mockito.InjectMocks;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.mockito.Mockito.when;
 /**
@@ -20,11 +42,10 @@ import static org.mockito.Mockito.when;
  * @author gkaranikas
  */
 public class WatermarkStoreTest {
-    @InjectMocks
     private WatermarkStore store;
 
     @Rule
-    public final ExpectedException thrown = ExpectedException.none();
+    public final TemporaryFolder folder = new TemporaryFolder();
 
     @Mock
     private Document document;
@@ -33,13 +54,21 @@ public class WatermarkStoreTest {
     @Mock
     private Watermark watermark;
 
+    private AutoCloseable mocks;
+
     @Before
     public void setUp() {
-        MockitoAnnotations.initMocks(this);
+        mocks = MockitoAnnotations.openMocks(this);
+        store = new WatermarkStore();
         when(watermarkedDocument.getWatermark()).thenReturn(Optional.of(watermark));
         when(document.getWatermark()).thenReturn(Optional.empty());
     }
 
+    @After
+    public void tearDown() throws Exception {
+        mocks.close();
+    }
+
     @Test
     public void testStoreDocuments() {
         for (int run = 1; run < 10; run++) {
@@ -47,6 +76,20 @@ public class WatermarkStoreTest {
         }
     }
 
+    @Test
+    public void testTicketsAndPendingTicketsAreMetered() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        store.bindTo(registry);
+        int completed = store.storeDocumentAndCreateTicket(document);
+        int cancelled = store.storeDocumentAndCreateTicket(document);
+        store.storeDocumentAndCreateTicket(document);
+        store.storeDocumentForTicket(completed, watermarkedDocument);
+        store.cancelTicket(cancelled);
+
+        Assert.assertEquals(2, registry.get("watermark.store.tickets").gauge().value(), 0);
+        Assert.assertEquals(1, registry.get("watermark.store.pending").gauge().value(), 0);
+    }
+
     @Test
     public void testStoreDocumentForTicketAssociatedWithNonExistingDocument() {
         Assert.assertFalse(store.storeDocumentForTicket(1, document));
@@ -95,4 +138,395 @@ public class WatermarkStoreTest {
         Assert.assertEquals(watermark, store.getWatermarkForTicket(ticket));
     }
 
+    @Test
+    public void testSameDocumentGetsSameTicket() {
+        TicketAssignment first = store.storeDocumentOrGetTicket(new Book("Earth", new Author("Sougamoto", "Soi"), Topic.Science));
+        TicketAssignment second = store.storeDocumentOrGetTicket(new Book("Earth", new Author("Sougamoto", "Soi"), Topic.Science));
+        Assert.assertTrue(first.isCreated());
+        Assert.assertFalse(second.isCreated());
+        Assert.assertEquals(first.getTicket(), second.getTicket());
+    }
+
+    @Test
+    public void testDifferentDocumentsGetDifferentTickets() {
+        int book = store.storeDocumentOrGetTicket(new Book("Earth", new Author("Sougamoto", "Soi"), Topic.Science)).getTicket();
+        int otherTopic = store.storeDocumentOrGetTicket(new Book("Earth", new Author("Sougamoto", "Soi"), Topic.Media)).getTicket();
+        int journal = store.storeDocumentOrGetTicket(new Journal("Earth", new Author("Sougamoto", "Soi"))).getTicket();
+        Assert.assertEquals(3, IntStream.of(book, otherTopic, journal).distinct().count());
+    }
+
+    @Test
+    public void testRemovedTicketIsNotReused() {
+        Journal journal = new Journal("Earth", new Author("Sougamoto", "Soi"));
+        int ticket = store.storeDocumentOrGetTicket(journal).getTicket();
+        Assert.assertTrue(store.removeTicket(ticket));
+        TicketAssignment assignment = store.storeDocumentOrGetTicket(journal);
+        Assert.assertTrue(assignment.isCreated());
+        Assert.assertNotEquals(ticket, assignment.getTicket());
+    }
+
+    @Test
+    public void testSameDocumentRacingGetsSameTicket() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        Callable<TicketAssignment> request = () -> store.storeDocumentOrGetTicket(new Journal("Earth", new Author("Sougamoto", "Soi")));
+        List<Future<TicketAssignment>> results = executorService.invokeAll(IntStream.range(0, 1000).mapToObj(i -> request).collect(Collectors.toList()));
+        executorService.shutdown();
+
+        int created = 0;
+        for (Future<TicketAssignment> result : results) {
+            Assert.assertEquals(1, result.get().getTicket());
+            created += result.get().isCreated() ? 1 : 0;
+        }
+        Assert.assertEquals(1, created);
+    }
+
+    @Test
+    public void testListenerNotifiedOnceWatermarkIsStored() {
+        int ticket = store.storeDocumentAndCreateTicket(document);
+        AtomicReference<Watermark> notified = new AtomicReference<>();
+        AtomicInteger notifications = new AtomicInteger();
+        store.onWatermarkCreated(ticket, created -> {
+            notified.set(created);
+            notifications.incrementAndGet();
+        });
+        Assert.assertEquals(0, notifications.get());
+        Assert.assertEquals(1, store.getAwaitedTickets());
+
+        Assert.assertTrue(store.storeDocumentForTicket(ticket, watermarkedDocument));
+        Assert.assertEquals(watermark, notified.get());
+        Assert.assertEquals(1, notifications.get());
+        Assert.assertEquals(0, store.getAwaitedTickets());
+    }
+
+    @Test
+    public void testListenerNotifiedRightAwayForCompletedOrUnknownTicket() {
+        int ticket = store.storeDocumentAndCreateTicket(document);
+        store.storeDocumentForTicket(ticket, watermarkedDocument);
+
+        AtomicReference<Watermark> notified = new AtomicReference<>();
+        store.onWatermarkCreated(ticket, notified::set);
+        Assert.assertEquals(watermark, notified.get());
+
+        AtomicInteger notifications = new AtomicInteger();
+        store.onWatermarkCreated(ticket + 1, created -> {
+            Assert.assertNull(created);
+            notifications.incrementAndGet();
+        });
+        Assert.assertEquals(1, notifications.get());
+        Assert.assertEquals(0, store.getAwaitedTickets());
+    }
+
+    @Test
+    public void testCancelledListenerIsNotNotified() {
+        int ticket = store.storeDocumentAndCreateTicket(document);
+        AtomicInteger notifications = new AtomicInteger();
+        store.onWatermarkCreated(ticket, created -> notifications.incrementAndGet()).cancel();
+        Assert.assertEquals(0, store.getAwaitedTickets());
+
+        store.storeDocumentForTicket(ticket, watermarkedDocument);
+        Assert.assertEquals(0, notifications.get());
+    }
+
+    @Test
+    public void testListenerNotifiedWhenTicketIsRemoved() {
+        int ticket = store.storeDocumentAndCreateTicket(document);
+        AtomicInteger notifications = new AtomicInteger();
+        store.onWatermarkCreated(ticket, created -> {
+            Assert.assertNull(created);
+            notifications.incrementAndGet();
+        });
+        store.removeTicket(ticket);
+        Assert.assertEquals(1, notifications.get());
+    }
+
+    @Test
+    public void testCancelPendingTicket() {
+        int ticket = store.storeDocumentAndCreateTicket(document);
+        AtomicInteger notifications = new AtomicInteger();
+        store.onWatermarkCreated(ticket, created -> notifications.incrementAndGet());
+
+        Assert.assertTrue(store.cancelTicket(ticket));
+        Assert.assertEquals(1, notifications.get());
+        Assert.assertFalse(store.cancelTicket(ticket));
+        // a watermark task that was already running doesn't bring the ticket back
+        Assert.assertFalse(store.storeDocumentForTicket(ticket, watermarkedDocument));
+        Assert.assertNull(store.getWatermarkForTicket(ticket));
+    }
+
+    @Test
+    public void testCancelCompletedOrUnknownTicket() {
+        int ticket = store.storeDocumentAndCreateTicket(document);
+        store.storeDocumentForTicket(ticket, watermarkedDocument);
+
+        Assert.assertFalse(store.cancelTicket(ticket));
+        Assert.assertEquals(watermark, store.getWatermarkForTicket(ticket));
+        Assert.assertFalse(store.cancelTicket(ticket + 1));
+    }
+
+    @Test
+    public void testUncollectedTicketExpiresAfterCompletion() {
+        AtomicLong clock = new AtomicLong();
+        store = new WatermarkStore(new HeapTicketStore(), new NoOpTicketJournal(),
+                new TicketRetention(1000, 0, 0, clock::get), true);
+        Journal journal = new Journal("Earth", new Author("Sougamoto", "Soi"));
+        int ticket = store.storeDocumentOrGetTicket(journal).getTicket();
+        int pending = store.storeDocumentAndCreateTicket(document);
+        clock.set(500);
+        store.storeDocumentForTicket(ticket, journal.withWatermark(Watermark.createFor(journal)));
+
+        clock.set(1499);
+        Assert.assertEquals(0, store.evictExpiredTickets());
+        clock.set(1500);
+        Assert.assertEquals(1, store.evictExpiredTickets());
+        Assert.assertTrue(store.isExpired(ticket));
+        Assert.assertNull(store.getWatermarkForTicket(ticket));
+        Assert.assertEquals(List.of(TicketStatus.EXPIRED, TicketStatus.PENDING, TicketStatus.UNKNOWN), lookup(ticket, pending, pending + 1));
+        // the document is forgotten along with its ticket
+        Assert.assertTrue(store.storeDocumentOrGetTicket(journal).isCreated());
+
+        // pending tickets are never evicted
+        clock.set(100_000);
+        Assert.assertEquals(0, store.evictExpiredTickets());
+        Assert.assertFalse(store.isExpired(pending));
+    }
+
+    @Test
+    public void testCollectedTicketExpiresAfterRetrieval() {
+        AtomicLong clock = new AtomicLong();
+        store = new WatermarkStore(new HeapTicketStore(), new NoOpTicketJournal(),
+                new TicketRetention(1000, 5000, 0, clock::get), true);
+        int collected = store.storeDocumentAndCreateTicket(document);
+        int uncollected = store.storeDocumentAndCreateTicket(document);
+        store.storeDocumentForTicket(collected, watermarkedDocument);
+        store.storeDocumentForTicket(uncollected, watermarkedDocument);
+        clock.set(200);
+        Assert.assertEquals(watermark, store.getWatermarkForTicket(collected));
+
+        // a collected ticket isn't subject to the shorter ttl of the uncollected ones
+        clock.set(1000);
+        Assert.assertEquals(1, store.evictExpiredTickets());
+        Assert.assertTrue(store.isExpired(uncollected));
+        Assert.assertFalse(store.isExpired(collected));
+        // retrieving it again doesn't renew it
+        Assert.assertEquals(watermark, store.getWatermarkForTicket(collected));
+        clock.set(5200);
+        Assert.assertEquals(1, store.evictExpiredTickets());
+        Assert.assertTrue(store.isExpired(collected));
+    }
+
+    @Test
+    public void testOldestCompletedTicketsEvictedBeyondMaxTickets() {
+        store = new WatermarkStore(new HeapTicketStore(), new NoOpTicketJournal(),
+                new TicketRetention(0, 0, 3, () -> 0), true);
+        int[] tickets = IntStream.range(0, 5).map(i -> store.storeDocumentAndCreateTicket(document)).toArray();
+        store.storeDocumentForTicket(tickets[3], watermarkedDocument);
+        store.storeDocumentForTicket(tickets[1], watermarkedDocument);
+        store.storeDocumentForTicket(tickets[4], watermarkedDocument);
+
+        Assert.assertEquals(2, store.evictExpiredTickets());
+        Assert.assertEquals(List.of(TicketStatus.PENDING, TicketStatus.EXPIRED, TicketStatus.PENDING,
+                TicketStatus.EXPIRED, TicketStatus.COMPLETED), lookup(tickets));
+        // only pending tickets are left beyond the one completed
+        store.storeDocumentAndCreateTicket(document);
+        Assert.assertEquals(1, store.evictExpiredTickets());
+        Assert.assertEquals(0, store.evictExpiredTickets());
+    }
+
+    @Test
+    public void testCollectedTicketsAreNotTrackedForEverBeyondMaxTickets() {
+        TicketRetention retention = new TicketRetention(0, 0, 3, () -> 0);
+        store = new WatermarkStore(new HeapTicketStore(), new NoOpTicketJournal(), retention, true);
+        for (int i = 0; i < 100; i++) {
+            int ticket = store.storeDocumentAndCreateTicket(document);
+            store.storeDocumentForTicket(ticket, watermarkedDocument);
+            Assert.assertEquals(watermark, store.getWatermarkForTicket(ticket));
+            store.evictExpiredTickets();
+        }
+        Assert.assertEquals(3, retention.getTracked());
+    }
+
+    @Test
+    public void testCollectedTicketIsEvictedBeyondMaxTicketsOnceUncollectedOnesExpire() {
+        AtomicLong clock = new AtomicLong();
+        store = new WatermarkStore(new HeapTicketStore(), new NoOpTicketJournal(),
+                new TicketRetention(1000, 0, 1, clock::get), true);
+        int collected = store.storeDocumentAndCreateTicket(document);
+        store.storeDocumentForTicket(collected, watermarkedDocument);
+        Assert.assertEquals(watermark, store.getWatermarkForTicket(collected));
+        clock.set(1000);
+        Assert.assertEquals(0, store.evictExpiredTickets());
+
+        int completed = store.storeDocumentAndCreateTicket(document);
+        store.storeDocumentForTicket(completed, watermarkedDocument);
+        Assert.assertEquals(1, store.evictExpiredTickets());
+        Assert.assertEquals(List.of(TicketStatus.COMPLETED, TicketStatus.EXPIRED), lookup(completed, collected));
+    }
+
+    @Test
+    public void testRecoverFromSnapshotAndJournal() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        FileTicketJournal journal = new FileTicketJournal(directory, true, 4096, 1 << 20);
+        WatermarkStore store = new WatermarkStore(new CompactTicketStore(false, 4096), journal, TicketRetention.unbounded(), true);
+        Journal completed = new Journal("completed", new Author("a", "b"));
+        Journal pending = new Journal("pending", new Author("a", "b"));
+        Journal cancelled = new Journal("cancelled", new Author("a", "b"));
+        Book batched = new Book("batched", new Author("a", "b"), Topic.Business);
+
+        int completedTicket = store.storeDocumentOrGetTicket(completed).getTicket();
+        int pendingTicket = store.storeDocumentOrGetTicket(pending).getTicket();
+        int cancelledTicket = store.storeDocumentOrGetTicket(cancelled).getTicket();
+        Assert.assertTrue(store.snapshot());
+        int batchedTicket = store.storeDocumentsOrGetTickets(List.of(batched, completed)).get(0).getTicket();
+        store.storeDocumentForTicket(completedTicket, completed.withWatermark(Watermark.createFor(completed)));
+        store.cancelTicket(cancelledTicket);
+        journal.close();
+
+        journal = new FileTicketJournal(directory, true, 4096, 1 << 20);
+        store = new WatermarkStore(new CompactTicketStore(false, 4096), journal, TicketRetention.unbounded(), true);
+        try {
+            Assert.assertEquals("completed", store.getWatermarkForTicket(completedTicket).getTitle());
+            Assert.assertNull(store.getWatermarkForTicket(pendingTicket));
+            Assert.assertFalse(store.cancelTicket(cancelledTicket));
+            // the ticket ids go on from where they were and the documents are still deduplicated
+            Assert.assertEquals(completedTicket, store.storeDocumentOrGetTicket(completed).getTicket());
+            Assert.assertEquals(batchedTicket + 1, (int) store.storeDocumentAndCreateTicket(cancelled));
+
+            Map<Integer, String> recovered = new HashMap<>();
+            store.takeRecoveredTickets((ticket, document) -> recovered.put(ticket, document.getTitle()));
+            Assert.assertEquals(Map.of(pendingTicket, "pending", batchedTicket, "batched"), recovered);
+            store.takeRecoveredTickets((ticket, document) -> Assert.fail("The recovered tickets are only given back once"));
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testRecoverExpiredTickets() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        AtomicLong clock = new AtomicLong();
+        FileTicketJournal journal = new FileTicketJournal(directory, true, 4096, 1 << 20);
+        WatermarkStore store = new WatermarkStore(new HeapTicketStore(), journal,
+                new TicketRetention(1000, 0, 0, clock::get), true);
+        int[] tickets = new int[4];
+        for (int i = 0; i < tickets.length; i++) {
+            Journal document = new Journal("document" + i, new Author("a", "b"));
+            tickets[i] = store.storeDocumentAndCreateTicket(document);
+            store.storeDocumentForTicket(tickets[i], document.withWatermark(Watermark.createFor(document)));
+            if (i == 1) {
+                clock.set(1000);
+                store.evictExpiredTickets();
+                Assert.assertTrue(store.snapshot());
+            }
+        }
+        clock.set(2000);
+        Assert.assertEquals(2, store.evictExpiredTickets());
+        journal.close();
+
+        journal = new FileTicketJournal(directory, true, 4096, 1 << 20);
+        store = new WatermarkStore(new HeapTicketStore(), journal, TicketRetention.unbounded(), true);
+        try {
+            Assert.assertEquals(Arrays.stream(tickets).mapToObj(ticket -> TicketStatus.EXPIRED).collect(Collectors.toList()),
+                    lookup(store, tickets));
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testShardedStoreHandsOutUniqueTickets() throws Exception {
+        store = new WatermarkStore(HeapTicketStore::new, 4, Cluster.standalone(), new NoOpTicketJournal(),
+                TicketRetention.unbounded(), true);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = executorService.invokeAll(IntStream.range(0, 1000).
+                mapToObj(i -> (Callable<Integer>) () -> store.storeDocumentOrGetTicket(new Journal("Journal " + i, new Author("a", "b"))).getTicket()).
+                collect(Collectors.toList()));
+        results.addAll(executorService.invokeAll(List.of(() -> store.storeDocumentsOrGetTickets(
+                IntStream.range(1000, 1100).mapToObj(i -> new Journal("Journal " + i, new Author("a", "b"))).collect(Collectors.toList())).
+                get(99).getTicket())));
+        executorService.shutdown();
+
+        Map<Integer, String> titles = new HashMap<>();
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertNull(titles.put(results.get(i).get(), "Journal " + (i < 1000 ? i : 1099)));
+        }
+        for (Map.Entry<Integer, String> ticket : titles.entrySet()) {
+            Journal journal = new Journal(ticket.getValue(), new Author("a", "b"));
+            Assert.assertEquals((int) ticket.getKey(), store.storeDocumentOrGetTicket(journal).getTicket());
+            Assert.assertTrue(store.storeDocumentForTicket(ticket.getKey(), journal.withWatermark(Watermark.createFor(journal))));
+            Assert.assertEquals(ticket.getValue(), store.getWatermarkForTicket(ticket.getKey()).getTitle());
+        }
+        Assert.assertEquals(List.of(TicketStatus.UNKNOWN), lookup(0));
+    }
+
+    @Test
+    public void testRecoverShardedStore() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        FileTicketJournal journal = new FileTicketJournal(directory, true, 4096, 1 << 20);
+        WatermarkStore store = new WatermarkStore(() -> new CompactTicketStore(false, 4096), 4, Cluster.standalone(),
+                journal, TicketRetention.unbounded(), true);
+        // tickets from a few threads, so that they are spread over the shards
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Integer> tickets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Journal document = new Journal("Journal " + i, new Author("a", "b"));
+            tickets.add(executorService.submit(() -> store.storeDocumentAndCreateTicket(document)).get());
+            if (i == 9) {
+                Assert.assertTrue(store.snapshot());
+            }
+        }
+        executorService.shutdown();
+        journal.close();
+
+        journal = new FileTicketJournal(directory, true, 4096, 1 << 20);
+        WatermarkStore recovered = new WatermarkStore(() -> new CompactTicketStore(false, 4096), 4, Cluster.standalone(),
+                journal, TicketRetention.unbounded(), true);
+        try {
+            Map<Integer, String> pending = new HashMap<>();
+            recovered.takeRecoveredTickets((ticket, document) -> pending.put(ticket, document.getTitle()));
+            Assert.assertEquals(IntStream.range(0, 20).boxed().collect(Collectors.toMap(tickets::get, i -> "Journal " + i)), pending);
+            // none of the shards hands out a ticket of the ones recovered
+            executorService = Executors.newFixedThreadPool(4);
+            for (int i = 20; i < 40; i++) {
+                Journal document = new Journal("Journal " + i, new Author("a", "b"));
+                int ticket = executorService.submit(() -> recovered.storeDocumentAndCreateTicket(document)).get();
+                Assert.assertFalse(tickets.contains(ticket));
+            }
+            Journal document = new Journal("Journal 40", new Author("a", "b"));
+            Assert.assertFalse(tickets.contains(recovered.storeDocumentAndCreateTicket(document)));
+        } finally {
+            executorService.shutdown();
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testTicketsOfOtherNodesAreUnknown() {
+        Cluster cluster = new Cluster(0, List.of(URI.create("http://node0"), URI.create("http://node1")));
+        store = new WatermarkStore(HeapTicketStore::new, 1, cluster, new NoOpTicketJournal(),
+                TicketRetention.unbounded(), true);
+        Journal journal = new Journal("Nature", new Author("a", "b"));
+        Assert.assertEquals(1, (int) store.storeDocumentAndCreateTicket(journal));
+        Assert.assertTrue(store.storeDocumentForTicket(1, journal.withWatermark(Watermark.createFor(journal))));
+
+        // ticket 2 is the first one of node 1, not the first one of this node
+        Assert.assertEquals(1, store.getNodeForTicket(2));
+        Assert.assertNull(store.getWatermarkedDocument(2));
+        Assert.assertEquals(List.of(TicketStatus.COMPLETED, TicketStatus.UNKNOWN, TicketStatus.UNKNOWN),
+                lookup(1, 2, -1));
+        Assert.assertFalse(store.cancelTicket(2));
+        Assert.assertFalse(store.removeTicket(2));
+        Assert.assertFalse(store.storeDocumentForTicket(2, journal.withWatermark(Watermark.createFor(journal))));
+        Assert.assertEquals("Nature", store.getWatermarkForTicket(1).getTitle());
+    }
+
+    private List<TicketStatus> lookup(int... tickets) {
+        return lookup(store, tickets);
+    }
+
+    private static List<TicketStatus> lookup(WatermarkStore store, int... tickets) {
+        List<TicketStatus> statuses = new ArrayList<>();
+        store.lookupTickets(IntStream.of(tickets).iterator(), (ticket, status, watermark) -> statuses.add(status));
+        return statuses;
+    }
+
 }